@@ -19,7 +19,9 @@ import javax.swing.Timer;
  * AnimationViewer object comprises a list of Shapes and a Timer object. An
  * AnimationViewer instance subscribes to events that are published by a Timer.
  * In response to receiving an event from the Timer, the AnimationViewer iterates 
- * through a list of Shapes requesting that each Shape paints and moves itself.
+ * through a list of Shapes requesting that each Shape moves itself, and then
+ * requests a repaint. Painting only paints the Shapes, so a slow or skipped 
+ * repaint does not affect how the Shapes move.
  * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  * 
@@ -76,18 +78,12 @@ public class AnimationViewer extends JPanel implements ActionListener {
 		// Call inherited implementation to handle background painting.
 		super.paintComponent(g);
 		
-		// Calculate bounds of animation screen area.
-		int width = getSize().width;
-		int height = getSize().height;
-		
 		// Create a GraphicsPainter that Shape objects will use for drawing.
 		// The GraphicsPainter delegates painting to a basic Graphics object.
 		Painter painter = new GraphicsPainter(g);
 		
-		// Progress the animation.
 		for(Shape s : _shapes) {
 			s.paint(painter);
-			s.move(width, height);
 		}
 	}
 
@@ -96,6 +92,15 @@ public class AnimationViewer extends JPanel implements ActionListener {
 	 * received by the Timer.
 	 */
 	public void actionPerformed(ActionEvent e) {
+		// Calculate bounds of animation screen area.
+		int width = getSize().width;
+		int height = getSize().height;
+		
+		// Progress the animation.
+		for(Shape s : _shapes) {
+			s.move(width, height);
+		}
+		
 		// Request that the AnimationViewer repaints itself. The call to 
 		// repaint() will cause the AnimationViewer's paintComponent() method 
 		// to be called.
@@ -0,0 +1,362 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the Painter interface that paints into a BufferedImage,
+ * batching primitives by colour. Rather than making one Java2D call per
+ * primitive (six for a hexagon), with a colour change around every filled
+ * DynamicShape, a BatchingPainter appends the outlines of rectangles, ovals,
+ * lines and hexagons to one Path2D per colour, and filled rectangles to
+ * another, and draws each path with a single call when the batches are
+ * flushed. The image can then be copied to the screen in one operation.
+ *
+ * Batching reorders painting, which would change the result where shapes of
+ * different colours overlap. So before a primitive is added to its colour's
+ * batch, it is checked against the bounds of the other colours' pending
+ * batches; if it overlaps any of them, all pending batches are flushed first.
+ * Text and images are not batched; pending batches are flushed before they
+ * are drawn. Nor are diagonal outlines (ovals, lines and hexagons) that cross
+ * the edge of the clip, because Java2D clips paths slightly differently from
+ * individual primitives. The result is pixel-for-pixel the same as painting 
+ * the same calls with a GraphicsPainter; like a GraphicsPainter, a
+ * BatchingPainter draws images from copies made by CompatibleImages.
+ *
+ * @author Dave Shin
+ */
+public class BatchingPainter implements Painter {
+
+	// Matches the initial colour set by GraphicsPainter.
+	private static final Color DEFAULT_COLOR = new Color(212, 212, 212);
+
+	// Pending primitives of one colour, and the bounds they cover.
+	private static class Batch {
+		Color _color;
+		Path2D.Float _outlines = new Path2D.Float();
+		Path2D.Float _fills = new Path2D.Float();
+		boolean _pending;
+		int _left, _top, _right, _bottom;
+
+		Batch(Color color) {
+			_color = color;
+		}
+	}
+
+	private Graphics2D _g;
+
+	// Area of the image that may be painted.
+	private Rectangle _clip;
+
+	// Paints unbatched text and hexagons into the image, and the ellipse
+	// reused to append ovals.
+	private GraphicsPainter _graphicsPainter;
+	private Ellipse2D.Float _oval = new Ellipse2D.Float();
+
+	// Batches for each colour used, and those holding pending primitives.
+	private Map<Color, Batch> _batches = new HashMap<Color, Batch>();
+	private List<Batch> _pending = new ArrayList<Batch>();
+
+	private Color _color = DEFAULT_COLOR;
+	private Batch _batch;
+
+	// Current translation, applied to primitive coordinates as they are
+	// batched.
+	private int _translateX;
+	private int _translateY;
+
+	// Number of shapes skipped because they lie outside the clip bounds.
+	private int _culledShapes;
+
+	/**
+	 * Creates a BatchingPainter that paints into image, limited to clip. If
+	 * clip is null the whole image may be painted.
+	 */
+	public BatchingPainter(BufferedImage image, Rectangle clip) {
+		_g = image.createGraphics();
+		_clip = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		if (clip != null) {
+			_g.setClip(clip);
+			_clip = _clip.intersection(clip);
+		}
+		_graphicsPainter = new GraphicsPainter(_g);
+	}
+
+	/**
+	 * Returns the Graphics object used to paint into the image, e.g. so that
+	 * its font can be set before painting.
+	 */
+	public Graphics2D getGraphics() {
+		return _g;
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawRect
+	 */
+	public void drawRect(int x, int y, int width, int height) {
+		x += _translateX;
+		y += _translateY;
+		rectangle(batch(x, y, x + width + 1, y + height + 1)._outlines, x, y, width, height);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawOval
+	 */
+	public void drawOval(int x, int y, int width, int height) {
+		x += _translateX;
+		y += _translateY;
+		if (!inside(x, y, x + width + 1, y + height + 1)) {
+			unbatched().drawOval(x, y, width, height);
+			return;
+		}
+		_oval.setFrame(x, y, width, height);
+		batch(x, y, x + width + 1, y + height + 1)._outlines.append(_oval, false);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawLine
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		x1 += _translateX;
+		y1 += _translateY;
+		x2 += _translateX;
+		y2 += _translateY;
+		int left = Math.min(x1, x2);
+		int top = Math.min(y1, y2);
+		int right = Math.max(x1, x2) + 1;
+		int bottom = Math.max(y1, y2) + 1;
+		if (!inside(left, top, right, bottom)) {
+			unbatched().drawLine(x1, y1, x2, y2);
+			return;
+		}
+		segment(batch(left, top, right, bottom)._outlines, x1, y1, x2, y2);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawHexagon
+	 */
+	public void drawHexagon(int x, int y, int width, int height) {
+		x += _translateX;
+		y += _translateY;
+		if (!inside(x, y, x + width + 1, y + height + 1)) {
+			unbatched();
+			_graphicsPainter.drawHexagon(x, y, width, height);
+			return;
+		}
+		Path2D.Float outlines = batch(x, y, x + width + 1, y + height + 1)._outlines;
+
+		// Same segments as GraphicsPainter.drawHexagon().
+		int middle = y + (height / 2);
+		if (width >= 40) {
+			segment(outlines, x, middle, x + 20, y);
+			segment(outlines, x + 20, y, (x + width) - 20, y);
+			segment(outlines, (x + width) - 20, y, x + width, middle);
+			segment(outlines, x + width, middle, (x + width) - 20, y + height);
+			segment(outlines, (x + width) - 20, y + height, x + 20, y + height);
+			segment(outlines, x + 20, y + height, x, middle);
+		} else {
+			int centre = x + (width / 2);
+			segment(outlines, x, middle, centre, y);
+			segment(outlines, centre, y, x + width, middle);
+			segment(outlines, x + width, middle, centre, y + height);
+			segment(outlines, centre, y + height, x, middle);
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawImage
+	 */
+	public void drawImage(Image img, int x, int y, int width, int height) {
+		flush();
+		Image copy = CompatibleImages.compatible(img, width, height, _g.getDeviceConfiguration());
+		if (copy.getWidth(null) == width && copy.getHeight(null) == height) {
+			_g.drawImage(copy, x + _translateX, y + _translateY, null);
+		} else {
+			_g.drawImage(img, x + _translateX, y + _translateY, width, height, null);
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.fillRect
+	 */
+	public void fillRect(int x, int y, int width, int height) {
+		x += _translateX;
+		y += _translateY;
+		rectangle(batch(x, y, x + width, y + height)._fills, x, y, width, height);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.getColor
+	 */
+	public Color getColor() {
+		return _color;
+	}
+
+	/**
+	 * @see spaceshapes.Painter.setColor
+	 */
+	public void setColor(Color color) {
+		_color = color;
+		_batch = null;
+	}
+
+	/**
+	 * @see spaceshapes.Painter.translate
+	 */
+	public void translate(int x, int y) {
+		_translateX += x;
+		_translateY += y;
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawCentredText
+	 */
+	public void drawCentredText(int shapeX, int shapeY, int shapeWidth, int shapeHeight, String text) {
+		flush();
+		_g.setColor(_color);
+		_g.translate(_translateX, _translateY);
+		_graphicsPainter.drawCentredText(shapeX, shapeY, shapeWidth, shapeHeight, text);
+		_g.translate(-_translateX, -_translateY);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.getClipBounds
+	 */
+	public Rectangle getClipBounds() {
+		Rectangle clip = _g.getClipBounds();
+		if (clip != null) {
+			clip.translate(-_translateX, -_translateY);
+		}
+		return clip;
+	}
+
+	/**
+	 * @see spaceshapes.Painter.getFontMetrics
+	 */
+	public FontMetrics getFontMetrics() {
+		return _g.getFontMetrics();
+	}
+
+	/**
+	 * @see spaceshapes.Painter.shapesCulled
+	 */
+	public void shapesCulled(int count) {
+		_culledShapes += count;
+	}
+
+	/**
+	 * Returns the number of shapes that have been skipped by this
+	 * BatchingPainter because they lie outside the clip bounds.
+	 */
+	public int culledShapeCount() {
+		return _culledShapes;
+	}
+
+	/**
+	 * Draws all pending batches into the image. This must be called once
+	 * painting is complete.
+	 */
+	public void flush() {
+		for (int i = 0; i < _pending.size(); i++) {
+			Batch batch = _pending.get(i);
+			_g.setColor(batch._color);
+			_g.draw(batch._outlines);
+			_g.fill(batch._fills);
+			batch._outlines.reset();
+			batch._fills.reset();
+			batch._pending = false;
+		}
+		_pending.clear();
+	}
+
+	/**
+	 * Flushes any pending batches and releases the resources used to paint
+	 * into the image. This BatchingPainter cannot be used afterwards.
+	 */
+	public void dispose() {
+		flush();
+		_g.dispose();
+	}
+
+	/*
+	 * Returns true if the specified bounds lie wholly within the clip.
+	 */
+	private boolean inside(int left, int top, int right, int bottom) {
+		return left >= _clip.x && top >= _clip.y && right <= _clip.x + _clip.width && bottom <= _clip.y + _clip.height;
+	}
+
+	/*
+	 * Flushes all pending batches and returns the Graphics object, in the
+	 * current colour, so that a primitive can be drawn without batching.
+	 */
+	private Graphics2D unbatched() {
+		flush();
+		_g.setColor(_color);
+		return _g;
+	}
+
+	/*
+	 * Returns the batch for the current colour, ready to receive a primitive
+	 * covering the specified bounds. If the primitive overlaps a pending
+	 * batch of another colour, all pending batches are flushed first.
+	 */
+	private Batch batch(int left, int top, int right, int bottom) {
+		if (_batch == null) {
+			_batch = _batches.get(_color);
+			if (_batch == null) {
+				_batch = new Batch(_color);
+				_batches.put(_color, _batch);
+			}
+		}
+
+		for (int i = 0; i < _pending.size(); i++) {
+			Batch other = _pending.get(i);
+			if (other != _batch && left < other._right && right > other._left && top < other._bottom && bottom > other._top) {
+				flush();
+				break;
+			}
+		}
+
+		if (!_batch._pending) {
+			_batch._pending = true;
+			_batch._left = left;
+			_batch._top = top;
+			_batch._right = right;
+			_batch._bottom = bottom;
+			_pending.add(_batch);
+		} else {
+			_batch._left = Math.min(_batch._left, left);
+			_batch._top = Math.min(_batch._top, top);
+			_batch._right = Math.max(_batch._right, right);
+			_batch._bottom = Math.max(_batch._bottom, bottom);
+		}
+		return _batch;
+	}
+
+	/*
+	 * Appends a rectangle to path, as Path2D.append(Rectangle) would but
+	 * without creating a Rectangle.
+	 */
+	private static void rectangle(Path2D.Float path, int x, int y, int width, int height) {
+		path.moveTo(x, y);
+		path.lineTo(x + width, y);
+		path.lineTo(x + width, y + height);
+		path.lineTo(x, y + height);
+		path.closePath();
+	}
+
+	private static void segment(Path2D.Float path, int x1, int y1, int x2, int y2) {
+		path.moveTo(x1, y1);
+		path.lineTo(x2, y2);
+	}
+}
@@ -1,7 +1,7 @@
 package spaceshapes;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.Rectangle;
+import java.util.Arrays;
 
 /**
  * Class to represent a rectangular space-shape that can contain other shapes.
@@ -13,12 +13,43 @@ import java.util.List;
  */
 public class CarrierShape extends Shape {
 
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Slots that hold the shapes that are inside this CarrierShape (which
+	 * are called children), in order. The shapes that are inside the 
+	 * children are not recorded here. Each child records its own slot, so 
+	 * that it can be found and removed without a search. Removing a child
+	 * leaves its slot empty (null) rather than shifting the children after 
+	 * it; empty slots are reclaimed by compact().
+	 */
+	private Shape[] _children = new Shape[INITIAL_CAPACITY];
+
+	/**
+	 * Number of slots in use, including empty ones, and number of children.
+	 */
+	private int _slotCount;
+	private int _childCount;
+
+	/**
+	 * Fenwick tree counting the children in each range of slots, used to 
+	 * convert between slots and index positions while there are empty 
+	 * slots. Null when there are none, in which case a child's slot is its
+	 * index position.
+	 */
+	private int[] _liveSlots;
+
 	/**
-	 * List that contains the shapes that are inside this CarrierShape (which
-	 * are called children). The shapes that are inside the children are not
-	 * recorded here.
+	 * Total number of shapes held within this CarrierShape, including the 
+	 * shapes inside its children. Maintained by add() and remove().
 	 */
-	private List<Shape> _children = new ArrayList<Shape>();
+	private int _descendantCount;
+
+	/**
+	 * Number of shapes with text held within this CarrierShape, including
+	 * those inside its children. Maintained by add(), remove() and addText().
+	 */
+	private int _descendantTextCount;
 
 	/**
 	 * Creates a CarrierShape object with default values for state.
@@ -62,25 +93,83 @@ public class CarrierShape extends Shape {
 	 * width and height. 
 	 */
 	public void move(int width, int height) {
-		super.move(width, height);
-		for (int i = 0; i < _children.size(); i++) {
-			_children.get(i).move(_width, _height); // Use the width and height of this CarrierShape
-			                                        // for the bounds.
+		moveSelf(width, height);
+		compact(); // Every child is visited anyway, so reclaim any empty slots.
+		for (int i = 0; i < _childCount; i++) {
+			_children[i].move(_width, _height); // Use the width and height of this CarrierShape
+			                                    // for the bounds.
+		}
+	}
+
+	/*
+	 * Advances this CarrierShape and its children. Children move within the
+	 * bounds of this CarrierShape's width and height, which don't change, so
+	 * each can be advanced independently. A subclass that overrides move()
+	 * may move its children differently, so its whole subtree is moved tick
+	 * by tick.
+	 */
+	@Override
+	void advance(int width, int height, long ticks) {
+		if (!movesLikeShape(getClass())) {
+			for (long i = 0; i < ticks; i++) {
+				move(width, height);
+			}
+			return;
+		}
+		super.advance(width, height, ticks);
+		compact();
+		for (int i = 0; i < _childCount; i++) {
+			_children[i].advance(_width, _height, ticks);
 		}
 	}
 
+	/*
+	 * Moves this CarrierShape object, but not its children, within the bounds
+	 * specified by arguments width and height. Used by MoveTask when children
+	 * are moved in parallel.
+	 */
+	void moveSelf(int width, int height) {
+		super.move(width, height);
+	}
+
 	/**
 	 * Paints a CarrierShape object by drawing a rectangle around the edge of its bounding box. 
 	 * The CarrierShape objects children are then painted.
 	 */
 	protected void doPaint(Painter painter) {
-		painter.drawRect(_x,_y,_width,_height);
+		int x = x();
+		int y = y();
+		painter.drawRect(x,y,_width,_height);
+
+		// Children (and hence their descendants) that lie wholly outside the clip bounds, along with
+		// their text, are skipped. Descendants' text may extend beyond a child, so children with 
+		// descendants that have text are painted, leaving those descendants to be skipped individually.
+		Rectangle clip = painter.getClipBounds();
+		for (int i = 0; i < _slotCount; i++) {
+			Shape child = _children[i];
+			if (child == null) {
+				continue;
+			}
+			if (clip != null && child.descendantTextCount() == 0
+					&& !paintsWithin(clip, x + child.x(), y + child.y(), child._width, child._height, child.text(), painter)) {
+				painter.shapesCulled(child.subtreeSize());
+				continue;
+			}
+			painter.translate(x, y); // Translate the origin to the top left corner of this CarrierShape.
+			child.paint(painter);
+			painter.translate(-x, -y);// Translate the origin back to the default origin.
+		}
+	}
 
-		for (int i = 0; i < _children.size(); i++) {
-			painter.translate(_x, _y); // Translate the origin to the top left corner of this CarrierShape.
-			_children.get(i).paint(painter);
-			painter.translate(-_x, -_y);// Translate the origin back to the default origin.
+	/*
+	 * Paints this CarrierShape's text and border, but not its children. Used
+	 * by ShapeSnapshot, which records the painting of each shape separately.
+	 */
+	void paintWithoutChildren(Painter painter) {
+		if (text() != null) {
+			painter.drawCentredText(x(), y(), _width, _height, text());
 		}
+		painter.drawRect(x(), y(), _width, _height);
 	}
 
 	/**
@@ -106,9 +195,29 @@ public class CarrierShape extends Shape {
 			throw new IllegalArgumentException();
 		}
 
+		// Make room for the shape, reclaiming empty slots if there are many.
+		if (_slotCount == _children.length) {
+			if (_slotCount - _childCount > _slotCount / 4) {
+				compact();
+			} else {
+				_children = Arrays.copyOf(_children, _children.length * 2);
+				if (_liveSlots != null) {
+					buildLiveSlots();
+				}
+			}
+		}
+
 		// Form the two-way link.
-		_children.add(shape);
+		int slot = _slotCount++;
+		_children[slot] = shape;
+		_childCount++;
+		if (_liveSlots != null) {
+			updateLiveSlots(slot, 1);
+		}
 		shape._parent = this;
+		shape._childSlot = slot;
+		shape.setDepth(depth() + 1);
+		updateDescendantCounts(shape.subtreeSize(), textCount(shape));
 	}
 
 	/**
@@ -119,8 +228,32 @@ public class CarrierShape extends Shape {
 	 * @param shape the shape to be removed.
 	 */
 	void remove(Shape shape) {
-		_children.remove(shape);
+		if (!contains(shape)) {
+			return;
+		}
+		int slot = shape._childSlot;
+		_children[slot] = null;
+		_childCount--;
+		if (_liveSlots != null) {
+			updateLiveSlots(slot, -1);
+		}
 		shape._parent = null;
+		shape._childSlot = -1;
+		shape.setDepth(0);
+		updateDescendantCounts(-shape.subtreeSize(), -textCount(shape));
+
+		// Empty slots at the end need no bookkeeping. Otherwise, compact the
+		// children once more than half of the slots are empty.
+		while (_slotCount > 0 && _children[_slotCount - 1] == null) {
+			_slotCount--;
+		}
+		if (_slotCount == _childCount) {
+			_liveSlots = null;
+		} else if (_slotCount - _childCount > _childCount) {
+			compact();
+		} else if (_liveSlots == null) {
+			buildLiveSlots();
+		}
 	}
 
 	/**
@@ -130,7 +263,10 @@ public class CarrierShape extends Shape {
 	 * @param index the specified index position.
 	 */
 	public Shape shapeAt(int index) throws IndexOutOfBoundsException {
-		return _children.get(index);
+		if (index < 0 || index >= _childCount) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _childCount);
+		}
+		return _liveSlots == null ? _children[index] : _children[slotOf(index)];
 	}
 
 	/**
@@ -138,7 +274,57 @@ public class CarrierShape extends Shape {
 	 * - it simply returns the number of children at the top level within the callee CarrierShape object.
 	 */
 	public int shapeCount() {
-		return _children.size();
+		return _childCount;
+	}
+
+	/*
+	 * Sets the depth of this CarrierShape and its contents.
+	 */
+	@Override
+	void setDepth(int depth) {
+		super.setDepth(depth);
+		for (int i = 0; i < _slotCount; i++) {
+			if (_children[i] != null) {
+				_children[i].setDepth(depth + 1);
+			}
+		}
+	}
+
+	/*
+	 * Returns the number of shapes in the hierarchy rooted at this 
+	 * CarrierShape, including itself.
+	 */
+	@Override
+	int subtreeSize() {
+		return 1 + _descendantCount;
+	}
+
+	/*
+	 * Returns the number of shapes with text held within this CarrierShape.
+	 */
+	@Override
+	int descendantTextCount() {
+		return _descendantTextCount;
+	}
+
+	/*
+	 * Returns the number of shapes with text in the hierarchy rooted at shape.
+	 */
+	private static int textCount(Shape shape) {
+		return (shape.text() == null ? 0 : 1) + shape.descendantTextCount();
+	}
+
+	/*
+	 * Adjusts the descendant count, and the count of descendants with text,
+	 * of this CarrierShape and its ancestors by the specified amounts.
+	 */
+	void updateDescendantCounts(int change, int textChange) {
+		CarrierShape carrier = this;
+		while (carrier != null) {
+			carrier._descendantCount += change;
+			carrier._descendantTextCount += textChange;
+			carrier = carrier._parent;
+		}
 	}
 
 	/**
@@ -148,7 +334,10 @@ public class CarrierShape extends Shape {
 	 * @param the shape whose index position within the CarrierShape is requested.
 	 */
 	public int indexOf(Shape shape) {
-		return _children.indexOf(shape);
+		if (!contains(shape)) {
+			return -1;
+		}
+		return _liveSlots == null ? shape._childSlot : liveSlotsBefore(shape._childSlot);
 	}
 
 	/**
@@ -156,6 +345,82 @@ public class CarrierShape extends Shape {
 	 * false otherwise.
 	 */
 	public boolean contains(Shape shape) {
-		return _children.contains(shape);
+		return shape != null && shape._parent == this;
+	}
+
+	/*
+	 * Moves the children into consecutive slots, reclaiming the empty slots
+	 * left by remove(), so that each child's slot is again its index 
+	 * position. Order is preserved.
+	 */
+	void compact() {
+		if (_liveSlots == null) {
+			return;
+		}
+		int count = 0;
+		for (int i = 0; i < _slotCount; i++) {
+			Shape child = _children[i];
+			if (child != null) {
+				child._childSlot = count;
+				_children[count++] = child;
+			}
+		}
+		Arrays.fill(_children, count, _slotCount, null);
+		_slotCount = count;
+		_liveSlots = null;
+	}
+
+	/*
+	 * Builds the Fenwick tree of occupied slots, sized to the capacity of
+	 * _children.
+	 */
+	private void buildLiveSlots() {
+		int[] tree = new int[_children.length + 1];
+		for (int i = 1; i < tree.length; i++) {
+			if (_children[i - 1] != null) {
+				tree[i]++;
+			}
+			int parent = i + (i & -i);
+			if (parent < tree.length) {
+				tree[parent] += tree[i];
+			}
+		}
+		_liveSlots = tree;
+	}
+
+	/*
+	 * Adds change to the count of children in the specified slot.
+	 */
+	private void updateLiveSlots(int slot, int change) {
+		for (int i = slot + 1; i < _liveSlots.length; i += i & -i) {
+			_liveSlots[i] += change;
+		}
+	}
+
+	/*
+	 * Returns the number of children in the slots before the specified slot,
+	 * i.e. the index position of a child in that slot.
+	 */
+	private int liveSlotsBefore(int slot) {
+		int count = 0;
+		for (int i = slot; i > 0; i -= i & -i) {
+			count += _liveSlots[i];
+		}
+		return count;
+	}
+
+	/*
+	 * Returns the slot of the child at the specified index position.
+	 */
+	private int slotOf(int index) {
+		int slot = 0;
+		int remaining = index + 1;
+		for (int step = Integer.highestOneBit(_liveSlots.length - 1); step > 0; step >>= 1) {
+			if (slot + step < _liveSlots.length && _liveSlots[slot + step] < remaining) {
+				slot += step;
+				remaining -= _liveSlots[slot];
+			}
+		}
+		return slot;
 	}
 }
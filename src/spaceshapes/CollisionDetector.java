@@ -0,0 +1,255 @@
+package spaceshapes;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class that finds sibling shapes that overlap one another and makes them
+ * bounce apart. Used by ShapeModel when collisions are enabled (see
+ * ShapeModel.setCollisionsEnabled()).
+ *
+ * The children of each CarrierShape are tested in two phases. The broad
+ * phase sorts the children by their left edge and sweeps along the x axis,
+ * pairing each child only with those that start before it ends and whose
+ * vertical extents also overlap (sweep and prune). Its cost is dominated by
+ * the sort, O(n log n), rather than O(n^2) for testing every pair. The narrow
+ * phase tests each candidate pair's outlines with the separating axis
+ * theorem: a HexagonShape's outline is the hexagon (or diamond) it paints, an
+ * OvalShape's is approximated by a polygon, and any other shape's is its
+ * bounding rectangle.
+ *
+ * Colliding shapes bounce off one another. The separating axis test yields
+ * the direction in which the outlines overlap least; along whichever of the x
+ * and y axes dominates that direction, each shape that is moving towards the
+ * other has its speed reversed. Shapes that already move apart are left alone,
+ * so shapes that overlap for several ticks don't become stuck together.
+ *
+ * A CollisionDetector reuses its working arrays from tick to tick and is not
+ * thread-safe.
+ *
+ * @author Dave Shin
+ *
+ */
+class CollisionDetector {
+
+	// Number of vertices used to approximate an oval's outline.
+	private static final int OVAL_VERTICES = 16;
+
+	private static final double[] COS = new double[OVAL_VERTICES];
+	private static final double[] SIN = new double[OVAL_VERTICES];
+	static {
+		for (int i = 0; i < OVAL_VERTICES; i++) {
+			COS[i] = Math.cos(2 * Math.PI * i / OVAL_VERTICES);
+			SIN[i] = Math.sin(2 * Math.PI * i / OVAL_VERTICES);
+		}
+	}
+
+	// Bounds of the children of the CarrierShape being processed, and the
+	// children's indices sorted by left edge. Each sort key packs a child's
+	// left edge into the high 32 bits and its index into the low 32 bits.
+	private int[] _left = new int[0];
+	private int[] _top = new int[0];
+	private int[] _right = new int[0];
+	private int[] _bottom = new int[0];
+	private long[] _keys = new long[0];
+
+	// Outlines of the pair being tested.
+	private double[] _xsA = new double[OVAL_VERTICES];
+	private double[] _ysA = new double[OVAL_VERTICES];
+	private double[] _xsB = new double[OVAL_VERTICES];
+	private double[] _ysB = new double[OVAL_VERTICES];
+
+	// Minimum overlap found by the last call to overlaps(), and the axis
+	// along which it was found.
+	private double _overlap;
+	private double _axisX;
+	private double _axisY;
+
+	/**
+	 * Finds and responds to collisions between siblings throughout the
+	 * composition rooted at carrier. Each colliding pair is appended to
+	 * contacts.
+	 */
+	void detect(CarrierShape carrier, List<Shape[]> contacts) {
+		int count = carrier.shapeCount();
+		if (count > 1) {
+			sweep(carrier, count, contacts);
+		}
+
+		// Recurse only after the sweep, as it shares the working arrays.
+		for (int i = 0; i < count; i++) {
+			Shape child = carrier.shapeAt(i);
+			if (child instanceof CarrierShape) {
+				detect((CarrierShape)child, contacts);
+			}
+		}
+	}
+
+	/*
+	 * Performs the broad and narrow phases for carrier's children.
+	 */
+	private void sweep(CarrierShape carrier, int count, List<Shape[]> contacts) {
+		if (_keys.length < count) {
+			int capacity = Math.max(count, _keys.length * 2);
+			_left = new int[capacity];
+			_top = new int[capacity];
+			_right = new int[capacity];
+			_bottom = new int[capacity];
+			_keys = new long[capacity];
+		}
+
+		for (int i = 0; i < count; i++) {
+			Shape child = carrier.shapeAt(i);
+			_left[i] = child.x();
+			_top[i] = child.y();
+			_right[i] = _left[i] + child.width();
+			_bottom[i] = _top[i] + child.height();
+			_keys[i] = ((long)_left[i] << 32) | i;
+		}
+		Arrays.sort(_keys, 0, count);
+
+		for (int i = 0; i < count; i++) {
+			int a = (int)_keys[i];
+			for (int j = i + 1; j < count; j++) {
+				int b = (int)_keys[j];
+				if (_left[b] >= _right[a]) {
+					// b, and every child after it, starts to the right of a.
+					break;
+				}
+				if (_top[b] < _bottom[a] && _top[a] < _bottom[b]) {
+					Shape shapeA = carrier.shapeAt(a);
+					Shape shapeB = carrier.shapeAt(b);
+					if (overlaps(shapeA, shapeB)) {
+						bounce(shapeA, shapeB);
+						contacts.add(new Shape[] {shapeA, shapeB});
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns true if the outlines of a and b overlap. If so, _overlap and
+	 * _axisX/_axisY describe the axis of least overlap.
+	 */
+	private boolean overlaps(Shape a, Shape b) {
+		int countA = outline(a, _xsA, _ysA);
+		int countB = outline(b, _xsB, _ysB);
+		_overlap = Double.MAX_VALUE;
+		return separatingAxes(_xsA, _ysA, countA, _xsB, _ysB, countB)
+				&& separatingAxes(_xsB, _ysB, countB, _xsA, _ysA, countA);
+	}
+
+	/*
+	 * Tests the axes perpendicular to the edges of polygon (xs, ys). Returns
+	 * false if any of them separates the two polygons.
+	 */
+	private boolean separatingAxes(double[] xs, double[] ys, int count, double[] otherXs, double[] otherYs, int otherCount) {
+		for (int i = 0; i < count; i++) {
+			int next = (i + 1) % count;
+			double axisX = ys[i] - ys[next];
+			double axisY = xs[next] - xs[i];
+			double length = Math.sqrt(axisX * axisX + axisY * axisY);
+			if (length == 0) {
+				continue;
+			}
+			axisX /= length;
+			axisY /= length;
+
+			double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+			for (int k = 0; k < count; k++) {
+				double p = xs[k] * axisX + ys[k] * axisY;
+				min = Math.min(min, p);
+				max = Math.max(max, p);
+			}
+			double otherMin = Double.MAX_VALUE, otherMax = -Double.MAX_VALUE;
+			for (int k = 0; k < otherCount; k++) {
+				double p = otherXs[k] * axisX + otherYs[k] * axisY;
+				otherMin = Math.min(otherMin, p);
+				otherMax = Math.max(otherMax, p);
+			}
+
+			double overlap = Math.min(max, otherMax) - Math.max(min, otherMin);
+			if (overlap <= 0) {
+				return false;
+			}
+			if (overlap < _overlap) {
+				_overlap = overlap;
+				_axisX = axisX;
+				_axisY = axisY;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Reverses the speed of a and b along the dominant component of the axis
+	 * of least overlap, for each that is moving towards the other.
+	 */
+	private void bounce(Shape a, Shape b) {
+		// Orient the axis of least overlap from a's centre towards b's.
+		double centreX = (b.x() + b.width() / 2.0) - (a.x() + a.width() / 2.0);
+		double centreY = (b.y() + b.height() / 2.0) - (a.y() + a.height() / 2.0);
+		double axisX = _axisX;
+		double axisY = _axisY;
+		if (axisX * centreX + axisY * centreY < 0) {
+			axisX = -axisX;
+			axisY = -axisY;
+		}
+
+		if (Math.abs(axisX) >= Math.abs(axisY)) {
+			if (a.deltaX() * axisX > 0) {
+				a.setDelta(-a.deltaX(), a.deltaY());
+			}
+			if (b.deltaX() * axisX < 0) {
+				b.setDelta(-b.deltaX(), b.deltaY());
+			}
+		} else {
+			if (a.deltaY() * axisY > 0) {
+				a.setDelta(a.deltaX(), -a.deltaY());
+			}
+			if (b.deltaY() * axisY < 0) {
+				b.setDelta(b.deltaX(), -b.deltaY());
+			}
+		}
+	}
+
+	/*
+	 * Stores the vertices of shape's outline, in its parent's coordinates,
+	 * in xs and ys, and returns the number of vertices.
+	 */
+	private static int outline(Shape shape, double[] xs, double[] ys) {
+		double x = shape.x();
+		double y = shape.y();
+		double width = shape.width();
+		double height = shape.height();
+
+		if (shape instanceof OvalShape) {
+			double radiusX = width / 2;
+			double radiusY = height / 2;
+			for (int i = 0; i < OVAL_VERTICES; i++) {
+				xs[i] = x + radiusX + radiusX * COS[i];
+				ys[i] = y + radiusY + radiusY * SIN[i];
+			}
+			return OVAL_VERTICES;
+		} else if (shape instanceof HexagonShape) {
+			// Matches the outline drawn by GraphicsPainter.drawHexagon().
+			double middle = y + (shape.height() / 2);
+			if (width >= 40) {
+				return polygon(xs, ys, x, middle, x + 20, y, x + width - 20, y,
+						x + width, middle, x + width - 20, y + height, x + 20, y + height);
+			}
+			double centre = x + (shape.width() / 2);
+			return polygon(xs, ys, x, middle, centre, y, x + width, middle, centre, y + height);
+		}
+		return polygon(xs, ys, x, y, x + width, y, x + width, y + height, x, y + height);
+	}
+
+	private static int polygon(double[] xs, double[] ys, double... coordinates) {
+		for (int i = 0; i < coordinates.length / 2; i++) {
+			xs[i] = coordinates[2 * i];
+			ys[i] = coordinates[2 * i + 1];
+		}
+		return coordinates.length / 2;
+	}
+}
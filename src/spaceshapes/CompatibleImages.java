@@ -0,0 +1,118 @@
+package spaceshapes;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps, for each image painted by a GraphicsPainter or BatchingPainter, a
+ * copy that matches the pixel format of the device being painted and is
+ * already scaled to the size it's painted at, so that it can be painted
+ * with an unscaled blit that Java2D can accelerate. Painting an image in a
+ * format that doesn't match the device, or at a different size, converts or
+ * scales every pixel on every frame.
+ *
+ * Copies are held weakly by their images, so a copy lives as long as the
+ * shapes that paint its image. An image shared by shapes of different sizes
+ * has a copy for each size, up to MAX_COPIES; copies are made again only 
+ * when an image is painted at a new size or to a different 
+ * GraphicsConfiguration.
+ * Images must not be drawn on once they've been painted, as their copies
+ * wouldn't be updated.
+ *
+ * @author Dave Shin
+ */
+final class CompatibleImages {
+
+	// The copy of an image for one size and GraphicsConfiguration.
+	private static final class Copy {
+		final GraphicsConfiguration _configuration;
+		final BufferedImage _image;
+
+		Copy(GraphicsConfiguration configuration, BufferedImage image) {
+			_configuration = configuration;
+			_image = image;
+		}
+	}
+
+	// The most copies kept of one image; beyond this, the least recently 
+	// used copy is replaced.
+	private static final int MAX_COPIES = 8;
+
+	// Copies of each image, most recently used first.
+	private static final Map<Image, List<Copy>> COPIES = new WeakHashMap<Image, List<Copy>>();
+
+	private CompatibleImages() {
+		// Not instantiable.
+	}
+
+	/**
+	 * Returns a copy of image that is compatible with configuration and is
+	 * width by height pixels, making the copy if it doesn't exist. Returns
+	 * image itself if it isn't fully loaded, or if width or height isn't
+	 * positive.
+	 */
+	static Image compatible(Image image, int width, int height, GraphicsConfiguration configuration) {
+		if (width <= 0 || height <= 0 || image.getWidth(null) < 0 || image.getHeight(null) < 0) {
+			return image;
+		}
+		synchronized (COPIES) {
+			List<Copy> copies = COPIES.get(image);
+			if (copies != null) {
+				for (int i = 0; i < copies.size(); i++) {
+					Copy copy = copies.get(i);
+					if (copy._configuration == configuration
+							&& copy._image.getWidth() == width && copy._image.getHeight() == height) {
+						if (i > 0) {
+							copies.remove(i);
+							copies.add(0, copy);
+						}
+						return copy._image;
+					}
+				}
+			}
+		}
+
+		int transparency = image instanceof Transparency ? ((Transparency)image).getTransparency() : Transparency.TRANSLUCENT;
+		if (image instanceof BufferedImage && image.getWidth(null) == width && image.getHeight(null) == height
+				&& ((BufferedImage)image).getColorModel().equals(configuration.getColorModel(transparency))) {
+			// The image can be painted as it is.
+			return image;
+		}
+		BufferedImage copy = configuration.createCompatibleImage(width, height, transparency);
+		Graphics2D g = copy.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+
+		synchronized (COPIES) {
+			List<Copy> copies = COPIES.get(image);
+			if (copies == null) {
+				copies = new ArrayList<Copy>(1);
+				COPIES.put(image, copies);
+			}
+			// Replace any copy of the same size, made for another 
+			// GraphicsConfiguration, or else the least recently used copy if
+			// there are too many.
+			for (int i = 0; i < copies.size(); i++) {
+				BufferedImage other = copies.get(i)._image;
+				if (other.getWidth() == width && other.getHeight() == height) {
+					copies.remove(i);
+					break;
+				}
+			}
+			if (copies.size() == MAX_COPIES) {
+				copies.remove(MAX_COPIES - 1);
+			}
+			copies.add(0, new Copy(configuration, copy));
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,125 @@
+package spaceshapes;
+
+import java.awt.FontMetrics;
+import java.awt.Rectangle;
+
+/**
+ * Accumulates the area of a ShapeModel's composition that has changed since
+ * a view last repainted it. After each snapshot is captured, a DirtyRegion
+ * compares every shape's absolute bounds against those recorded by the
+ * previous snapshot and adds both the previous and current bounds of any
+ * shape that changed. The accumulated region is the bounding box of all such
+ * rectangles; views retrieve and reset it with take().
+ *
+ * Shape bounds are widened to cover any centred text, measured with the
+ * FontMetrics of the view that paints the composition.
+ *
+ * A DirtyRegion is updated on the thread that changes the model and read on
+ * the thread that paints it, so its methods are synchronized.
+ *
+ * @author Dave Shin
+ */
+class DirtyRegion {
+
+	private FontMetrics _metrics;
+
+	// Bounding box of the accumulated region, valid if !_empty.
+	private int _left;
+	private int _top;
+	private int _right;
+	private int _bottom;
+	private boolean _empty = true;
+
+	/**
+	 * Creates a DirtyRegion that uses metrics to measure shape text.
+	 */
+	DirtyRegion(FontMetrics metrics) {
+		_metrics = metrics;
+	}
+
+	/**
+	 * Adds to this region the bounds of every shape whose state differs
+	 * between previous and current. If the snapshots don't hold the same
+	 * shapes, or previous is null, the bounds of all shapes in both are
+	 * added.
+	 */
+	void update(ShapeSnapshot previous, ShapeSnapshot current) {
+		if (previous == null || previous.structureVersion() != current.structureVersion()) {
+			addAll(previous);
+			addAll(current);
+			return;
+		}
+
+		for (int i = 0; i < current.shapeCount(); i++) {
+			if (previous.absoluteX(i) != current.absoluteX(i)
+					|| previous.absoluteY(i) != current.absoluteY(i)
+					|| previous.deltaX(i) != current.deltaX(i)
+					|| previous.deltaY(i) != current.deltaY(i)
+					|| previous.text(i) != current.text(i)) {
+				addShape(previous, i);
+				addShape(current, i);
+			}
+		}
+	}
+
+	/**
+	 * Copies the accumulated region into result and resets this region.
+	 * Returns false, leaving result unchanged, if nothing has changed since
+	 * the last call.
+	 */
+	synchronized boolean take(Rectangle result) {
+		if (_empty) {
+			return false;
+		}
+		result.setBounds(_left, _top, _right - _left, _bottom - _top);
+		_empty = true;
+		return true;
+	}
+
+	/*
+	 * Adds the bounds of every shape held by snapshot.
+	 */
+	private void addAll(ShapeSnapshot snapshot) {
+		if (snapshot != null) {
+			for (int i = 0; i < snapshot.shapeCount(); i++) {
+				addShape(snapshot, i);
+			}
+		}
+	}
+
+	/*
+	 * Adds the bounds of the shape at position index within snapshot. A
+	 * painted outline extends one pixel beyond the shape's width and height.
+	 */
+	private void addShape(ShapeSnapshot snapshot, int index) {
+		int x = snapshot.absoluteX(index);
+		int y = snapshot.absoluteY(index);
+		int width = snapshot.width(index);
+		int height = snapshot.height(index);
+		add(x, y, x + width + 1, y + height + 1);
+
+		String text = snapshot.text(index);
+		if (text != null) {
+			// Mirrors the placement used by GraphicsPainter.drawCentredText().
+			int textWidth = TextLayoutCache.shared().layout(text, _metrics).width();
+			int textX = x + (width / 2) - (textWidth / 2);
+			int baseline = y + (height / 2) + Math.abs(_metrics.getAscent() - _metrics.getDescent()) / 2;
+			add(textX, baseline - _metrics.getAscent(), textX + textWidth + 1, baseline + _metrics.getDescent() + 1);
+		}
+	}
+
+	private synchronized void add(int left, int top, int right, int bottom) {
+		if (_empty) {
+			_left = left;
+			_top = top;
+			_right = right;
+			_bottom = bottom;
+			_empty = false;
+		} else {
+			_left = Math.min(_left, left);
+			_top = Math.min(_top, top);
+			_right = Math.max(_right, right);
+			_bottom = Math.max(_bottom, bottom);
+		}
+	}
+}
@@ -95,14 +95,14 @@ public class DynamicShape extends Shape {
 	 */
 	protected void doPaint(Painter painter) {
 		// When we want to fill in with color.
-		if (_fillColor) { 
+		if (isFilled()) { 
 			Color originalColor = painter.getColor(); // Keep the record of the original color.
 			painter.setColor(_color);
-			painter.fillRect(_x,_y,_width,_height);
+			painter.fillRect(x(),y(),_width,_height);
 			painter.setColor(originalColor); // Set the color back to the original color.
 		// When we don't want to fill in with color.	
-		} else if (!_fillColor) {
-			painter.drawRect(_x,_y,_width,_height);
+		} else {
+			painter.drawRect(x(),y(),_width,_height);
 		}
 	}
 
@@ -130,4 +130,43 @@ public class DynamicShape extends Shape {
 			_fillColor = true;
 		}
 	}
+
+	/*
+	 * Sets the fill as move() would have: by the last bounce, which empties
+	 * the shape if it was off the top or bottom wall.
+	 */
+	@Override
+	void advanced(long lastBounceX, long lastBounceY) {
+		if (lastBounceY > 0 && lastBounceY >= lastBounceX) {
+			_fillColor = false;
+		} else if (lastBounceX > 0) {
+			_fillColor = true;
+		}
+	}
+
+	/**
+	 * Returns the colour with which this DynamicShape is filled.
+	 */
+	public Color color() {
+		return _color;
+	}
+	
+	/**
+	 * Returns true if this DynamicShape is currently painted as a solid 
+	 * figure.
+	 */
+	boolean isFilled() {
+		if (_arrays != null) {
+			return _arrays._fill[_slot];
+		}
+		return _fillColor;
+	}
+	
+	/*
+	 * Sets whether this DynamicShape is painted as a solid figure. Used by
+	 * ShapeArrays when copying state back into a detached DynamicShape.
+	 */
+	void setFilled(boolean fill) {
+		_fillColor = fill;
+	}
 }
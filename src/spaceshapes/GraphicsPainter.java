@@ -2,7 +2,10 @@ package spaceshapes;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.awt.FontMetrics; 
 
 /**
@@ -18,6 +21,17 @@ public class GraphicsPainter implements Painter {
 	 * Delegate object.
 	 */
 	private Graphics _g;
+	
+	// Number of shapes skipped because they lie outside the clip bounds.
+	private int _culledShapes;
+	
+	// Whether images are painted from copies made by CompatibleImages.
+	private boolean _compatibleImages = true;
+	
+	// Whether text is measured using the shared TextLayoutCache, and drawn
+	// from its pre-rendered images.
+	private boolean _cachedText = true;
+	private boolean _glyphImages = true;
 
 	/**
 	 * Creates a GraphicsPainter object and sets its Graphics delegate.
@@ -71,9 +85,25 @@ public class GraphicsPainter implements Painter {
 	 * @see spaceshapes.Painter.drawImage.
 	 */
 	public void drawImage(Image img, int x, int y, int width, int height) {
+		if (_compatibleImages && _g instanceof Graphics2D) {
+			Image copy = CompatibleImages.compatible(img, width, height, ((Graphics2D)_g).getDeviceConfiguration());
+			if (copy.getWidth(null) == width && copy.getHeight(null) == height) {
+				_g.drawImage(copy, x, y, null);
+				return;
+			}
+		}
 		_g.drawImage(img, x, y, width, height, null);
 	}
 	
+	/**
+	 * Specifies whether images are painted from copies that match the
+	 * device's pixel format and are already scaled to the size painted (see
+	 * CompatibleImages), which is the default, or are painted as they are.
+	 */
+	public void setCompatibleImages(boolean compatible) {
+		_compatibleImages = compatible;
+	}
+	
 	/**
 	 * @see spaceshapes.Painter.fillRect.
 	 */
@@ -107,15 +137,80 @@ public class GraphicsPainter implements Painter {
 	 */
 	public void drawCentredText(int shapeX, int shapeY, int shapeWidth, int shapeHeight, String text) {
 		FontMetrics metrics = _g.getFontMetrics();
-		int textX = shapeX + (shapeWidth / 2) - (metrics.stringWidth(text) / 2);
-		int textY = shapeY + (shapeHeight / 2);
-		// Check if ascent or descent is greater and perform relevant changes to the Y coordinate
-		// so that the text is centred.
-		if (metrics.getAscent() > metrics.getDescent()) {
-			textY = textY + (metrics.getAscent() - metrics.getDescent()) / 2;
-		} else if (metrics.getAscent() < metrics.getAscent()) {
-			textY = textY - (metrics.getDescent() - metrics.getAscent()) / 2;
+		if (!_cachedText) {
+			int textX = shapeX + (shapeWidth / 2) - (metrics.stringWidth(text) / 2);
+			int textY = shapeY + (shapeHeight / 2);
+			// Check if ascent or descent is greater and perform relevant changes to the Y coordinate
+			// so that the text is centred.
+			if (metrics.getAscent() > metrics.getDescent()) {
+				textY = textY + (metrics.getAscent() - metrics.getDescent()) / 2;
+			} else if (metrics.getAscent() < metrics.getAscent()) {
+				textY = textY - (metrics.getDescent() - metrics.getAscent()) / 2;
+			}
+			_g.drawString(text, textX, textY);
+			return;
+		}
+		
+		// Centre the text using measurements cached from earlier frames. Text
+		// that requires complex layout is drawn pre-rendered, with a single
+		// blit, where that gives the same pixels.
+		TextLayoutCache.Layout layout = TextLayoutCache.shared().layout(text, metrics);
+		int textX = shapeX + (shapeWidth / 2) - (layout.width() / 2);
+		int textY = shapeY + (shapeHeight / 2) + layout.baselineOffset();
+		if (_glyphImages && layout.requiresLayout() && _g instanceof Graphics2D && TextLayoutCache.canDrawGlyphs((Graphics2D)_g)) {
+			BufferedImage glyphs = layout.glyphs(_g.getColor());
+			if (glyphs != null) {
+				_g.drawImage(glyphs, textX + layout.glyphX(), textY + layout.glyphY(), null);
+			}
+		} else {
+			_g.drawString(text, textX, textY);
 		}
-		_g.drawString(text, textX, textY);
+	}
+	
+	/**
+	 * Specifies whether text is measured using the shared TextLayoutCache,
+	 * which is the default, or on every call.
+	 */
+	public void setCachedText(boolean cached) {
+		_cachedText = cached;
+	}
+	
+	/**
+	 * Specifies whether cached text that requires complex layout is drawn
+	 * from images pre-rendered by the TextLayoutCache, which is the default,
+	 * or as strings. The images are used only where they give the same
+	 * pixels.
+	 */
+	public void setGlyphImages(boolean glyphImages) {
+		_glyphImages = glyphImages;
+	}
+	
+	/**
+	 * @see spaceshapes.Painter.getClipBounds.
+	 */
+	public Rectangle getClipBounds() {
+		return _g.getClipBounds();
+	}
+	
+	/**
+	 * @see spaceshapes.Painter.getFontMetrics.
+	 */
+	public FontMetrics getFontMetrics() {
+		return _g.getFontMetrics();
+	}
+	
+	/**
+	 * @see spaceshapes.Painter.shapesCulled.
+	 */
+	public void shapesCulled(int count) {
+		_culledShapes += count;
+	}
+	
+	/**
+	 * Returns the number of shapes that have been skipped by this 
+	 * GraphicsPainter because they lie outside the clip bounds.
+	 */
+	public int culledShapeCount() {
+		return _culledShapes;
 	}
 }
@@ -59,6 +59,6 @@ public class HexagonShape extends Shape {
 	 * Paints this HexagonShape object using the supplied Painter object.
 	 */
 	protected void doPaint(Painter painter) {
-		painter.drawHexagon(_x,_y,_width,_height);
+		painter.drawHexagon(x(),y(),_width,_height);
 	}
 }
@@ -12,6 +12,9 @@ public class ImageRectangleShape extends RectangleShape {
 
 	private Image _picture;
 	
+	// Path of the file from which the image was read, or null.
+	private String _source;
+	
 	public ImageRectangleShape(int deltaX, int deltaY, Image image) {
 		// Derive the shape's width and height from the image.
 		super(2, 2, deltaX, deltaY, image.getWidth(null), image.getHeight(null));
@@ -19,9 +22,26 @@ public class ImageRectangleShape extends RectangleShape {
 		_picture = image;
 	}
 	
+	/**
+	 * Creates an ImageRectangleShape that displays an image read from the 
+	 * file named by source. The source is recorded so that the image can be
+	 * read again when the shape is saved and loaded (see SceneFile).
+	 */
+	public ImageRectangleShape(int deltaX, int deltaY, Image image, String source) {
+		this(deltaX, deltaY, image);
+		_source = source;
+	}
+	
+	/**
+	 * Returns the path of the file from which this ImageRectangleShape's 
+	 * image was read, or null if it isn't known.
+	 */
+	public String source() {
+		return _source;
+	}
+	
 	@Override
 	protected void doPaint(Painter painter) {
-		painter.drawImage(_picture,_x,_y,_width,_height);
+		painter.drawImage(_picture,x(),y(),_width,_height);
 	}
 }
-
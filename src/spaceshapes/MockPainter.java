@@ -1,7 +1,9 @@
 package spaceshapes;
 
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Image;
+import java.awt.Rectangle;
 
 /**
  * Implementation of the Painter interface that does not actually do any
@@ -121,4 +123,18 @@ public class MockPainter implements Painter {
 	public void drawCentredText(int shapeX, int shapeY, int shapeWidth, int shapeHeight, String text) {
 		_log.append("(text: " + text + ", has been painted)");
 	}
+	
+	/**
+	 * Returns null, so that every shape is painted and logged.
+	 */
+	public Rectangle getClipBounds() {
+		return null;
+	}
+	
+	public FontMetrics getFontMetrics() {
+		return null;
+	}
+	
+	public void shapesCulled(int count) {
+	}
 }
\ No newline at end of file
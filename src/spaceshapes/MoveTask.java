@@ -0,0 +1,95 @@
+package spaceshapes;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task that moves a range of a CarrierShape's children. Children of
+ * a CarrierShape are independent of one another - each bounces only within
+ * its parent's width and height - so disjoint ranges can be moved in
+ * parallel. A MoveTask whose range holds no more than a threshold number of
+ * shapes (counting all nested shapes) moves them sequentially; larger ranges
+ * are split in half, and a single large CarrierShape child is moved by first
+ * moving the carrier itself and then forking a task over its own children.
+ * The sizes of a carrier's children are summed once, by the task that moves
+ * all of them, so that the size of any range is found in constant time.
+ *
+ * The positions produced are identical to those of a sequential
+ * CarrierShape.move() call.
+ *
+ * @author Dave Shin
+ */
+@SuppressWarnings("serial")
+class MoveTask extends RecursiveAction {
+
+	private CarrierShape _carrier;
+	// _prefixSizes[i] is the number of shapes in the subtrees of the first i
+	// children of _carrier.
+	private int[] _prefixSizes;
+	private int _from;
+	private int _to;
+	private int _threshold;
+
+	/**
+	 * Creates a MoveTask to move all children of carrier. Ranges holding more
+	 * than threshold shapes are moved in parallel.
+	 */
+	MoveTask(CarrierShape carrier, int threshold) {
+		this(carrier, prefixSizes(carrier), 0, carrier.shapeCount(), threshold);
+	}
+
+	/*
+	 * Creates a MoveTask to move the children of carrier at index positions
+	 * from (inclusive) to to (exclusive).
+	 */
+	private MoveTask(CarrierShape carrier, int[] prefixSizes, int from, int to, int threshold) {
+		_carrier = carrier;
+		_prefixSizes = prefixSizes;
+		_from = from;
+		_to = to;
+		_threshold = threshold;
+	}
+
+	/*
+	 * Reclaims any empty child slots in carrier, so that shapeAt() is a 
+	 * direct lookup while its children are moved, and returns the prefix
+	 * sums of the sizes of its children's subtrees.
+	 */
+	private static int[] prefixSizes(CarrierShape carrier) {
+		carrier.compact();
+		int count = carrier.shapeCount();
+		int[] prefixSizes = new int[count + 1];
+		for (int i = 0; i < count; i++) {
+			prefixSizes[i + 1] = prefixSizes[i] + carrier.shapeAt(i).subtreeSize();
+		}
+		return prefixSizes;
+	}
+
+	@Override
+	protected void compute() {
+		int width = _carrier.width();
+		int height = _carrier.height();
+
+		if (_to - _from == 1) {
+			Shape child = _carrier.shapeAt(_from);
+			if (child.subtreeSize() > _threshold && child instanceof CarrierShape
+					&& Shape.movesLikeShape(child.getClass())) {
+				CarrierShape carrier = (CarrierShape)child;
+				carrier.moveSelf(width, height);
+				new MoveTask(carrier, _threshold).compute();
+			} else {
+				child.move(width, height);
+			}
+			return;
+		}
+
+		if (_prefixSizes[_to] - _prefixSizes[_from] <= _threshold) {
+			for (int i = _from; i < _to; i++) {
+				_carrier.shapeAt(i).move(width, height);
+			}
+		} else {
+			int middle = (_from + _to) >>> 1;
+			invokeAll(new MoveTask(_carrier, _prefixSizes, _from, middle, _threshold),
+					new MoveTask(_carrier, _prefixSizes, middle, _to, _threshold));
+		}
+	}
+}
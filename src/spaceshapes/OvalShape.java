@@ -58,7 +58,7 @@ public class OvalShape extends Shape {
 	 * Paints this OvalShape object using the supplied Painter object.
 	 */
 	protected void doPaint(Painter painter) {
-		painter.drawOval(_x,_y,_width,_height);
+		painter.drawOval(x(),y(),_width,_height);
 	}
 }
 
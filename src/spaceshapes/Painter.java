@@ -1,7 +1,9 @@
 package spaceshapes;
 
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Image;
+import java.awt.Rectangle;
 
 /** 
  * Interface to represent a type that offers primitive drawing methods.
@@ -75,4 +77,25 @@ public interface Painter {
 	 * Draw the specified text on the centre of the shape.
 	 */
 	public void drawCentredText(int shapeX, int shapeY, int shapeWidth, int shapeHeight, String text);
+	
+	/**
+	 * Returns the bounds of the area that needs painting, in the current 
+	 * (translated) coordinate system, or null if everything must be painted.
+	 * Shapes lying wholly outside these bounds may be skipped.
+	 */
+	public Rectangle getClipBounds();
+	
+	/**
+	 * Returns the metrics of the font in which drawCentredText() draws, so 
+	 * that shapes whose text extends into the clip bounds aren't skipped, or
+	 * null if they aren't known, in which case shapes with text are never 
+	 * skipped.
+	 */
+	public FontMetrics getFontMetrics();
+	
+	/**
+	 * Informs this Painter that count shapes were skipped because they lie
+	 * outside its clip bounds.
+	 */
+	public void shapesCulled(int count);
 }
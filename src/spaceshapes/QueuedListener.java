@@ -0,0 +1,235 @@
+package spaceshapes;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * ShapeModelListener that queues ShapeModelEvents and delivers them to 
+ * another listener using an Executor, so that a slow listener doesn't hold up
+ * the thread that fires events (typically the thread calling 
+ * ShapeModel.clock()). Events are delivered in order, one at a time.
+ * 
+ * ShapeMoved events are coalesced: as a ShapeMoved event always identifies 
+ * the root and carries no other state, a new ShapeMoved event replaces one 
+ * that is still queued, so at most one is ever queued. Other events are 
+ * queued until capacity events are queued; after that:
+ * - A ShapesCollided event is dropped, as a listener only misses a 
+ *   transient bounce.
+ * - A ShapeAdded, ShapeRemoved or Batch event, together with every queued 
+ *   event other than the ShapeMoved event, is replaced by a single Resync 
+ *   event telling the listener to rebuild its view of the model, as a 
+ *   listener that mirrors the model's structure couldn't recover from 
+ *   missing one. Structural events fired while the Resync event is queued 
+ *   are absorbed into it, as the listener will read the model's state only
+ *   when the Resync event is delivered.
+ * So at most capacity + 1 events are queued, however slow the listener. The
+ * number of events dropped and coalesced, and the lag between an event being
+ * fired and being delivered, are recorded for monitoring.
+ * 
+ * QueuedListeners are usually created by 
+ * ShapeModel.addShapeModelListener(ShapeModelListener, Executor, int).
+ *
+ * @author Dave Shin
+ */
+public class QueuedListener implements ShapeModelListener {
+
+	// A queued event and the time it was fired.
+	private static class Entry {
+		ShapeModelEvent _event;
+		long _firedAt;
+
+		Entry(ShapeModelEvent event, long firedAt) {
+			_event = event;
+			_firedAt = firedAt;
+		}
+	}
+
+	private ShapeModelListener _delegate;
+	private Executor _executor;
+	private int _capacity;
+
+	// Queued events, guarded by this; the queued ShapeMoved and Resync 
+	// events, if any; and whether a task to drain the queue has been 
+	// submitted.
+	private ArrayDeque<Entry> _queue = new ArrayDeque<Entry>();
+	private Entry _queuedMove;
+	private Entry _queuedResync;
+	private boolean _draining;
+
+	// Metrics, guarded by this.
+	private long _delivered;
+	private long _dropped;
+	private long _coalesced;
+	private long _lastLag;
+	private long _maxLag;
+
+	// Drains the queue on the executor.
+	private Runnable _drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Creates a QueuedListener that delivers events to delegate using 
+	 * executor, queueing at most capacity events before dropping 
+	 * ShapesCollided events and collapsing structural events into a Resync
+	 * event.
+	 * @throws IllegalArgumentException if delegate or executor is null, or
+	 * capacity is less than one.
+	 */
+	public QueuedListener(ShapeModelListener delegate, Executor executor, int capacity) {
+		if (delegate == null || executor == null || capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		_delegate = delegate;
+		_executor = executor;
+		_capacity = capacity;
+	}
+
+	/**
+	 * Returns the listener to which this QueuedListener delivers events.
+	 */
+	public ShapeModelListener delegate() {
+		return _delegate;
+	}
+
+	/**
+	 * Queues event for delivery to the delegate listener.
+	 */
+	@Override
+	public void update(ShapeModelEvent event) {
+		Entry entry = new Entry(event, System.nanoTime());
+		synchronized (this) {
+			if (event.eventType() == ShapeModelEvent.EventType.ShapeMoved) {
+				if (_queuedMove != null) {
+					// The queued move is usually last, so this is cheap.
+					_queue.removeLastOccurrence(_queuedMove);
+					_coalesced++;
+				}
+				_queuedMove = entry;
+			} else if (event.eventType() == ShapeModelEvent.EventType.ShapesCollided) {
+				if (_queue.size() >= _capacity) {
+					_dropped++;
+					return;
+				}
+			} else if (_queuedResync != null) {
+				// The Resync event covers this change too.
+				_dropped++;
+				return;
+			} else if (_queue.size() >= _capacity) {
+				entry = resync(entry);
+			}
+			_queue.addLast(entry);
+			if (_draining) {
+				return;
+			}
+			_draining = true;
+		}
+		_executor.execute(_drain);
+	}
+
+	/*
+	 * Replaces every queued event but the ShapeMoved event, along with the
+	 * entry for a structural event being queued, by a Resync event, which 
+	 * is returned. The Resync event takes the time at which the oldest 
+	 * event it replaces was fired.
+	 */
+	private Entry resync(Entry entry) {
+		long firedAt = entry._firedAt;
+		for (Iterator<Entry> entries = _queue.iterator(); entries.hasNext(); ) {
+			Entry queued = entries.next();
+			if (queued != _queuedMove) {
+				firedAt = Math.min(firedAt, queued._firedAt);
+				entries.remove();
+				_dropped++;
+			}
+		}
+		_dropped++;
+		_queuedResync = new Entry(ShapeModelEvent.makeResyncEvent(entry._event.source()), firedAt);
+		return _queuedResync;
+	}
+
+	/**
+	 * Returns the number of events waiting to be delivered.
+	 */
+	public synchronized int queuedCount() {
+		return _queue.size();
+	}
+
+	/**
+	 * Returns the number of events delivered to the delegate listener.
+	 */
+	public synchronized long deliveredCount() {
+		return _delivered;
+	}
+
+	/**
+	 * Returns the number of events dropped because the queue was full: 
+	 * ShapesCollided events, and events replaced by, or absorbed into, a 
+	 * Resync event.
+	 */
+	public synchronized long droppedCount() {
+		return _dropped;
+	}
+
+	/**
+	 * Returns the number of ShapeMoved events replaced by a later one before
+	 * they were delivered.
+	 */
+	public synchronized long coalescedCount() {
+		return _coalesced;
+	}
+
+	/**
+	 * Returns the time in nanoseconds between the most recently delivered 
+	 * event being fired and its delivery starting.
+	 */
+	public synchronized long lastLagNanos() {
+		return _lastLag;
+	}
+
+	/**
+	 * Returns the longest time in nanoseconds between an event being fired
+	 * and its delivery starting.
+	 */
+	public synchronized long maxLagNanos() {
+		return _maxLag;
+	}
+
+	/*
+	 * Delivers queued events until the queue is empty. If the delegate 
+	 * throws an exception, draining is resubmitted to the executor before 
+	 * the exception propagates, so later events are still delivered.
+	 */
+	private void drain() {
+		boolean done = false;
+		try {
+			while (true) {
+				Entry entry;
+				synchronized (this) {
+					entry = _queue.pollFirst();
+					if (entry == null) {
+						_draining = false;
+						done = true;
+						return;
+					}
+					if (entry == _queuedMove) {
+						_queuedMove = null;
+					} else if (entry == _queuedResync) {
+						_queuedResync = null;
+					}
+					_lastLag = System.nanoTime() - entry._firedAt;
+					_maxLag = Math.max(_maxLag, _lastLag);
+					_delivered++;
+				}
+				_delegate.update(entry._event);
+			}
+		} finally {
+			if (!done) {
+				_executor.execute(_drain);
+			}
+		}
+	}
+}
@@ -60,6 +60,6 @@ public class RectangleShape extends Shape {
 	 * Paints this RectangleShape object using the supplied Painter object.
 	 */
 	protected void doPaint(Painter painter) {
-		painter.drawRect(_x,_y,_width,_height);
+		painter.drawRect(x(),y(),_width,_height);
 	}
 }
@@ -0,0 +1,453 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import spaceshapes.forms.ImageCache;
+
+/**
+ * A CarrierShape tree saved in a compact binary format. Files are written
+ * and read through memory mapped buffers, so that saving and loading a scene
+ * of a million shapes takes a fraction of a second.
+ *
+ * A file holds a header followed by one record per shape, in depth first
+ * order. Each record holds the shape's type, its position, deltas and size,
+ * and any text; DynamicShape records also hold the shape's colour and
+ * whether it is filled, and ImageRectangleShape records the path of the
+ * image file (see ImageRectangleShape.source()). CarrierShape records are
+ * followed by their children's records, and hold the number of children and
+ * the length of the children's records, so that a subtree can be skipped.
+ *
+ * A scene can be loaded in full with load(), or lazily with root(): an
+ * Entry describes one record, and creates its shape and reads its children
+ * only when asked to.
+ *
+ * @author Dave Shin
+ */
+public class SceneFile {
+
+	// Identifies scene files ("SSCN"), and the version of the format.
+	private static final int MAGIC = 0x5353434E;
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 12;
+
+	// Shape types.
+	private static final byte CARRIER = 0;
+	private static final byte RECTANGLE = 1;
+	private static final byte OVAL = 2;
+	private static final byte HEXAGON = 3;
+	private static final byte DYNAMIC = 4;
+	private static final byte IMAGE = 5;
+
+	// Record flags.
+	private static final byte HAS_TEXT = 1;
+	private static final byte FILLED = 2;
+
+	// Type, flags and six ints.
+	private static final int RECORD_LENGTH = 2 + 6 * 4;
+
+	private ByteBuffer _buffer;
+	private int _shapeCount;
+	private int _rootOffset;
+
+	/**
+	 * Saves root and its descendants to file, replacing any existing file.
+	 * @throws IllegalArgumentException if the tree contains a shape of a
+	 * class other than CarrierShape, RectangleShape, OvalShape, HexagonShape,
+	 * DynamicShape or ImageRectangleShape, or an ImageRectangleShape whose
+	 * source isn't known.
+	 * @throws IOException if the file can't be written.
+	 */
+	public static void write(CarrierShape root, Path file) throws IOException {
+		long length = HEADER_LENGTH + recordLength(root);
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Scene is too large to save");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(root.subtreeSize());
+			writeRecord(root, buffer);
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Opens a scene file for loading. The file is mapped into memory, and
+	 * read as shapes are loaded.
+	 * @throws IOException if the file can't be read or isn't a scene file.
+	 */
+	public static SceneFile open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to be a scene file");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new SceneFile(buffer.order(ByteOrder.LITTLE_ENDIAN), file);
+		}
+	}
+
+	/*
+	 * Hidden constructor used by open().
+	 */
+	private SceneFile(ByteBuffer buffer, Path file) throws IOException {
+		if (buffer.limit() < HEADER_LENGTH + RECORD_LENGTH || buffer.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a scene file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException(file + " was saved in an unsupported format");
+		}
+		_buffer = buffer;
+		_shapeCount = buffer.getInt(8);
+		_rootOffset = HEADER_LENGTH;
+	}
+
+	/*
+	 * Creates a SceneFile that reads the records, without a header, that
+	 * start at offset within buffer. Used by TickReplayer to read keyframes.
+	 */
+	SceneFile(ByteBuffer buffer, int offset) {
+		_buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		_rootOffset = offset;
+		_shapeCount = -1;
+	}
+
+	/**
+	 * Returns the number of shapes in the scene, including the root, or -1
+	 * if it isn't known.
+	 */
+	public int shapeCount() {
+		return _shapeCount;
+	}
+
+	/**
+	 * Returns the Entry for the root of the scene.
+	 */
+	public Entry root() throws IOException {
+		return new Entry(_rootOffset, _buffer.limit());
+	}
+
+	/**
+	 * Loads the whole scene, returning its root.
+	 * @throws IOException if the file is corrupt or an image can't be read.
+	 */
+	public CarrierShape load() throws IOException {
+		return (CarrierShape)root().load();
+	}
+
+	/**
+	 * Loads the whole scene into model, adding the children of the scene's
+	 * root to the model's root. The additions are made in a batch, so the
+	 * model's listeners are notified once.
+	 * @throws IOException if the file is corrupt or an image can't be read.
+	 */
+	public void load(ShapeModel model) throws IOException {
+		Entry root = root();
+		model.beginBatch();
+		try {
+			for (Entry child = root.firstChild(); child != null; child = child.nextSibling()) {
+				model.add(child.load(), model.root());
+			}
+		} finally {
+			model.commitBatch();
+		}
+	}
+
+	/**
+	 * A shape record within a SceneFile. An Entry is cheap to create: the
+	 * record is read only when the Entry's shape is created.
+	 */
+	public class Entry {
+		private int _offset;     // Position of the record.
+		private int _dataLength; // Length of the record, excluding children.
+		private int _end;        // End of the records of the parent's 
+		                         // children, or of the file for the root.
+
+		private Entry(int offset, int end) throws IOException {
+			_offset = offset;
+			_end = end;
+			try {
+				_dataLength = dataLength(offset);
+			} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+				throw new IOException("Scene file is corrupt", e);
+			}
+		}
+
+		/**
+		 * Returns true if this Entry describes a CarrierShape.
+		 */
+		public boolean isCarrier() {
+			return _buffer.get(_offset) == CARRIER;
+		}
+
+		/**
+		 * Returns the number of children of the shape, which is zero for
+		 * shapes other than CarrierShapes.
+		 */
+		public int childCount() {
+			return isCarrier() ? _buffer.getInt(_offset + _dataLength - 8) : 0;
+		}
+
+		/**
+		 * Returns the Entry for the shape's first child, or null if it has
+		 * no children.
+		 */
+		public Entry firstChild() throws IOException {
+			return childCount() == 0 ? null : new Entry(_offset + _dataLength, _offset + length());
+		}
+
+		/**
+		 * Returns the Entry for the shape's next sibling, or null if it is its
+		 * parent's last child (or the root). The records of this Entry's
+		 * descendants are skipped without being read.
+		 */
+		public Entry nextSibling() throws IOException {
+			int next = _offset + length();
+			return next < _end ? new Entry(next, _end) : null;
+		}
+
+		/**
+		 * Creates the shape described by this Entry, without its children.
+		 * @throws IOException if the record is corrupt or the shape's image
+		 * can't be read.
+		 */
+		public Shape shape() throws IOException {
+			try {
+				return readShape(_offset);
+			} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+				throw new IOException("Scene file is corrupt", e);
+			}
+		}
+
+		/**
+		 * Creates the shape described by this Entry together with all of its
+		 * descendants.
+		 * @throws IOException if the record is corrupt or an image can't be
+		 * read.
+		 */
+		public Shape load() throws IOException {
+			Shape shape = shape();
+			if (shape instanceof CarrierShape) {
+				CarrierShape carrier = (CarrierShape)shape;
+				for (Entry child = firstChild(); child != null; child = child.nextSibling()) {
+					carrier.add(child.load());
+				}
+			}
+			return shape;
+		}
+
+		/*
+		 * Returns the length of this Entry's record, including its children.
+		 */
+		private int length() {
+			return isCarrier() ? _dataLength + _buffer.getInt(_offset + _dataLength - 4) : _dataLength;
+		}
+	}
+
+	/*
+	 * Returns the length of the record at offset, excluding any children.
+	 */
+	private int dataLength(int offset) {
+		byte type = _buffer.get(offset);
+		byte flags = _buffer.get(offset + 1);
+		int length = RECORD_LENGTH;
+		if ((flags & HAS_TEXT) != 0) {
+			length += 4 + _buffer.getInt(offset + length);
+		}
+		switch (type) {
+		case CARRIER:
+			return length + 8;
+		case DYNAMIC:
+			return length + 4;
+		case IMAGE:
+			return length + 4 + _buffer.getInt(offset + length);
+		case RECTANGLE:
+		case OVAL:
+		case HEXAGON:
+			return length;
+		default:
+			throw new IndexOutOfBoundsException("Unknown shape type " + type);
+		}
+	}
+
+	/*
+	 * Creates the shape described by the record at offset.
+	 */
+	private Shape readShape(int offset) throws IOException {
+		ByteBuffer record = _buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		record.position(offset);
+		byte type = record.get();
+		byte flags = record.get();
+		int x = record.getInt();
+		int y = record.getInt();
+		int deltaX = record.getInt();
+		int deltaY = record.getInt();
+		int width = record.getInt();
+		int height = record.getInt();
+		String text = (flags & HAS_TEXT) != 0 ? readString(record) : null;
+
+		Shape shape;
+		switch (type) {
+		case CARRIER:
+			shape = new CarrierShape(x, y, deltaX, deltaY, width, height, text);
+			break;
+		case RECTANGLE:
+			shape = new RectangleShape(x, y, deltaX, deltaY, width, height, text);
+			break;
+		case OVAL:
+			shape = new OvalShape(x, y, deltaX, deltaY, width, height, text);
+			break;
+		case HEXAGON:
+			shape = new HexagonShape(x, y, deltaX, deltaY, width, height, text);
+			break;
+		case DYNAMIC:
+			DynamicShape dynamic = new DynamicShape(x, y, deltaX, deltaY, width, height, text, new Color(record.getInt(), true));
+			dynamic.setFilled((flags & FILLED) != 0);
+			shape = dynamic;
+			break;
+		default:
+			String source = readString(record);
+			shape = new ImageRectangleShape(deltaX, deltaY, image(source, width), source);
+			shape._x = x;
+			shape._y = y;
+			shape._width = width;
+			shape._height = height;
+			shape.addText(text);
+			break;
+		}
+		return shape;
+	}
+
+	/*
+	 * Returns the image read from the file named by source, scaled down to
+	 * the width of the shape that displays it. Images are read through the 
+	 * shared ImageCache, so each is read once however many shapes of the 
+	 * same width display it.
+	 */
+	private static Image image(String source, int width) throws IOException {
+		if (width <= 0) {
+			throw new IOException("Scene file is corrupt");
+		}
+		return ImageCache.shared().load(new File(source), width);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Returns the length of shape's record, including its descendants.
+	 */
+	static long recordLength(Shape shape) {
+		long length = RECORD_LENGTH;
+		if (shape.text() != null) {
+			length += 4 + shape.text().getBytes(StandardCharsets.UTF_8).length;
+		}
+		switch (typeOf(shape)) {
+		case CARRIER:
+			CarrierShape carrier = (CarrierShape)shape;
+			length += 8;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				length += recordLength(carrier.shapeAt(i));
+			}
+			break;
+		case DYNAMIC:
+			length += 4;
+			break;
+		case IMAGE:
+			length += 4 + ((ImageRectangleShape)shape).source().getBytes(StandardCharsets.UTF_8).length;
+			break;
+		default:
+			break;
+		}
+		return length;
+	}
+
+	/*
+	 * Writes the record for shape, and its descendants, to buffer.
+	 */
+	static void writeRecord(Shape shape, ByteBuffer buffer) {
+		byte type = typeOf(shape);
+		byte flags = 0;
+		if (shape.text() != null) {
+			flags |= HAS_TEXT;
+		}
+		if (type == DYNAMIC && ((DynamicShape)shape).isFilled()) {
+			flags |= FILLED;
+		}
+		buffer.put(type);
+		buffer.put(flags);
+		buffer.putInt(shape.x());
+		buffer.putInt(shape.y());
+		buffer.putInt(shape.deltaX());
+		buffer.putInt(shape.deltaY());
+		buffer.putInt(shape.width());
+		buffer.putInt(shape.height());
+		if (shape.text() != null) {
+			writeString(shape.text(), buffer);
+		}
+
+		switch (type) {
+		case CARRIER:
+			CarrierShape carrier = (CarrierShape)shape;
+			buffer.putInt(carrier.shapeCount());
+			int lengthPosition = buffer.position();
+			buffer.putInt(0);
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				writeRecord(carrier.shapeAt(i), buffer);
+			}
+			buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+			break;
+		case DYNAMIC:
+			buffer.putInt(((DynamicShape)shape).color().getRGB());
+			break;
+		case IMAGE:
+			writeString(((ImageRectangleShape)shape).source(), buffer);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void writeString(String text, ByteBuffer buffer) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	/*
+	 * Returns the type of shape's record.
+	 */
+	private static byte typeOf(Shape shape) {
+		Class<?> cls = shape.getClass();
+		if (cls == CarrierShape.class) {
+			return CARRIER;
+		} else if (cls == RectangleShape.class) {
+			return RECTANGLE;
+		} else if (cls == OvalShape.class) {
+			return OVAL;
+		} else if (cls == HexagonShape.class) {
+			return HEXAGON;
+		} else if (cls == DynamicShape.class) {
+			return DYNAMIC;
+		} else if (cls == ImageRectangleShape.class && ((ImageRectangleShape)shape).source() != null) {
+			return IMAGE;
+		}
+		throw new IllegalArgumentException("Can't save " + shape);
+	}
+}
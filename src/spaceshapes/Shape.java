@@ -1,6 +1,9 @@
 package spaceshapes;
 
-import java.util.ArrayList;
+import java.awt.FontMetrics;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -13,6 +16,7 @@ import java.util.List;
  * Edited by Dave Shin
  */
 public abstract class Shape {
+
 	// === Constants for default values. ===
 	protected static final int DEFAULT_X_POS = 0;
 
@@ -27,6 +31,20 @@ public abstract class Shape {
 	protected static final int DEFAULT_WIDTH = 25;
 	// ===
 
+	// Whether move() is Shape's own movement algorithm, or CarrierShape's or
+	// DynamicShape's, by class; see movesLikeShape().
+	private static final ClassValue<Boolean> MOVES_LIKE_SHAPE = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> cls) {
+			try {
+				Class<?> declarer = cls.getMethod("move", int.class, int.class).getDeclaringClass();
+				return declarer == Shape.class || declarer == CarrierShape.class || declarer == DynamicShape.class;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+
 	// === Instance variables, accessible by subclasses.
 	protected int _x;
 
@@ -42,9 +60,26 @@ public abstract class Shape {
 
 	protected CarrierShape _parent;
 
+	// Slot holding this Shape within its parent; maintained by CarrierShape.
+	int _childSlot = -1;
+
+	// Number of ancestors of this Shape, maintained by CarrierShape, and the
+	// path from the root to this Shape, built on demand and discarded when 
+	// this Shape (or one of its ancestors) is added or removed.
+	private int _depth;
+	private Shape[] _path;
+
 	private String _text; 
 	// ===
 
+	// === State used when a ShapeModel runs in ClockMode.Arrays. While 
+	// _arrays is non-null, the position and velocity of this Shape are held
+	// in _arrays at index _slot rather than in the fields above.
+	ShapeArrays _arrays;
+
+	int _slot;
+	// ===
+
 	/**
 	 * Creates a Shape object with default values for instance variables.
 	 */
@@ -125,6 +160,128 @@ public abstract class Shape {
 		_y = nextY;
 	}
 
+	/*
+	 * Returns true if the movement of instances of cls is defined by Shape,
+	 * CarrierShape or DynamicShape, rather than by an overriding move().
+	 */
+	static boolean movesLikeShape(Class<?> cls) {
+		return MOVES_LIKE_SHAPE.get(cls);
+	}
+
+	/*
+	 * Moves this Shape as ticks calls to move(width, height) would. As move() 
+	 * reflects the shape off fixed bounds, its position on each axis after 
+	 * any number of ticks can be calculated directly: once the shape is 
+	 * within bounds it travels back and forth with a fixed period. Subclasses
+	 * whose move() works differently, other than CarrierShape and 
+	 * DynamicShape, are moved tick by tick.
+	 */
+	void advance(int width, int height, long ticks) {
+		if (!movesLikeShape(getClass())) {
+			for (long i = 0; i < ticks; i++) {
+				move(width, height);
+			}
+			return;
+		}
+		long[] axis = {_x, _deltaX};
+		long lastBounceX = advanceAxis(axis, width - _width, ticks);
+		_x = (int)axis[0];
+		_deltaX = (int)axis[1];
+		axis[0] = _y;
+		axis[1] = _deltaY;
+		long lastBounceY = advanceAxis(axis, height - _height, ticks);
+		_y = (int)axis[0];
+		_deltaY = (int)axis[1];
+		advanced(lastBounceX, lastBounceY);
+	}
+
+	/*
+	 * Called by advance() with the last ticks (counting from 1) in which the
+	 * shape bounced horizontally and vertically, 0 if it didn't. 
+	 * DynamicShape overrides this to update its appearance.
+	 */
+	void advanced(long lastBounceX, long lastBounceY) {
+	}
+
+	/*
+	 * Moves a shape along one axis, for which limit is the largest position
+	 * within bounds, as ticks calls to move() would. axis holds the position 
+	 * and delta, and is updated. Returns the last tick (counting from 1) in 
+	 * which a non-zero delta was reversed, or 0 if there wasn't one.
+	 */
+	private static long advanceAxis(long[] axis, long limit, long ticks) {
+		long lastBounce = 0;
+		long tick = 0;
+		if (limit <= 0 || axis[1] == 0) {
+			// The shape fills the bounds, or doesn't move; after two ticks it
+			// alternates between two states (or stays put).
+			long steps = ticks <= 2 ? ticks : 2 + (ticks - 2) % 2;
+			for (; tick < steps; tick++) {
+				if (step(axis, limit) && axis[1] != 0) {
+					lastBounce = ticks - steps + tick + 1;
+				}
+			}
+			return lastBounce;
+		}
+		if (ticks > 0 && (axis[0] < 0 || axis[0] > limit)) {
+			// Out of bounds; one move brings it back within them.
+			if (step(axis, limit)) {
+				lastBounce = 1;
+			}
+			tick++;
+		}
+		long remaining = ticks - tick;
+		if (remaining == 0) {
+			return lastBounce;
+		}
+
+		// Ticks until the next bounce, and between subsequent bounces.
+		long speed = Math.abs(axis[1]);
+		long toWall = axis[1] > 0 ? limit - axis[0] : axis[0];
+		long first = Math.max(1, (toWall + speed - 1) / speed);
+		long crossing = (limit + speed - 1) / speed;
+		if (remaining < first) {
+			axis[0] += remaining * axis[1];
+			return lastBounce;
+		}
+		axis[0] = axis[1] > 0 ? limit : 0;
+		axis[1] = -axis[1];
+		remaining -= first;
+		lastBounce = ticks - remaining;
+
+		// From a wall, the shape returns to it after 2 * crossing ticks.
+		lastBounce += (remaining / crossing) * crossing;
+		remaining %= 2 * crossing;
+		if (remaining >= crossing) {
+			axis[0] = axis[0] == 0 ? limit : 0;
+			axis[1] = -axis[1];
+			remaining -= crossing;
+		}
+		axis[0] += remaining * axis[1];
+		return lastBounce;
+	}
+
+	/*
+	 * Moves a shape along one axis by one tick, as move() does. Returns true
+	 * if the shape bounced.
+	 */
+	private static boolean step(long[] axis, long limit) {
+		long next = axis[0] + axis[1];
+		boolean bounced = true;
+		if (next <= 0) {
+			next = 0;
+		} else if (next >= limit) {
+			next = limit;
+		} else {
+			bounced = false;
+		}
+		axis[0] = next;
+		if (bounced) {
+			axis[1] = -axis[1];
+		}
+		return bounced;
+	}
+
 	/**
 	 * Method to be implemented by concrete subclasses to handle subclass
 	 * specific painting.
@@ -138,19 +295,26 @@ public abstract class Shape {
 	 */
 	public final void paint(Painter painter) {
 		if (_text != null) {
-			painter.drawCentredText(_x, _y, _width, _height, _text);
+			painter.drawCentredText(x(), y(), _width, _height, _text);
 		}
 		doPaint(painter);
 	}
 	
 	public void addText(String text) {
+		int change = (text == null ? 0 : 1) - (_text == null ? 0 : 1);
 		_text = text;
+		if (change != 0 && _parent != null) {
+			_parent.updateDescendantCounts(0, change);
+		}
 	}
 
 	/**
 	 * Returns this Shape object's x position.
 	 */
 	public int x() {
+		if (_arrays != null) {
+			return _arrays._x[_slot];
+		}
 		return _x;
 	}
 
@@ -158,6 +322,9 @@ public abstract class Shape {
 	 * Returns this Shape object's y position.
 	 */
 	public int y() {
+		if (_arrays != null) {
+			return _arrays._y[_slot];
+		}
 		return _y;
 	}
 
@@ -165,6 +332,9 @@ public abstract class Shape {
 	 * Returns this Shape object's speed and direction.
 	 */
 	public int deltaX() {
+		if (_arrays != null) {
+			return _arrays._deltaX[_slot];
+		}
 		return _deltaX;
 	}
 
@@ -172,9 +342,26 @@ public abstract class Shape {
 	 * Returns this Shape object's speed and direction.
 	 */
 	public int deltaY() {
+		if (_arrays != null) {
+			return _arrays._deltaY[_slot];
+		}
 		return _deltaY;
 	}
 
+	/*
+	 * Sets this Shape object's speed and direction. Used by 
+	 * CollisionDetector when shapes bounce off one another.
+	 */
+	void setDelta(int deltaX, int deltaY) {
+		if (_arrays != null) {
+			_arrays._deltaX[_slot] = deltaX;
+			_arrays._deltaY[_slot] = deltaY;
+		} else {
+			_deltaX = deltaX;
+			_deltaY = deltaY;
+		}
+	}
+
 	/**
 	 * Returns this Shape's width.
 	 */
@@ -205,6 +392,73 @@ public abstract class Shape {
 		return getClass().getName();
 	}
 
+	/*
+	 * Returns the number of shapes in the hierarchy rooted at this Shape, 
+	 * including itself. CarrierShape overrides this to count its contents.
+	 */
+	int subtreeSize() {
+		return 1;
+	}
+
+	/*
+	 * Returns the number of shapes with text in the hierarchy rooted at this
+	 * Shape, excluding itself. CarrierShape overrides this to count its 
+	 * contents.
+	 */
+	int descendantTextCount() {
+		return 0;
+	}
+
+	/*
+	 * Returns true if a shape at (x, y) of the specified size and text, when
+	 * painted with painter, may draw within clip: if its outline, which 
+	 * extends one pixel beyond its width and height, or its centred text, 
+	 * placed as GraphicsPainter.drawCentredText() places it, intersects clip.
+	 */
+	static boolean paintsWithin(Rectangle clip, int x, int y, int width, int height, String text, Painter painter) {
+		if (clip.intersects(x, y, width + 1, height + 1)) {
+			return true;
+		}
+		if (text == null) {
+			return false;
+		}
+		FontMetrics metrics = painter.getFontMetrics();
+		if (metrics == null) {
+			return true;
+		}
+		TextLayoutCache.Layout layout = TextLayoutCache.shared().layout(text, metrics);
+		int textX = x + (width / 2) - (layout.width() / 2);
+		int baseline = y + (height / 2) + layout.baselineOffset();
+		return clip.intersects(textX, baseline - layout.ascent(), layout.width() + 1, layout.ascent() + layout.descent() + 1);
+	}
+
+	/*
+	 * Sets the depth of this Shape, and discards its cached path. 
+	 * CarrierShape overrides this to update its contents too.
+	 */
+	void setDepth(int depth) {
+		_depth = depth;
+		_path = null;
+	}
+
+	/**
+	 * Returns the number of ancestors of this Shape; 0 if it has no parent.
+	 */
+	public int depth() {
+		return _depth;
+	}
+
+	/**
+	 * Returns the ancestor of this Shape at the specified depth, where depth
+	 * 0 is the root of its containment hierarchy and depth() is this Shape
+	 * itself. Doesn't allocate, once the path to this Shape has been cached.
+	 * @throws IndexOutOfBoundsException if depth is less than zero or 
+	 * greater than depth().
+	 */
+	public Shape ancestor(int depth) throws IndexOutOfBoundsException {
+		return cachedPath()[depth];
+	}
+
 	/**
 	 * Returns the CarrierShape that contains the Shape that method parent is 
 	 * called on. If the callee object is not a child within a CarrierShape 
@@ -232,22 +486,27 @@ public abstract class Shape {
 	 * 	 	intermediate.add(oval); 
 	 * 		
 	 * a call to oval.path() yields: [root, intermediate, oval]
+	 * 
+	 * The list is read-only, and is not affected by later changes to the
+	 * hierarchy.
 	 */
 	public List<Shape> path() {
-		List<Shape> path = new ArrayList<Shape>();
-		path.add(this);
-		CarrierShape currentParent;
-
-		if (_parent == null) {
-			return path;
-		} else {
-			path.add(0, _parent);
-			currentParent = _parent;
-		}
+		return Collections.unmodifiableList(Arrays.asList(cachedPath()));
+	}
 
-		while (currentParent._parent != null) {
-			path.add(0, currentParent._parent);
-			currentParent = currentParent._parent;
+	/*
+	 * Returns the path from the root to this Shape, building it from the 
+	 * parent's cached path if necessary. The array must not be modified.
+	 */
+	private Shape[] cachedPath() {
+		Shape[] path = _path;
+		if (path == null) {
+			path = new Shape[_depth + 1];
+			if (_parent != null) {
+				System.arraycopy(((Shape)_parent).cachedPath(), 0, path, 0, _depth);
+			}
+			path[_depth] = this;
+			_path = path;
 		}
 		return path;
 	}
@@ -0,0 +1,207 @@
+package spaceshapes;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays representation of a shape composition. A ShapeArrays
+ * object holds the x, y, deltaX, deltaY, width, height and parent index of
+ * every Shape in a CarrierShape hierarchy in flat int arrays, ordered by
+ * depth (the root is at index 0, followed by its children, then their
+ * children and so on). This allows a ShapeModel to advance the whole
+ * composition in a single loop rather than by calling move() on each Shape.
+ *
+ * While a Shape is attached to a ShapeArrays object, its accessors (x(), y(),
+ * deltaX() and deltaY()) read through to the arrays. Calling release() copies
+ * the array values back into the Shapes and detaches them.
+ *
+ * Only Shapes whose movement is defined by Shape, CarrierShape or DynamicShape
+ * can be represented; build() reports failure for any other Shape subclass
+ * that overrides move().
+ *
+ * @author Dave Shin
+ */
+class ShapeArrays {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Number of Shapes held.
+	int _count;
+
+	// Shapes in depth order, and their state.
+	Shape[] _shapes = new Shape[INITIAL_CAPACITY];
+
+	int[] _x = new int[INITIAL_CAPACITY];
+
+	int[] _y = new int[INITIAL_CAPACITY];
+
+	int[] _deltaX = new int[INITIAL_CAPACITY];
+
+	int[] _deltaY = new int[INITIAL_CAPACITY];
+
+	int[] _width = new int[INITIAL_CAPACITY];
+
+	int[] _height = new int[INITIAL_CAPACITY];
+
+	// Index of each Shape's parent, -1 for the root.
+	int[] _parent = new int[INITIAL_CAPACITY];
+
+	// Fill state for DynamicShapes; _dynamic identifies which slots hold one.
+	boolean[] _dynamic = new boolean[INITIAL_CAPACITY];
+
+	boolean[] _fill = new boolean[INITIAL_CAPACITY];
+
+	/**
+	 * Lays out the composition rooted at root into the arrays and attaches
+	 * each Shape. Any previously attached Shapes are released first. Returns
+	 * false, leaving no Shapes attached, if the composition contains a Shape
+	 * whose movement cannot be represented.
+	 */
+	boolean build(CarrierShape root) {
+		release();
+
+		// Breadth-first traversal, using _shapes as the queue.
+		add(root, -1);
+		for (int head = 0; head < _count; head++) {
+			Shape shape = _shapes[head];
+			if (!Shape.movesLikeShape(shape.getClass())) {
+				release();
+				return false;
+			}
+			if (shape instanceof CarrierShape) {
+				CarrierShape carrier = (CarrierShape)shape;
+				carrier.compact();
+				for (int i = 0; i < carrier.shapeCount(); i++) {
+					add(carrier.shapeAt(i), head);
+				}
+			}
+		}
+
+		// Copy state into the arrays, then attach.
+		for (int i = 0; i < _count; i++) {
+			Shape shape = _shapes[i];
+			_x[i] = shape._x;
+			_y[i] = shape._y;
+			_deltaX[i] = shape._deltaX;
+			_deltaY[i] = shape._deltaY;
+			_width[i] = shape._width;
+			_height[i] = shape._height;
+			_dynamic[i] = shape instanceof DynamicShape;
+			_fill[i] = _dynamic[i] && ((DynamicShape)shape).isFilled();
+
+			shape._arrays = this;
+			shape._slot = i;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the array values back into the attached Shapes and detaches
+	 * them.
+	 */
+	void release() {
+		for (int i = 0; i < _count; i++) {
+			Shape shape = _shapes[i];
+			if (shape._arrays == this) {
+				shape._arrays = null;
+				shape._x = _x[i];
+				shape._y = _y[i];
+				shape._deltaX = _deltaX[i];
+				shape._deltaY = _deltaY[i];
+				if (_dynamic[i]) {
+					((DynamicShape)shape).setFilled(_fill[i]);
+				}
+			}
+			_shapes[i] = null;
+		}
+		_count = 0;
+	}
+
+	/**
+	 * Moves every Shape held in the arrays. The root moves within the bounds
+	 * specified by width and height; every other Shape moves within the
+	 * bounds of its parent. The bounce rules are those of Shape.move() and the
+	 * fill rules those of DynamicShape.move().
+	 */
+	void move(int width, int height) {
+		move(0, _count, width, height);
+	}
+
+	/**
+	 * Moves the Shapes held at indices from (inclusive) to to (exclusive).
+	 * Because a Shape's bounds depend only on its parent's width and height,
+	 * which never change, any range can be moved independently of any other.
+	 */
+	void move(int from, int to, int width, int height) {
+		int[] xs = _x;
+		int[] ys = _y;
+		int[] deltaXs = _deltaX;
+		int[] deltaYs = _deltaY;
+		int[] widths = _width;
+		int[] heights = _height;
+		int[] parents = _parent;
+
+		for (int i = from; i < to; i++) {
+			int parent = parents[i];
+			int boundsWidth = parent < 0 ? width : widths[parent];
+			int boundsHeight = parent < 0 ? height : heights[parent];
+
+			int lastDeltaX = deltaXs[i];
+			int lastDeltaY = deltaYs[i];
+			int deltaX = lastDeltaX;
+			int deltaY = lastDeltaY;
+			int nextX = xs[i] + deltaX;
+			int nextY = ys[i] + deltaY;
+
+			if (nextX <= 0) {
+				nextX = 0;
+				deltaX = -deltaX;
+			} else if (nextX + widths[i] >= boundsWidth) {
+				nextX = boundsWidth - widths[i];
+				deltaX = -deltaX;
+			}
+
+			if (nextY <= 0) {
+				nextY = 0;
+				deltaY = -deltaY;
+			} else if (nextY + heights[i] >= boundsHeight) {
+				nextY = boundsHeight - heights[i];
+				deltaY = -deltaY;
+			}
+
+			xs[i] = nextX;
+			ys[i] = nextY;
+			deltaXs[i] = deltaX;
+			deltaYs[i] = deltaY;
+
+			if (_dynamic[i]) {
+				if (deltaY != 0 && deltaY == -lastDeltaY) {
+					_fill[i] = false;
+				} else if (deltaX != 0 && deltaX == -lastDeltaX) {
+					_fill[i] = true;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Appends a Shape to the arrays, growing them if necessary.
+	 */
+	private void add(Shape shape, int parent) {
+		if (_count == _shapes.length) {
+			int capacity = _shapes.length * 2;
+			_shapes = Arrays.copyOf(_shapes, capacity);
+			_x = Arrays.copyOf(_x, capacity);
+			_y = Arrays.copyOf(_y, capacity);
+			_deltaX = Arrays.copyOf(_deltaX, capacity);
+			_deltaY = Arrays.copyOf(_deltaY, capacity);
+			_width = Arrays.copyOf(_width, capacity);
+			_height = Arrays.copyOf(_height, capacity);
+			_parent = Arrays.copyOf(_parent, capacity);
+			_dynamic = Arrays.copyOf(_dynamic, capacity);
+			_fill = Arrays.copyOf(_fill, capacity);
+		}
+		_shapes[_count] = shape;
+		_parent[_count] = parent;
+		_count++;
+	}
+}
@@ -1,8 +1,13 @@
 package spaceshapes;
 
 import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class to represent a shape composition. Classes whose instances are 
@@ -13,11 +18,41 @@ import java.util.List;
  * move() request) the ShapeModel notifies all registered listeners by firing a
  * ShapeModelEvent.
  * 
+ * A ShapeModel may be clocked from a thread other than the Event Dispatch 
+ * thread (see SimulationLoop). Methods that change or traverse the 
+ * composition are synchronized on the ShapeModel, so code that reads the 
+ * composition while it may be clocked (e.g. a view painting it) should also 
+ * synchronize on the ShapeModel to see a completed tick. Listeners are 
+ * notified while the lock is held.
+ * 
+ * Alternatively, a ShapeModel can be asked to publish a ShapeSnapshot after
+ * each change. Views that read from snapshots, via acquireSnapshot(), need
+ * not lock the model at all. A ShapeModel that publishes snapshots can also
+ * track the region of the composition that has changed between them, so that
+ * views need only repaint that region (see takeDirtyRegion()).
+ * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  *
  */
 public class ShapeModel {
 	
+	/**
+	 * Strategies for progressing the animation. Tree, the default, moves 
+	 * shapes by calling move() on the root CarrierShape, which recursively 
+	 * moves its children. Arrays lays the composition out in flat primitive 
+	 * arrays (see ShapeArrays) and moves every shape in a single loop. 
+	 * Parallel moves the tree, splitting subtrees larger than the parallel
+	 * threshold across a ForkJoinPool (see MoveTask). All strategies produce
+	 * exactly the same positions.
+	 */
+	public enum ClockMode {Tree, Arrays, Parallel};
+	
+	/**
+	 * Default number of shapes above which ClockMode.Parallel splits work
+	 * across threads.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+	
 	// Root of the shape composition.
 	private CarrierShape _root;
 	
@@ -27,6 +62,48 @@ public class ShapeModel {
 	// List of ShapeModelListeners.
 	private List<ShapeModelListener> _listeners;
 	
+	// Strategy used by clock().
+	private ClockMode _clockMode = ClockMode.Tree;
+	
+	// Array representation of the composition, used in ClockMode.Arrays. 
+	// _arraysStale is set whenever the composition changes so that the 
+	// arrays are rebuilt on the next clock() call. _arraysUnsupported is set
+	// if the composition contains a shape the arrays cannot represent.
+	private ShapeArrays _arrays;
+	private boolean _arraysStale;
+	private boolean _arraysUnsupported;
+	
+	// Pool and subtree size threshold used in ClockMode.Parallel.
+	private ForkJoinPool _pool = ForkJoinPool.commonPool();
+	private int _parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	
+	// Number of clock() calls made, and number of additions and removals.
+	private long _tickCount;
+	private long _structureVersion;
+	
+	// Latest published snapshot, and all snapshots created by this model 
+	// for recycling. _snapshotsEnabled controls whether snapshots are 
+	// published.
+	private boolean _snapshotsEnabled;
+	private AtomicReference<ShapeSnapshot> _snapshot = new AtomicReference<ShapeSnapshot>();
+	private List<ShapeSnapshot> _snapshotPool = new ArrayList<ShapeSnapshot>();
+	
+	// Region changed since last taken by a view; null if not tracked.
+	private volatile DirtyRegion _dirtyRegion;
+	
+	// Index of shape bounds; null if not maintained.
+	private volatile SpatialIndex _spatialIndex;
+	
+	// Detector for collisions between sibling shapes, null if collisions are
+	// disabled, and the pairs of shapes that collided during the last tick.
+	private CollisionDetector _collisions;
+	private List<Shape[]> _contacts = new ArrayList<Shape[]>();
+	
+	// Number of open batches, and the events collected for delivery when the
+	// outermost batch is committed.
+	private int _batchDepth;
+	private List<ShapeModelEvent> _batchEvents = new ArrayList<ShapeModelEvent>();
+	
 	
 	/**
 	 * Creates a ShapeModel with specified height and width bounds.
@@ -44,6 +121,13 @@ public class ShapeModel {
 		return _root;
 	}
 	
+	/**
+	 * Returns the bounds within which this ShapeModel's shapes move.
+	 */
+	public Dimension bounds() {
+		return new Dimension(_bounds);
+	}
+	
 	/**
 	 * Attempts to add a new Shape to a specified CarrierShape held within the
 	 * ShapeModel. If the shape cannot be added, no action is taken and this 
@@ -55,14 +139,19 @@ public class ShapeModel {
 	 * @param shape the new shape to add to this ShapeModel.
 	 * @param parent the intended parent of the new shape.
 	 */
-	public boolean add(Shape shape, CarrierShape parent) {
+	public synchronized boolean add(Shape shape, CarrierShape parent) {
 		boolean success = true;
 		
 		try {
 			parent.add(shape);
+			_arraysStale = true;
+			_structureVersion++;
+			if (_spatialIndex != null) {
+				_spatialIndex.add(shape);
+			}
 			
 			// Fire event.
-			fire(ShapeModelEvent.makeShapeAddedEvent(shape, this));
+			changed(ShapeModelEvent.makeShapeAddedEvent(shape, this));
 		} catch(IllegalArgumentException e) {
 			success = false;
 		}
@@ -77,44 +166,401 @@ public class ShapeModel {
 	 * ShapeModelEvent.
 	 * @param shape the Shape to remove.
 	 */
-	public void remove(Shape shape) {
+	public synchronized void remove(Shape shape) {
 		// Remove shape from its parent.
 		CarrierShape parent = shape.parent();
 		
 		if(parent != null) {
 			int index = parent.indexOf(shape);
 			parent.remove(shape);
+			_arraysStale = true;
+			_structureVersion++;
+			if (_spatialIndex != null) {
+				_spatialIndex.remove(shape);
+			}
 		
 			// Fire event.
-			fire(ShapeModelEvent.makeShapeRemovedEvent(shape, parent, index, this));
+			changed(ShapeModelEvent.makeShapeRemovedEvent(shape, parent, index, this));
 		}
 	}
 
+	/**
+	 * Begins a batch of changes. Until the matching commitBatch() call, 
+	 * ShapeAdded and ShapeRemoved events are collected rather than fired, and
+	 * snapshots aren't published for each change; commitBatch() then fires a
+	 * single Batch ShapeModelEvent describing them all. Batches may be nested,
+	 * in which case the events are fired when the outermost batch is 
+	 * committed. Events fired by clock() are not batched.
+	 */
+	public synchronized void beginBatch() {
+		_batchDepth++;
+	}
+	
+	/**
+	 * Commits a batch of changes begun by beginBatch(). If this ends the 
+	 * outermost batch and shapes were added or removed during it, a snapshot
+	 * is published and a Batch ShapeModelEvent is fired.
+	 * @throws IllegalStateException if no batch has been begun.
+	 */
+	public synchronized void commitBatch() {
+		if (_batchDepth == 0) {
+			throw new IllegalStateException("No batch to commit");
+		}
+		if (--_batchDepth > 0 || _batchEvents.isEmpty()) {
+			return;
+		}
+		publishSnapshot();
+		ShapeModelEvent event = ShapeModelEvent.makeBatchEvent(_batchEvents, this);
+		_batchEvents.clear();
+		fire(event);
+	}
+	
 	/**
 	 * Progresses the animation. Calling this method causes each Shape in this 
 	 * ShapeModel to move before notifying each registered ShapeModelListener 
-	 * of the movement. Note that a clock() call results in ONE ShapeModelEvent
-	 * being fired; the event identifies the root CarrierShape.
+	 * of the movement. Note that a clock() call results in ONE ShapeMoved 
+	 * ShapeModelEvent being fired; the event identifies the root 
+	 * CarrierShape. If collisions are enabled, shapes that collide with 
+	 * their siblings bounce apart, and a ShapesCollided event is fired for 
+	 * each colliding pair before the ShapeMoved event.
+	 */
+	public synchronized void clock() {
+		tick(1);
+	}
+	
+	/*
+	 * Moves the shapes by one tick, as for clock(), and fires events. The 
+	 * ShapeMoved event reports ticks, which includes any ticks that advance()
+	 * has already stepped through.
 	 */
-	public void clock() {
-		_root.move(_bounds.width, _bounds.height);
+	private void tick(long ticks) {
+		if (_clockMode == ClockMode.Arrays && prepareArrays()) {
+			_arrays.move(_bounds.width, _bounds.height);
+		} else if (_clockMode == ClockMode.Parallel && _root.subtreeSize() > _parallelThreshold) {
+			_root.moveSelf(_bounds.width, _bounds.height);
+			_pool.invoke(new MoveTask(_root, _parallelThreshold));
+		} else {
+			_root.move(_bounds.width, _bounds.height);
+		}
+		_contacts.clear();
+		if (_collisions != null) {
+			_collisions.detect(_root, _contacts);
+		}
+		_tickCount++;
+		if (_spatialIndex != null) {
+			_spatialIndex.update();
+		}
+		publishSnapshot();
 		
-		// Fire event.
-		fire(ShapeModelEvent.makeShapeMovedEvent(_root, this));
+		// Fire events.
+		for (int i = 0; i < _contacts.size(); i++) {
+			Shape[] contact = _contacts.get(i);
+			fire(ShapeModelEvent.makeShapesCollidedEvent(contact[0], contact[1], this));
+		}
+		fire(ShapeModelEvent.makeShapeMovedEvent(_root, ticks, this));
+	}
+	
+	/**
+	 * Progresses the animation by the specified number of ticks, leaving each
+	 * Shape where ticks clock() calls would. Shapes are moved directly to 
+	 * their final positions, in time that doesn't depend on the number of 
+	 * ticks, except for shapes of classes whose movement can't be predicted
+	 * and, if collisions are enabled, all shapes; these are clocked tick by 
+	 * tick. A single ShapeMoved ShapeModelEvent is fired, whose ticks() is
+	 * ticks; ShapesCollided events are fired only for the final tick.
+	 * @throws IllegalArgumentException if ticks is negative.
+	 */
+	public synchronized void advance(long ticks) {
+		if (ticks < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (ticks == 0) {
+			return;
+		}
+		if (_arrays != null) {
+			// Copy shape state back from the arrays; they're rebuilt by the
+			// next clock() call.
+			_arrays.release();
+			_arrays = null;
+		}
+		if (_collisions != null) {
+			// Collisions change the course of shapes; they must be stepped.
+			for (long i = 1; i < ticks; i++) {
+				_root.move(_bounds.width, _bounds.height);
+				_contacts.clear();
+				_collisions.detect(_root, _contacts);
+			}
+			_tickCount += ticks - 1;
+			tick(ticks);
+			return;
+		}
+		_root.advance(_bounds.width, _bounds.height, ticks);
+		_contacts.clear();
+		_tickCount += ticks;
+		if (_spatialIndex != null) {
+			_spatialIndex.update();
+		}
+		publishSnapshot();
+		fire(ShapeModelEvent.makeShapeMovedEvent(_root, ticks, this));
+	}
+	
+	/**
+	 * Sets the strategy used by clock() to move shapes. Switching away from
+	 * ClockMode.Arrays copies shape state back into the Shape objects.
+	 */
+	public synchronized void setClockMode(ClockMode mode) {
+		if (mode != ClockMode.Arrays && _arrays != null) {
+			_arrays.release();
+			_arrays = null;
+		}
+		_clockMode = mode;
+	}
+	
+	/**
+	 * Returns the strategy used by clock() to move shapes.
+	 */
+	public ClockMode clockMode() {
+		return _clockMode;
+	}
+	
+	/**
+	 * Enables or disables the publication of a ShapeSnapshot after each 
+	 * change to this ShapeModel. When enabled, a snapshot of the current 
+	 * state is published immediately.
+	 */
+	public synchronized void setSnapshotsEnabled(boolean enabled) {
+		_snapshotsEnabled = enabled;
+		if (enabled) {
+			publishSnapshot();
+		} else {
+			ShapeSnapshot previous = _snapshot.getAndSet(null);
+			if (previous != null) {
+				previous.release();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the most recently published ShapeSnapshot, or null if 
+	 * snapshots are not enabled. This method does not lock the ShapeModel
+	 * and may be called on any thread. The caller must call release() on the
+	 * returned snapshot once it has finished with it.
+	 */
+	public ShapeSnapshot acquireSnapshot() {
+		while (true) {
+			ShapeSnapshot snapshot = _snapshot.get();
+			if (snapshot == null || snapshot.retain()) {
+				return snapshot;
+			}
+			// The snapshot was replaced and released before it could be
+			// retained; try again with its replacement.
+		}
+	}
+	
+	/**
+	 * Enables or disables tracking of the region of the composition that 
+	 * changes between published snapshots. Tracking is enabled by supplying
+	 * the FontMetrics with which shape text is painted, so that the region
+	 * covers text as well as shape outlines; passing null disables tracking.
+	 * The region is only tracked while snapshots are enabled.
+	 */
+	public synchronized void setDirtyRegionTracking(FontMetrics metrics) {
+		_dirtyRegion = metrics == null ? null : new DirtyRegion(metrics);
+	}
+	
+	/**
+	 * Returns true if this ShapeModel tracks the region of the composition
+	 * that changes between published snapshots.
+	 */
+	public boolean isDirtyRegionTracking() {
+		return _dirtyRegion != null;
+	}
+	
+	/**
+	 * Copies into region the bounding box, in the root's coordinate space, 
+	 * of every shape that has changed since the last call, and resets the 
+	 * tracked region. Both the previous and current bounds of a moved shape
+	 * are included. Returns false, leaving region unchanged, if nothing has
+	 * changed or tracking is disabled. This method does not lock the 
+	 * ShapeModel and may be called on any thread.
+	 */
+	public boolean takeDirtyRegion(Rectangle region) {
+		DirtyRegion dirtyRegion = _dirtyRegion;
+		return dirtyRegion != null && dirtyRegion.take(region);
+	}
+	
+	/**
+	 * Enables or disables collisions between shapes. When enabled, each 
+	 * clock() call detects sibling shapes whose outlines overlap and makes 
+	 * them bounce apart (see CollisionDetector). Shapes in different 
+	 * CarrierShapes never collide, except via their ancestors.
+	 */
+	public synchronized void setCollisionsEnabled(boolean enabled) {
+		_collisions = enabled ? new CollisionDetector() : null;
+	}
+	
+	/**
+	 * Returns true if collisions between shapes are enabled.
+	 */
+	public synchronized boolean collisionsEnabled() {
+		return _collisions != null;
+	}
+	
+	/**
+	 * Enables or disables a SpatialIndex over this ShapeModel's shapes. When
+	 * enabled, the index is updated as shapes are added, removed and moved.
+	 * @param cellSize the width and height of the index's grid cells; if 
+	 * less than one, the index is disabled.
+	 */
+	public synchronized void setSpatialIndex(int cellSize) {
+		_spatialIndex = cellSize < 1 ? null : new SpatialIndex(_root, cellSize);
+	}
+	
+	/**
+	 * Returns this ShapeModel's SpatialIndex, or null if it has none. The
+	 * index may be queried on any thread.
+	 */
+	public SpatialIndex spatialIndex() {
+		return _spatialIndex;
+	}
+	
+	/**
+	 * Sets the number of shapes above which ClockMode.Parallel splits a 
+	 * subtree across threads. Subtrees of this size or smaller are moved 
+	 * sequentially by a single thread.
+	 * @throws IllegalArgumentException if threshold is less than one.
+	 */
+	public void setParallelThreshold(int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException();
+		}
+		_parallelThreshold = threshold;
+	}
+	
+	/**
+	 * Sets the ForkJoinPool used in ClockMode.Parallel. By default the common
+	 * pool is used.
+	 */
+	public void setForkJoinPool(ForkJoinPool pool) {
+		_pool = pool;
 	}
 
 	/**
 	 * Registers a ShapeModelListener on this ShapeModel object.
 	 */
-	public void addShapeModelListener(ShapeModelListener listener) {
+	public synchronized void addShapeModelListener(ShapeModelListener listener) {
 		_listeners.add(listener);
 	}
 	
 	/**
-	 * De-registers a ShapeModelListener from this ShapeModel object.
+	 * Registers a ShapeModelListener on this ShapeModel object, to be 
+	 * notified asynchronously: events are queued, and delivered to listener
+	 * using executor (e.g. a single thread dedicated to the listener), so that
+	 * a slow listener doesn't slow down clock(). Queued ShapeMoved events are
+	 * coalesced into the latest. Once capacity events are queued, 
+	 * ShapesCollided events are dropped, and other events are collapsed into
+	 * a single Resync event, so the queue stays bounded. 
+	 * Returns the QueuedListener that is registered, from which queue metrics
+	 * can be read.
+	 * @throws IllegalArgumentException if executor is null or capacity is 
+	 * less than one.
+	 */
+	public synchronized QueuedListener addShapeModelListener(ShapeModelListener listener, Executor executor, int capacity) {
+		QueuedListener queued = new QueuedListener(listener, executor, capacity);
+		_listeners.add(queued);
+		return queued;
+	}
+	
+	/**
+	 * De-registers a ShapeModelListener from this ShapeModel object. If 
+	 * listener was registered asynchronously, events already queued for it
+	 * are still delivered.
+	 */
+	public synchronized void removeShapeModelListener(ShapeModelListener listener) {
+		for (int i = 0; i < _listeners.size(); i++) {
+			ShapeModelListener registered = _listeners.get(i);
+			if (registered == listener 
+					|| (registered instanceof QueuedListener && ((QueuedListener)registered).delegate() == listener)) {
+				_listeners.remove(i);
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * Ensures the array representation of the composition is current, 
+	 * rebuilding it after any addition or removal. Returns false if the 
+	 * composition contains a shape that the arrays cannot represent, in which
+	 * case clock() falls back to moving the tree.
+	 */
+	private boolean prepareArrays() {
+		if (_arrays == null) {
+			_arrays = new ShapeArrays();
+			_arraysStale = true;
+		}
+		if (_arraysStale) {
+			_arraysUnsupported = !_arrays.build(_root);
+			_arraysStale = false;
+		}
+		return !_arraysUnsupported;
+	}
+	
+	/*
+	 * Completes ticks whose movement has been applied directly to the 
+	 * shapes, by a TickReplayer, rather than by clock() or advance(). The 
+	 * caller holds this ShapeModel's lock.
 	 */
-	public void removeShapeModelListener(ShapeModelListener listener) {
-		_listeners.remove(listener);
+	void replayedTicks(long ticks) {
+		_tickCount += ticks;
+		if (_spatialIndex != null) {
+			_spatialIndex.update();
+		}
+		publishSnapshot();
+		fire(ShapeModelEvent.makeShapeMovedEvent(_root, ticks, this));
+	}
+	
+	/*
+	 * Captures the current state into a recycled (or, if all are in use, a 
+	 * new) ShapeSnapshot and publishes it, releasing the previous snapshot.
+	 */
+	private void publishSnapshot() {
+		if (!_snapshotsEnabled) {
+			return;
+		}
+		
+		ShapeSnapshot snapshot = null;
+		for (int i = 0; i < _snapshotPool.size() && snapshot == null; i++) {
+			if (_snapshotPool.get(i).claim()) {
+				snapshot = _snapshotPool.get(i);
+			}
+		}
+		if (snapshot == null) {
+			snapshot = new ShapeSnapshot();
+			snapshot.claim();
+			_snapshotPool.add(snapshot);
+		}
+		
+		snapshot.capture(_root, _tickCount, _structureVersion);
+		ShapeSnapshot previous = _snapshot.getAndSet(snapshot);
+		if (_dirtyRegion != null) {
+			_dirtyRegion.update(previous, snapshot);
+		}
+		if (previous != null) {
+			previous.release();
+		}
+	}
+	
+	/*
+	 * Publishes a snapshot and fires event following an addition or removal,
+	 * or collects it if a batch is open.
+	 */
+	private void changed(ShapeModelEvent event) {
+		if (_batchDepth > 0) {
+			_batchEvents.add(event);
+		} else {
+			publishSnapshot();
+			fire(event);
+		}
 	}
 	
 	/*
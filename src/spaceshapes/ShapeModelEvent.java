@@ -1,17 +1,33 @@
 package spaceshapes;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Class to describe a change to the state of a ShapeModel object. An instance
  * of ShapeModelEvent is sent in a notification message (an update() call) by a
  * ShapeModel when communicating updates to its ShapeModelListeners.
  * 
+ * Changes made between ShapeModel.beginBatch() and commitBatch() are 
+ * delivered as a single Batch event. Its events() are ShapeAdded and 
+ * ShapeRemoved events, each of which may describe several shapes with the
+ * same parent: operands() and indices() list them in ascending index order.
+ * For a group of added shapes the indices are positions after the additions;
+ * for a group of removed shapes they are positions before the removals, as
+ * expected by TreeModelEvent.
+ * 
+ * A Resync event stands in for structural changes that a listener wasn't
+ * told about individually (see QueuedListener): the listener should rebuild
+ * its view of the whole model.
+ * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  *
  */
 public class ShapeModelEvent {
 
 	// Set of event types.
-	public enum EventType {ShapeAdded, ShapeRemoved, ShapeMoved};
+	public enum EventType {ShapeAdded, ShapeRemoved, ShapeMoved, ShapesCollided, Batch, Resync};
 	
 	private EventType _type;      // Type of event.
 	private Shape _operand;       // Shape to which the event relates.
@@ -21,6 +37,15 @@ public class ShapeModelEvent {
 	private CarrierShape _parent; // Parent CarrierShape of fOperand; for 
 	                              // ShapeRemoved events this is the former 
 	                              // parent of fOperand.
+	private Shape _other;         // For ShapesCollided events, the Shape 
+	                              // that fOperand collided with.
+	private Shape[] _operands;    // For grouped events, all the operands and
+	private int[] _indices;       // their indices, in ascending index order;
+	                              // null for events with one operand.
+	private List<ShapeModelEvent> _events; // For Batch events, the grouped
+	                                       // events.
+	private long _ticks = 1;      // For ShapeMoved events, the number of 
+	                              // ticks the shapes moved by.
 	                    
 	/**
 	 * Creates a ShapeAdded ShapeModelEvent.
@@ -53,12 +78,23 @@ public class ShapeModelEvent {
 	}
 	
 	/**
-	 * Creates a ShapeMoved ShapeModelEvent. 
+	 * Creates a ShapeMoved ShapeModelEvent for a single tick. 
 	 * @param shapeMoved the Shape object that has moved.
 	 * @param source the ShapeModel object that fires the event.
 	 */
 	public static ShapeModelEvent makeShapeMovedEvent(
 			Shape shapeMoved, ShapeModel source) {
+		return makeShapeMovedEvent(shapeMoved, 1, source);
+	}
+	
+	/**
+	 * Creates a ShapeMoved ShapeModelEvent. 
+	 * @param shapeMoved the Shape object that has moved.
+	 * @param ticks the number of ticks the Shape has moved by.
+	 * @param source the ShapeModel object that fires the event.
+	 */
+	public static ShapeModelEvent makeShapeMovedEvent(
+			Shape shapeMoved, long ticks, ShapeModel source) {
 		CarrierShape parent = shapeMoved.parent();
 		int index = -1;
 		
@@ -66,7 +102,116 @@ public class ShapeModelEvent {
 			index = parent.indexOf(shapeMoved);
 		}
 		
-		return new ShapeModelEvent(EventType.ShapeMoved, shapeMoved, parent, index, source);
+		ShapeModelEvent event = new ShapeModelEvent(EventType.ShapeMoved, shapeMoved, parent, index, source);
+		event._ticks = ticks;
+		return event;
+	}
+	
+	/**
+	 * Creates a ShapesCollided ShapeModelEvent.
+	 * @param shape one of the colliding Shape objects.
+	 * @param other the Shape object that shape collided with; a sibling of 
+	 * shape.
+	 * @param source the ShapeModel object that fires the event.
+	 */
+	public static ShapeModelEvent makeShapesCollidedEvent(
+			Shape shape, Shape other, ShapeModel source) {
+		CarrierShape parent = shape.parent();
+		
+		ShapeModelEvent event = new ShapeModelEvent(EventType.ShapesCollided, shape, parent, parent.indexOf(shape), source);
+		event._other = other;
+		return event;
+	}
+	
+	/**
+	 * Creates a Batch ShapeModelEvent. Consecutive ShapeAdded or ShapeRemoved
+	 * events with the same parent are merged into one grouped event where 
+	 * their indices allow, so that each group's indices are ascending.
+	 * @param events the ShapeAdded and ShapeRemoved events that make up the
+	 * batch, in the order the changes were made.
+	 * @param source the ShapeModel object that fires the event.
+	 */
+	public static ShapeModelEvent makeBatchEvent(
+			List<ShapeModelEvent> events, ShapeModel source) {
+		List<ShapeModelEvent> groups = new ArrayList<ShapeModelEvent>();
+		int start = 0;
+		while (start < events.size()) {
+			int end = groupEnd(events, start);
+			groups.add(end - start == 1 ? events.get(start) : group(events, start, end));
+			start = end;
+		}
+		
+		ShapeModelEvent event = new ShapeModelEvent(EventType.Batch, source.root(), null, -1, source);
+		event._events = Collections.unmodifiableList(groups);
+		return event;
+	}
+	
+	/**
+	 * Creates a Resync ShapeModelEvent, which tells a listener that shapes
+	 * have been added or removed without ShapeAdded, ShapeRemoved or Batch
+	 * events being delivered for them.
+	 * @param source the ShapeModel object whose composition has changed.
+	 */
+	public static ShapeModelEvent makeResyncEvent(ShapeModel source) {
+		return new ShapeModelEvent(EventType.Resync, source.root(), null, -1, source);
+	}
+	
+	/*
+	 * Returns the end (exclusive) of the run of events, starting at start, 
+	 * that can be merged into one group: events of the same type and parent
+	 * whose indices can be listed in ascending order. Additions always 
+	 * qualify, as shapes are appended to their parent. Removals qualify if
+	 * their indices, as reported, are either all non-decreasing (e.g. 
+	 * removing shapes front to back) or all decreasing (back to front). 
+	 */
+	private static int groupEnd(List<ShapeModelEvent> events, int start) {
+		ShapeModelEvent first = events.get(start);
+		int end = start + 1;
+		int direction = 0;
+		while (end < events.size()) {
+			ShapeModelEvent event = events.get(end);
+			if (event._type != first._type || event._parent != first._parent) {
+				break;
+			}
+			if (first._type == EventType.ShapeRemoved) {
+				int step = event._index >= events.get(end - 1)._index ? 1 : -1;
+				if (direction != 0 && step != direction) {
+					break;
+				}
+				direction = step;
+			}
+			end++;
+		}
+		return end;
+	}
+	
+	/*
+	 * Merges the events from start to end (exclusive) into one grouped event.
+	 */
+	private static ShapeModelEvent group(List<ShapeModelEvent> events, int start, int end) {
+		int count = end - start;
+		ShapeModelEvent first = events.get(start);
+		Shape[] operands = new Shape[count];
+		int[] indices = new int[count];
+		boolean descending = first._type == EventType.ShapeRemoved && events.get(start + 1)._index < first._index;
+		for (int i = 0; i < count; i++) {
+			if (descending) {
+				// Removing a later shape doesn't shift the earlier ones.
+				ShapeModelEvent event = events.get(end - 1 - i);
+				operands[i] = event._operand;
+				indices[i] = event._index;
+			} else {
+				// Each removal shifts the shapes after it down by one.
+				ShapeModelEvent event = events.get(start + i);
+				operands[i] = event._operand;
+				indices[i] = first._type == EventType.ShapeRemoved ? event._index + i : event._index;
+			}
+		}
+		
+		ShapeModelEvent event = new ShapeModelEvent(first._type, operands[0], first._parent, indices[0], first._source);
+		event._operands = operands;
+		event._indices = indices;
+		return event;
 	}
 	
 	/*
@@ -82,7 +227,7 @@ public class ShapeModelEvent {
 	
 	/**
 	 * Returns the type of the event, one of ShapeAdded, ShapeRemoved, 
-	 * ShapeMoved.
+	 * ShapeMoved, ShapesCollided, Batch, Resync.
 	 */
 	public EventType eventType() {
 		return _type;
@@ -106,6 +251,57 @@ public class ShapeModelEvent {
 		return _parent;
 	}
 	
+	/**
+	 * Returns the Shapes to which this ShapeModelEvent applies: for a grouped 
+	 * ShapeAdded or ShapeRemoved event, all of them in ascending index order, 
+	 * otherwise just operand().
+	 */
+	public Shape[] operands() {
+		return _operands != null ? _operands.clone() : new Shape[] {_operand};
+	}
+	
+	/**
+	 * Returns the index positions of the Shapes returned by operands(). 
+	 */
+	public int[] indices() {
+		return _indices != null ? _indices.clone() : new int[] {_index};
+	}
+	
+	/**
+	 * Returns the number of Shapes to which this ShapeModelEvent applies.
+	 */
+	public int operandCount() {
+		return _operands != null ? _operands.length : 1;
+	}
+	
+	/**
+	 * Returns the events that make up a Batch ShapeModelEvent, in the order 
+	 * the changes were made. For events other than Batch this method returns
+	 * an empty list.
+	 */
+	public List<ShapeModelEvent> events() {
+		return _events != null ? _events : Collections.<ShapeModelEvent>emptyList();
+	}
+	
+	/**
+	 * Returns the Shape object that the Shape returned by operand() collided
+	 * with. For events other than ShapesCollided this method returns null.
+	 */
+	public Shape other() {
+		return _other;
+	}
+	
+	/**
+	 * Returns the number of ticks by which shapes moved, for a ShapeMoved 
+	 * event: 1 for an event fired by ShapeModel.clock(), or the number of 
+	 * ticks passed to ShapeModel.advance(). Listeners that coalesce 
+	 * ShapeMoved events, such as QueuedListener, don't add up their ticks.
+	 * For events other than ShapeMoved this method returns 1.
+	 */
+	public long ticks() {
+		return _ticks;
+	}
+	
 	/**
 	 * Returns the ShapeModel that fired this ShapeModelEvent.
 	 */
@@ -0,0 +1,645 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable record of the state of a ShapeModel at the end of a clock() call
+ * (or an add() or remove() call). A ShapeSnapshot holds the geometry and text
+ * of every Shape in the model, ordered by depth so that the children of any
+ * Shape occupy consecutive positions, together with a recording of the
+ * Painter calls needed to paint the composition. The recording is divided
+ * into one segment per shape, in painting order, so that when a snapshot is
+ * painted, shapes lying outside the Painter's clip bounds can be skipped
+ * along with their descendants.
+ *
+ * Snapshots allow views to read and paint the model without locking it while
+ * it is being clocked on another thread. A view obtains the latest snapshot
+ * by calling ShapeModel.acquireSnapshot() and must call release() when it has
+ * finished with it. The ShapeModel recycles released snapshots, so a
+ * ShapeSnapshot must not be used after it has been released.
+ *
+ * @author Dave Shin
+ */
+public class ShapeSnapshot {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Number of shapes held.
+	private int _count;
+
+	// Model tick at which this snapshot was captured.
+	private long _tick;
+
+	// Shapes in depth order, and their state.
+	private Shape[] _shapes = new Shape[INITIAL_CAPACITY];
+	private int[] _parent = new int[INITIAL_CAPACITY];
+	private int[] _firstChild = new int[INITIAL_CAPACITY];
+	private int[] _childCount = new int[INITIAL_CAPACITY];
+	private int[] _x = new int[INITIAL_CAPACITY];
+	private int[] _y = new int[INITIAL_CAPACITY];
+	private int[] _deltaX = new int[INITIAL_CAPACITY];
+	private int[] _deltaY = new int[INITIAL_CAPACITY];
+	private int[] _width = new int[INITIAL_CAPACITY];
+	private int[] _height = new int[INITIAL_CAPACITY];
+	private String[] _text = new String[INITIAL_CAPACITY];
+
+	// Position of each shape in the coordinate system of the root's parent,
+	// i.e. taking into account the translation applied by each ancestor.
+	private int[] _absoluteX = new int[INITIAL_CAPACITY];
+	private int[] _absoluteY = new int[INITIAL_CAPACITY];
+
+	// ShapeModel structure version at which this snapshot was captured. Two
+	// snapshots with the same version hold the same shapes in the same order.
+	private long _structureVersion;
+
+	// Open-addressing hash table mapping Shapes to their positions; each
+	// entry holds position + 1, with 0 marking an empty entry.
+	private int[] _table = new int[INITIAL_CAPACITY * 2];
+
+	// Recording of the Painter calls that paint the composition.
+	private DisplayList _displayList = new DisplayList();
+
+	// Segments of the recording, in painting order. For each segment: the
+	// position of the shape it paints, where its calls start within the
+	// recording, the segment following the shape's descendants, the number
+	// of shapes in the shape's subtree, and whether any of its descendants
+	// has text, which may extend beyond the shape.
+	private int _segmentCount;
+	private int[] _segmentShape = new int[INITIAL_CAPACITY];
+	private int[] _segmentOp = new int[INITIAL_CAPACITY];
+	private int[] _segmentObject = new int[INITIAL_CAPACITY];
+	private int[] _segmentEnd = new int[INITIAL_CAPACITY];
+	private int[] _segmentSize = new int[INITIAL_CAPACITY];
+	private boolean[] _segmentDescendantText = new boolean[INITIAL_CAPACITY];
+
+	// Records, per CarrierShape class, whether it paints its children using
+	// CarrierShape's doPaint(). Only such carriers have a segment per child;
+	// others are recorded in a single segment, along with their descendants.
+	private static final ClassValue<Boolean> USES_CARRIER_PAINT = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> cls) {
+			for (Class<?> c = cls; c != CarrierShape.class; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("doPaint", Painter.class);
+					return false;
+				} catch (NoSuchMethodException e) {
+					// Not overridden by c; try its superclass.
+				}
+			}
+			return true;
+		}
+	};
+
+	// Reference count. The ShapeModel holds one reference while this is the
+	// latest snapshot; -1 marks a snapshot that is being (re)captured.
+	private AtomicInteger _references = new AtomicInteger();
+
+	/*
+	 * Snapshots are created only by ShapeModel.
+	 */
+	ShapeSnapshot() {
+	}
+
+	/**
+	 * Returns the number of shapes held in this snapshot. The shape at
+	 * position 0 is the root.
+	 */
+	public int shapeCount() {
+		return _count;
+	}
+
+	/**
+	 * Returns the number of clock() calls the model had completed when this
+	 * snapshot was captured.
+	 */
+	public long tick() {
+		return _tick;
+	}
+
+	/**
+	 * Returns the Shape held at a specified position. The Shape's own state
+	 * may have changed since the snapshot was captured; use the other
+	 * accessors to read the state captured by this snapshot.
+	 */
+	public Shape shape(int index) {
+		checkIndex(index);
+		return _shapes[index];
+	}
+
+	/**
+	 * Returns the position of a specified Shape within this snapshot, or -1
+	 * if the Shape was not part of the model when the snapshot was captured.
+	 */
+	public int indexOf(Shape shape) {
+		int mask = _table.length - 1;
+		for (int slot = hash(shape) & mask; _table[slot] != 0; slot = (slot + 1) & mask) {
+			int index = _table[slot] - 1;
+			if (_shapes[index] == shape) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the parent of the shape at a specified
+	 * position, or -1 for the root.
+	 */
+	public int parent(int index) {
+		checkIndex(index);
+		return _parent[index];
+	}
+
+	/**
+	 * Returns the number of children of the shape at a specified position.
+	 */
+	public int childCount(int index) {
+		checkIndex(index);
+		return _childCount[index];
+	}
+
+	/**
+	 * Returns the position of the child, at position childIndex within its
+	 * parent, of the shape at a specified position.
+	 * @throws IndexOutOfBoundsException if childIndex is out of range.
+	 */
+	public int child(int index, int childIndex) {
+		if (childIndex < 0 || childIndex >= childCount(index)) {
+			throw new IndexOutOfBoundsException();
+		}
+		return _firstChild[index] + childIndex;
+	}
+
+	/**
+	 * Returns the index of the shape at a specified position within its
+	 * parent, or -1 for the root.
+	 */
+	public int childIndex(int index) {
+		int parent = parent(index);
+		return parent < 0 ? -1 : index - _firstChild[parent];
+	}
+
+	/**
+	 * Returns the x position of the shape at a specified position.
+	 */
+	public int x(int index) {
+		checkIndex(index);
+		return _x[index];
+	}
+
+	/**
+	 * Returns the y position of the shape at a specified position.
+	 */
+	public int y(int index) {
+		checkIndex(index);
+		return _y[index];
+	}
+
+	/**
+	 * Returns the horizontal speed and direction of the shape at a specified 
+	 * position.
+	 */
+	public int deltaX(int index) {
+		checkIndex(index);
+		return _deltaX[index];
+	}
+
+	/**
+	 * Returns the vertical speed and direction of the shape at a specified 
+	 * position.
+	 */
+	public int deltaY(int index) {
+		checkIndex(index);
+		return _deltaY[index];
+	}
+
+	/**
+	 * Returns the width of the shape at a specified position.
+	 */
+	public int width(int index) {
+		checkIndex(index);
+		return _width[index];
+	}
+
+	/**
+	 * Returns the height of the shape at a specified position.
+	 */
+	public int height(int index) {
+		checkIndex(index);
+		return _height[index];
+	}
+
+	/**
+	 * Returns the x position of the shape at a specified position, relative
+	 * to the origin of the root's parent rather than the shape's own parent.
+	 * This is where the shape appears when the composition is painted.
+	 */
+	public int absoluteX(int index) {
+		checkIndex(index);
+		return _absoluteX[index];
+	}
+
+	/**
+	 * Returns the y position of the shape at a specified position, relative
+	 * to the origin of the root's parent rather than the shape's own parent.
+	 */
+	public int absoluteY(int index) {
+		checkIndex(index);
+		return _absoluteY[index];
+	}
+
+	/**
+	 * Returns the text of the shape at a specified position, or null.
+	 */
+	public String text(int index) {
+		checkIndex(index);
+		return _text[index];
+	}
+
+	/**
+	 * Paints the composition as it was when this snapshot was captured. 
+	 * Shapes that, along with their text and descendants, lie outside the 
+	 * painter's clip bounds are skipped.
+	 */
+	public void paint(Painter painter) {
+		Rectangle clip = painter.getClipBounds();
+		int originX = 0;
+		int originY = 0;
+		int culled = 0;
+
+		int segment = 0;
+		while (segment < _segmentCount) {
+			int shape = _segmentShape[segment];
+			if (clip != null && !_segmentDescendantText[segment] && !Shape.paintsWithin(clip,
+					_absoluteX[shape], _absoluteY[shape], _width[shape], _height[shape], _text[shape], painter)) {
+				culled += _segmentSize[segment];
+				segment = _segmentEnd[segment];
+				continue;
+			}
+
+			// Translate to the origin of the shape's parent, as 
+			// CarrierShape.doPaint() does, if not already there.
+			int parent = _parent[shape];
+			int x = parent < 0 ? 0 : _absoluteX[parent];
+			int y = parent < 0 ? 0 : _absoluteY[parent];
+			if (x != originX || y != originY) {
+				painter.translate(x - originX, y - originY);
+				originX = x;
+				originY = y;
+			}
+
+			int end = segment + 1 < _segmentCount ? _segmentOp[segment + 1] : _displayList._opCount;
+			_displayList.replay(painter, _segmentOp[segment], end, _segmentObject[segment]);
+			segment++;
+		}
+
+		if (originX != 0 || originY != 0) {
+			painter.translate(-originX, -originY);
+		}
+		if (culled > 0) {
+			painter.shapesCulled(culled);
+		}
+	}
+
+	/**
+	 * Releases this snapshot, allowing its ShapeModel to recycle it.
+	 */
+	public void release() {
+		_references.decrementAndGet();
+	}
+
+	/*
+	 * Attempts to take a reference to this snapshot. Fails if the snapshot is
+	 * no longer current, in which case it may be about to be recycled.
+	 */
+	boolean retain() {
+		int references;
+		do {
+			references = _references.get();
+			if (references <= 0) {
+				return false;
+			}
+		} while (!_references.compareAndSet(references, references + 1));
+		return true;
+	}
+
+	/*
+	 * Attempts to claim this snapshot for recapture. Succeeds only if no
+	 * references are held.
+	 */
+	boolean claim() {
+		return _references.compareAndSet(0, -1);
+	}
+
+	/*
+	 * Captures the state of the composition rooted at root into this claimed
+	 * snapshot. On return the snapshot holds a single reference, owned by the
+	 * ShapeModel that publishes it.
+	 */
+	void capture(CarrierShape root, long tick, long structureVersion) {
+		_tick = tick;
+		_structureVersion = structureVersion;
+
+		// Drop references to shapes and text from any previous capture.
+		Arrays.fill(_shapes, 0, _count, null);
+		Arrays.fill(_text, 0, _count, null);
+		_count = 0;
+
+		// Breadth-first traversal, using _shapes as the queue.
+		append(root, -1);
+		for (int head = 0; head < _count; head++) {
+			Shape shape = _shapes[head];
+			_firstChild[head] = _count;
+			_childCount[head] = 0;
+			if (shape instanceof CarrierShape) {
+				CarrierShape carrier = (CarrierShape)shape;
+				_childCount[head] = carrier.shapeCount();
+				for (int i = 0; i < carrier.shapeCount(); i++) {
+					append(carrier.shapeAt(i), head);
+				}
+			}
+		}
+
+		// Build the Shape-to-position table.
+		int capacity = _table.length;
+		while (capacity < _count * 2) {
+			capacity *= 2;
+		}
+		if (capacity != _table.length) {
+			_table = new int[capacity];
+		} else {
+			Arrays.fill(_table, 0);
+		}
+		int mask = capacity - 1;
+		for (int i = 0; i < _count; i++) {
+			int slot = hash(_shapes[i]) & mask;
+			while (_table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			_table[slot] = i + 1;
+		}
+
+		_displayList.clear();
+		if (_segmentShape.length < _count) {
+			_segmentShape = new int[_shapes.length];
+			_segmentOp = new int[_shapes.length];
+			_segmentObject = new int[_shapes.length];
+			_segmentEnd = new int[_shapes.length];
+			_segmentSize = new int[_shapes.length];
+			_segmentDescendantText = new boolean[_shapes.length];
+		}
+		_segmentCount = 0;
+		record(0);
+
+		_references.set(1);
+	}
+
+	/*
+	 * Returns the ShapeModel structure version at which this snapshot was 
+	 * captured.
+	 */
+	long structureVersion() {
+		return _structureVersion;
+	}
+
+	/*
+	 * Records the painting of the shape at position index, and that of its
+	 * descendants, in segments.
+	 */
+	private void record(int index) {
+		Shape shape = _shapes[index];
+		int segment = _segmentCount++;
+		_segmentShape[segment] = index;
+		_segmentOp[segment] = _displayList._opCount;
+		_segmentObject[segment] = _displayList._objectCount;
+		_segmentSize[segment] = shape.subtreeSize();
+		_segmentDescendantText[segment] = shape.descendantTextCount() > 0;
+
+		if (shape instanceof CarrierShape && USES_CARRIER_PAINT.get(shape.getClass())) {
+			((CarrierShape)shape).paintWithoutChildren(_displayList);
+			for (int i = 0; i < _childCount[index]; i++) {
+				record(_firstChild[index] + i);
+			}
+		} else {
+			shape.paint(_displayList);
+		}
+		_segmentEnd[segment] = _segmentCount;
+	}
+
+	/*
+	 * Appends a Shape and its state, growing the arrays if necessary.
+	 */
+	private void append(Shape shape, int parent) {
+		if (_count == _shapes.length) {
+			int capacity = _shapes.length * 2;
+			_shapes = Arrays.copyOf(_shapes, capacity);
+			_parent = Arrays.copyOf(_parent, capacity);
+			_firstChild = Arrays.copyOf(_firstChild, capacity);
+			_childCount = Arrays.copyOf(_childCount, capacity);
+			_x = Arrays.copyOf(_x, capacity);
+			_y = Arrays.copyOf(_y, capacity);
+			_deltaX = Arrays.copyOf(_deltaX, capacity);
+			_deltaY = Arrays.copyOf(_deltaY, capacity);
+			_width = Arrays.copyOf(_width, capacity);
+			_height = Arrays.copyOf(_height, capacity);
+			_text = Arrays.copyOf(_text, capacity);
+			_absoluteX = Arrays.copyOf(_absoluteX, capacity);
+			_absoluteY = Arrays.copyOf(_absoluteY, capacity);
+		}
+		int i = _count++;
+		_shapes[i] = shape;
+		_parent[i] = parent;
+		_x[i] = shape.x();
+		_y[i] = shape.y();
+		_deltaX[i] = shape.deltaX();
+		_deltaY[i] = shape.deltaY();
+		_width[i] = shape.width();
+		_height[i] = shape.height();
+		_text[i] = shape.text();
+		_absoluteX[i] = parent < 0 ? _x[i] : _absoluteX[parent] + _x[i];
+		_absoluteY[i] = parent < 0 ? _y[i] : _absoluteY[parent] + _y[i];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= _count) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	private static int hash(Shape shape) {
+		int h = System.identityHashCode(shape);
+		return h ^ (h >>> 16);
+	}
+
+	/*
+	 * Painter implementation that records Painter calls so that they can be
+	 * replayed later. Integer arguments are stored in one array and object
+	 * arguments (colours, images and text) in another; both are reused from
+	 * one recording to the next.
+	 */
+	private static class DisplayList implements Painter {
+		private static final int RECT = 0;
+		private static final int OVAL = 1;
+		private static final int LINE = 2;
+		private static final int HEXAGON = 3;
+		private static final int IMAGE = 4;
+		private static final int FILL_RECT = 5;
+		private static final int SET_COLOR = 6;
+		private static final int TRANSLATE = 7;
+		private static final int TEXT = 8;
+
+		// Matches the initial colour set by GraphicsPainter.
+		private static final Color DEFAULT_COLOR = new Color(212, 212, 212);
+
+		private int[] _ops = new int[256];
+		private int _opCount;
+		private Object[] _objects = new Object[16];
+		private int _objectCount;
+		private Color _color = DEFAULT_COLOR;
+
+		void clear() {
+			Arrays.fill(_objects, 0, _objectCount, null);
+			_opCount = 0;
+			_objectCount = 0;
+			_color = DEFAULT_COLOR;
+		}
+
+		/*
+		 * Replays the calls recorded from position from up to position to,
+		 * whose first object argument (if any) is at objectIndex.
+		 */
+		void replay(Painter painter, int from, int to, int objectIndex) {
+			int i = from;
+			while (i < to) {
+				switch (_ops[i]) {
+				case RECT:
+					painter.drawRect(_ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4]);
+					i += 5;
+					break;
+				case OVAL:
+					painter.drawOval(_ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4]);
+					i += 5;
+					break;
+				case LINE:
+					painter.drawLine(_ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4]);
+					i += 5;
+					break;
+				case HEXAGON:
+					painter.drawHexagon(_ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4]);
+					i += 5;
+					break;
+				case IMAGE:
+					painter.drawImage((Image)_objects[objectIndex++], _ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4]);
+					i += 5;
+					break;
+				case FILL_RECT:
+					painter.fillRect(_ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4]);
+					i += 5;
+					break;
+				case SET_COLOR:
+					painter.setColor((Color)_objects[objectIndex++]);
+					i += 1;
+					break;
+				case TRANSLATE:
+					painter.translate(_ops[i + 1], _ops[i + 2]);
+					i += 3;
+					break;
+				case TEXT:
+					painter.drawCentredText(_ops[i + 1], _ops[i + 2], _ops[i + 3], _ops[i + 4], (String)_objects[objectIndex++]);
+					i += 5;
+					break;
+				}
+			}
+		}
+
+		public void drawRect(int x, int y, int width, int height) {
+			record(RECT, x, y, width, height);
+		}
+
+		public void drawOval(int x, int y, int width, int height) {
+			record(OVAL, x, y, width, height);
+		}
+
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			record(LINE, x1, y1, x2, y2);
+		}
+
+		public void drawHexagon(int x, int y, int width, int height) {
+			record(HEXAGON, x, y, width, height);
+		}
+
+		public void drawImage(Image img, int x, int y, int width, int height) {
+			record(img);
+			record(IMAGE, x, y, width, height);
+		}
+
+		public void fillRect(int x, int y, int width, int height) {
+			record(FILL_RECT, x, y, width, height);
+		}
+
+		public Color getColor() {
+			return _color;
+		}
+
+		public void setColor(Color color) {
+			_color = color;
+			record(color);
+			ensureOpCapacity(1);
+			_ops[_opCount++] = SET_COLOR;
+		}
+
+		public void translate(int x, int y) {
+			ensureOpCapacity(3);
+			_ops[_opCount++] = TRANSLATE;
+			_ops[_opCount++] = x;
+			_ops[_opCount++] = y;
+		}
+
+		public void drawCentredText(int shapeX, int shapeY, int shapeWidth, int shapeHeight, String text) {
+			record(text);
+			record(TEXT, shapeX, shapeY, shapeWidth, shapeHeight);
+		}
+
+		/*
+		 * Returns null: shapes are recorded whether or not they are visible,
+		 * and culled when the recording is replayed.
+		 */
+		public Rectangle getClipBounds() {
+			return null;
+		}
+
+		public FontMetrics getFontMetrics() {
+			return null;
+		}
+
+		public void shapesCulled(int count) {
+		}
+
+		private void record(int op, int a, int b, int c, int d) {
+			ensureOpCapacity(5);
+			_ops[_opCount++] = op;
+			_ops[_opCount++] = a;
+			_ops[_opCount++] = b;
+			_ops[_opCount++] = c;
+			_ops[_opCount++] = d;
+		}
+
+		private void record(Object object) {
+			if (_objectCount == _objects.length) {
+				_objects = Arrays.copyOf(_objects, _objects.length * 2);
+			}
+			_objects[_objectCount++] = object;
+		}
+
+		private void ensureOpCapacity(int required) {
+			if (_opCount + required > _ops.length) {
+				_ops = Arrays.copyOf(_ops, Math.max(_ops.length * 2, _opCount + required));
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package spaceshapes;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a ShapeModel from a dedicated simulation thread at a fixed timestep.
+ * A SimulationLoop calls clock() on its ShapeModel a fixed number of times per
+ * second, independently of how often views repaint. If the thread falls
+ * behind (e.g. because a tick took unusually long) it runs extra ticks to
+ * catch up, up to a limit beyond which the backlog is discarded.
+ *
+ * A SimulationLoop created with a tick rate of zero (or less) runs clock()
+ * as fast as possible, which is useful for headless simulation.
+ *
+ * Because ShapeModelListeners are notified on the simulation thread,
+ * listeners that update Swing components should hand events over to the
+ * Event Dispatch thread (see spaceshapes.views.EventDispatchAdapter).
+ *
+ * @author Dave Shin
+ */
+public class SimulationLoop {
+
+	// Maximum number of ticks run back-to-back to catch up after a stall.
+	private static final int MAX_CATCH_UP_TICKS = 5;
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private ShapeModel _model;
+
+	// Ticks per second; zero or less means as fast as possible.
+	private int _tickRate;
+
+	private Thread _thread;
+
+	private volatile boolean _running;
+
+	// Number of clock() calls completed.
+	private volatile long _tickCount;
+
+	/**
+	 * Creates a SimulationLoop that will clock model at the specified rate.
+	 * The loop does not run until start() is called.
+	 * @param model the ShapeModel to clock.
+	 * @param tickRate number of clock() calls per second, or zero to clock
+	 * the model as fast as possible.
+	 */
+	public SimulationLoop(ShapeModel model, int tickRate) {
+		_model = model;
+		_tickRate = tickRate;
+	}
+
+	/**
+	 * Starts the simulation thread. This method has no effect if the loop is
+	 * already running.
+	 */
+	public synchronized void start() {
+		if (_thread != null) {
+			return;
+		}
+		_running = true;
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				runLoop();
+			}
+		}, "SimulationLoop");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Stops the simulation thread, waiting for any tick in progress to
+	 * complete. This method has no effect if the loop is not running.
+	 */
+	public synchronized void stop() {
+		if (_thread == null) {
+			return;
+		}
+		_running = false;
+		LockSupport.unpark(_thread);
+		try {
+			_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_thread = null;
+	}
+
+	/**
+	 * Returns true if the simulation thread is running.
+	 */
+	public synchronized boolean isRunning() {
+		return _thread != null;
+	}
+
+	/**
+	 * Returns the number of ticks (clock() calls) completed since this
+	 * SimulationLoop was created.
+	 */
+	public long tickCount() {
+		return _tickCount;
+	}
+
+	/**
+	 * Returns the number of ticks per second, or zero if the model is clocked
+	 * as fast as possible.
+	 */
+	public int tickRate() {
+		return Math.max(_tickRate, 0);
+	}
+
+	/*
+	 * Body of the simulation thread.
+	 */
+	private void runLoop() {
+		if (_tickRate <= 0) {
+			while (_running) {
+				tick();
+			}
+			return;
+		}
+
+		long period = NANOS_PER_SECOND / _tickRate;
+		long nextTick = System.nanoTime();
+
+		while (_running) {
+			long now = System.nanoTime();
+			if (now < nextTick) {
+				LockSupport.parkNanos(nextTick - now);
+				continue;
+			}
+
+			// Run the ticks that are due, catching up if necessary.
+			int ticks = 0;
+			while (_running && now >= nextTick && ticks < MAX_CATCH_UP_TICKS) {
+				tick();
+				nextTick += period;
+				ticks++;
+			}
+
+			// Too far behind to catch up; discard the backlog.
+			if (now >= nextTick) {
+				nextTick = now + period;
+			}
+		}
+	}
+
+	/*
+	 * Runs a single tick.
+	 */
+	private void tick() {
+		_model.clock();
+		_tickCount++;
+	}
+}
@@ -0,0 +1,300 @@
+package spaceshapes;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid index over the shapes of a ShapeModel, used to find the shapes
+ * that cover a point or overlap a rectangle without visiting every shape. The
+ * grid covers the root CarrierShape and is divided into square cells; each
+ * cell lists the shapes whose bounds overlap it. Shapes that stray outside
+ * the root are listed in the nearest edge cells.
+ *
+ * Shape bounds are held in absolute coordinates, i.e. those of the root,
+ * taking into account the positions of all ancestor CarrierShapes. The
+ * bounds include the one pixel outline drawn along a shape's right and
+ * bottom edges.
+ *
+ * A SpatialIndex is maintained by the ShapeModel that owns it (see
+ * ShapeModel.setSpatialIndex()). Each tick, the model's composition
+ * is traversed once, accumulating parent offsets along the way, and a shape
+ * is only moved between cells when the range of cells it overlaps changes.
+ * Queries may be made on any thread; they return shapes in the order in
+ * which they are painted, so that the last shape returned appears on top.
+ *
+ * @author Dave Shin
+ *
+ */
+public class SpatialIndex {
+
+	/**
+	 * Default width and height of each grid cell.
+	 */
+	public static final int DEFAULT_CELL_SIZE = 64;
+
+	// Record of an indexed shape: its absolute bounds, the range of cells it
+	// overlaps, and its position in painting order.
+	private static class Entry {
+		Shape _shape;
+		int _left, _top, _right, _bottom;
+		int _firstColumn, _firstRow, _lastColumn, _lastRow;
+		int _order;
+
+		// Number of the last query to visit this entry; used to avoid
+		// reporting a shape listed in several cells more than once.
+		int _query;
+
+		Entry(Shape shape) {
+			_shape = shape;
+			_firstColumn = -1;
+		}
+
+		boolean contains(int x, int y) {
+			return x >= _left && x <= _right && y >= _top && y <= _bottom;
+		}
+
+		boolean intersects(int left, int top, int right, int bottom) {
+			return left <= _right && right >= _left && top <= _bottom && bottom >= _top;
+		}
+	}
+
+	private static final Comparator<Entry> PAINT_ORDER = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return Integer.compare(a._order, b._order);
+		}
+	};
+
+	private CarrierShape _root;
+	private int _cellSize;
+	private int _columns;
+	private int _rows;
+	private List<List<Entry>> _cells;
+	private Map<Shape, Entry> _entries = new IdentityHashMap<Shape, Entry>();
+
+	// Next painting order number, and number of queries made.
+	private int _order;
+	private int _query;
+
+	/**
+	 * Creates a SpatialIndex over root's composition, with cells of a
+	 * specified size.
+	 * @throws IllegalArgumentException if cellSize is less than one.
+	 */
+	SpatialIndex(CarrierShape root, int cellSize) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		_root = root;
+		_cellSize = cellSize;
+		_columns = Math.max(1, (root.width() + cellSize) / cellSize);
+		_rows = Math.max(1, (root.height() + cellSize) / cellSize);
+		_cells = new ArrayList<List<Entry>>(_columns * _rows);
+		for (int i = 0; i < _columns * _rows; i++) {
+			_cells.add(new ArrayList<Entry>());
+		}
+		update();
+	}
+
+	/**
+	 * Returns the shapes whose bounds contain the point (x, y), in painting
+	 * order.
+	 */
+	public synchronized List<Shape> shapesAt(int x, int y) {
+		List<Entry> matches = new ArrayList<Entry>();
+		for (Entry entry : _cells.get(row(y) * _columns + column(x))) {
+			if (entry.contains(x, y)) {
+				matches.add(entry);
+			}
+		}
+		return toShapes(matches);
+	}
+
+	/**
+	 * Returns the topmost shape whose bounds contain the point (x, y), or null
+	 * if there is none. The root contains every point within its bounds.
+	 */
+	public synchronized Shape shapeAt(int x, int y) {
+		Entry top = null;
+		for (Entry entry : _cells.get(row(y) * _columns + column(x))) {
+			if (entry.contains(x, y) && (top == null || entry._order > top._order)) {
+				top = entry;
+			}
+		}
+		return top == null ? null : top._shape;
+	}
+
+	/**
+	 * Returns the shapes whose bounds overlap region, in painting order.
+	 */
+	public synchronized List<Shape> shapesIn(Rectangle region) {
+		int left = region.x;
+		int top = region.y;
+		int right = region.x + region.width - 1;
+		int bottom = region.y + region.height - 1;
+
+		_query++;
+		List<Entry> matches = new ArrayList<Entry>();
+		for (int row = row(top); row <= row(bottom); row++) {
+			for (int column = column(left); column <= column(right); column++) {
+				for (Entry entry : _cells.get(row * _columns + column)) {
+					if (entry._query != _query && entry.intersects(left, top, right, bottom)) {
+						entry._query = _query;
+						matches.add(entry);
+					}
+				}
+			}
+		}
+		return toShapes(matches);
+	}
+
+	/**
+	 * Returns the bounds of shape in absolute coordinates, or null if shape
+	 * is not indexed.
+	 */
+	public synchronized Rectangle boundsOf(Shape shape) {
+		Entry entry = _entries.get(shape);
+		if (entry == null) {
+			return null;
+		}
+		return new Rectangle(entry._left, entry._top, entry._right - entry._left + 1, entry._bottom - entry._top + 1);
+	}
+
+	/**
+	 * Returns the number of shapes indexed.
+	 */
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	/*
+	 * Brings the index up to date with the composition, adding any shapes
+	 * that are not yet indexed and updating the bounds of those that are.
+	 */
+	synchronized void update() {
+		_order = 0;
+		update(_root, 0, 0);
+	}
+
+	/*
+	 * Adds shape and, if it's a CarrierShape, its descendants to the index,
+	 * provided shape's parent is indexed. Until the next update(), the new 
+	 * shapes are treated as being painted after all others.
+	 */
+	synchronized void add(Shape shape) {
+		if (!_entries.containsKey(shape.parent())) {
+			return;
+		}
+		int offsetX = 0;
+		int offsetY = 0;
+		for (CarrierShape parent = shape.parent(); parent != null; parent = parent.parent()) {
+			offsetX += parent.x();
+			offsetY += parent.y();
+		}
+		update(shape, offsetX, offsetY);
+	}
+
+	/*
+	 * Removes shape and, if it's a CarrierShape, its descendants from the
+	 * index.
+	 */
+	synchronized void remove(Shape shape) {
+		Entry entry = _entries.remove(shape);
+		if (entry != null) {
+			unlist(entry);
+		}
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				remove(carrier.shapeAt(i));
+			}
+		}
+	}
+
+	/*
+	 * Updates the entry for shape, whose parent's absolute position is
+	 * (offsetX, offsetY), followed by those of its descendants.
+	 */
+	private void update(Shape shape, int offsetX, int offsetY) {
+		Entry entry = _entries.get(shape);
+		if (entry == null) {
+			entry = new Entry(shape);
+			_entries.put(shape, entry);
+		}
+
+		int x = offsetX + shape.x();
+		int y = offsetY + shape.y();
+		entry._left = x;
+		entry._top = y;
+		entry._right = x + shape.width();
+		entry._bottom = y + shape.height();
+		entry._order = _order++;
+
+		int firstColumn = column(entry._left);
+		int firstRow = row(entry._top);
+		int lastColumn = column(entry._right);
+		int lastRow = row(entry._bottom);
+		if (firstColumn != entry._firstColumn || firstRow != entry._firstRow
+				|| lastColumn != entry._lastColumn || lastRow != entry._lastRow) {
+			unlist(entry);
+			entry._firstColumn = firstColumn;
+			entry._firstRow = firstRow;
+			entry._lastColumn = lastColumn;
+			entry._lastRow = lastRow;
+			for (int row = firstRow; row <= lastRow; row++) {
+				for (int column = firstColumn; column <= lastColumn; column++) {
+					_cells.get(row * _columns + column).add(entry);
+				}
+			}
+		}
+
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				update(carrier.shapeAt(i), x, y);
+			}
+		}
+	}
+
+	/*
+	 * Removes entry from the cells it is listed in.
+	 */
+	private void unlist(Entry entry) {
+		if (entry._firstColumn < 0) {
+			return;
+		}
+		for (int row = entry._firstRow; row <= entry._lastRow; row++) {
+			for (int column = entry._firstColumn; column <= entry._lastColumn; column++) {
+				List<Entry> cell = _cells.get(row * _columns + column);
+
+				// Order within a cell doesn't matter, so replace the entry
+				// with the cell's last entry rather than shifting.
+				int index = cell.indexOf(entry);
+				cell.set(index, cell.get(cell.size() - 1));
+				cell.remove(cell.size() - 1);
+			}
+		}
+		entry._firstColumn = -1;
+	}
+
+	private int column(int x) {
+		return Math.min(_columns - 1, Math.max(0, x / _cellSize));
+	}
+
+	private int row(int y) {
+		return Math.min(_rows - 1, Math.max(0, y / _cellSize));
+	}
+
+	private static List<Shape> toShapes(List<Entry> entries) {
+		Collections.sort(entries, PAINT_ORDER);
+		List<Shape> shapes = new ArrayList<Shape>(entries.size());
+		for (Entry entry : entries) {
+			shapes.add(entry._shape);
+		}
+		return shapes;
+	}
+}
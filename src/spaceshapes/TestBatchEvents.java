@@ -0,0 +1,142 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that changes made within a ShapeModel batch are delivered as
+ * a single Batch event, with child indices grouped by parent.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestBatchEvents {
+
+	private ShapeModel _model;
+	private CarrierShape _carrier;
+	private List<ShapeModelEvent> _events;
+
+	/**
+	 * Creates a ShapeModel holding one empty CarrierShape, with a listener 
+	 * that records the events fired.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_carrier = new CarrierShape(0, 0, 1, 1, 200, 200);
+		_model.add(_carrier, _model.root());
+
+		_events = new ArrayList<ShapeModelEvent>();
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				_events.add(event);
+			}
+		});
+	}
+
+	/**
+	 * Checks that shapes added within a batch are reported by one Batch 
+	 * event, grouping consecutive additions to the same parent.
+	 */
+	@Test
+	public void testAdditionsAreGroupedByParent() {
+		Shape[] shapes = new Shape[5];
+		_model.beginBatch();
+		for (int i = 0; i < 3; i++) {
+			shapes[i] = new RectangleShape(0, 0, 1, 1, 10, 10);
+			_model.add(shapes[i], _carrier);
+		}
+		for (int i = 3; i < 5; i++) {
+			shapes[i] = new RectangleShape(0, 0, 1, 1, 10, 10);
+			_model.add(shapes[i], _model.root());
+		}
+		assertEquals(0, _events.size());
+		_model.commitBatch();
+
+		assertEquals(1, _events.size());
+		ShapeModelEvent batch = _events.get(0);
+		assertSame(ShapeModelEvent.EventType.Batch, batch.eventType());
+		assertEquals(2, batch.events().size());
+
+		ShapeModelEvent first = batch.events().get(0);
+		assertSame(ShapeModelEvent.EventType.ShapeAdded, first.eventType());
+		assertSame(_carrier, first.parent());
+		assertArrayEquals(new int[] {0, 1, 2}, first.indices());
+		assertArrayEquals(new Shape[] {shapes[0], shapes[1], shapes[2]}, first.operands());
+
+		ShapeModelEvent second = batch.events().get(1);
+		assertSame(_model.root(), second.parent());
+		assertArrayEquals(new int[] {1, 2}, second.indices());
+	}
+
+	/**
+	 * Checks that the indices of removed shapes are reported as positions 
+	 * before removal, in ascending order, whether shapes are removed from 
+	 * the front or the back.
+	 */
+	@Test
+	public void testRemovalIndicesArePositionsBeforeRemoval() {
+		Shape[] shapes = new Shape[6];
+		for (int i = 0; i < shapes.length; i++) {
+			shapes[i] = new RectangleShape(0, 0, 1, 1, 10, 10);
+			_model.add(shapes[i], _carrier);
+		}
+		_events.clear();
+
+		// Remove shapes 1, 2 and 4 front to back, then 3 and 0 back to 
+		// front. The change of direction starts a new group.
+		_model.beginBatch();
+		_model.remove(shapes[1]);
+		_model.remove(shapes[2]);
+		_model.remove(shapes[4]);
+		_model.remove(shapes[3]);
+		_model.remove(shapes[0]);
+		_model.commitBatch();
+
+		List<ShapeModelEvent> groups = _events.get(0).events();
+		assertEquals(2, groups.size());
+		assertArrayEquals(new int[] {1, 2, 4}, groups.get(0).indices());
+		assertArrayEquals(new Shape[] {shapes[1], shapes[2], shapes[4]}, groups.get(0).operands());
+		assertArrayEquals(new int[] {0, 1}, groups.get(1).indices());
+		assertArrayEquals(new Shape[] {shapes[0], shapes[3]}, groups.get(1).operands());
+		assertEquals(1, _carrier.shapeCount());
+	}
+
+	/**
+	 * Checks that nested batches are delivered when the outermost batch is
+	 * committed, and that an empty batch fires nothing.
+	 */
+	@Test
+	public void testNestedAndEmptyBatches() {
+		_model.beginBatch();
+		_model.commitBatch();
+		assertEquals(0, _events.size());
+
+		_model.beginBatch();
+		_model.add(new OvalShape(0, 0, 1, 1, 10, 10), _carrier);
+		_model.beginBatch();
+		_model.add(new OvalShape(0, 0, 1, 1, 10, 10), _carrier);
+		_model.commitBatch();
+		assertEquals(0, _events.size());
+		_model.commitBatch();
+
+		assertEquals(1, _events.size());
+		assertEquals(2, _events.get(0).events().get(0).operandCount());
+	}
+
+	/**
+	 * Checks that commitBatch() without a matching beginBatch() fails.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testCommitWithoutBegin() {
+		_model.commitBatch();
+	}
+}
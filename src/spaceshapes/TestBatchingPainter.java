@@ -0,0 +1,74 @@
+package spaceshapes;
+
+import static spaceshapes.TestPixels.assertSamePixels;
+import static spaceshapes.TestPixels.paint;
+import static spaceshapes.TestPixels.paintBatched;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a BatchingPainter paints exactly the same pixels as a
+ * GraphicsPainter.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestBatchingPainter {
+
+	private ShapeModel _model;
+
+	/**
+	 * Creates a reference scene containing every kind of shape, with shapes
+	 * of different colours overlapping one another.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		CarrierShape root = _model.root();
+
+		_model.add(new RectangleShape(440, 0, 10, 10, 4, 2), root);
+		_model.add(new HexagonShape(20, 20, 4, 4, 200, 20, "Space-Shape"), root);
+		_model.add(new HexagonShape(60, 300, -3, 5, 30, 40), root);
+		_model.add(new DynamicShape(0, 0, 2, 3, 180, 130, "Changes Color", Color.CYAN), root);
+		_model.add(new DynamicShape(100, 100, -5, 2, 90, 70, Color.MAGENTA), root);
+		_model.add(new OvalShape(50, 110, 2, 2), root);
+
+		CarrierShape child = new CarrierShape(10, 10, 2, 2, 200, 150, "Carrier");
+		_model.add(new RectangleShape(10, 10, 10, 10, 4, 2), child);
+		_model.add(new DynamicShape(0, 0, 2, 3, 50, 80, Color.RED), child);
+		_model.add(new OvalShape(10, 10, 2, 2, 60, 60), child);
+		_model.add(child, root);
+		_model.add(new DynamicShape(0, 0, 0, 20, 35, 25), root);
+	}
+
+	/**
+	 * Checks that painting the scene with a BatchingPainter matches painting
+	 * it with a GraphicsPainter over many ticks, as shapes move over one
+	 * another and DynamicShapes change their fill state.
+	 */
+	@Test
+	public void testSamePixelsAsGraphicsPainter() {
+		for (int i = 0; i < 150; i++) {
+			_model.clock();
+			assertSamePixels(paint(_model, null, TestPixels.DEFAULTS), paintBatched(_model, null));
+		}
+	}
+
+	/**
+	 * Checks that a clipped BatchingPainter matches a clipped
+	 * GraphicsPainter.
+	 */
+	@Test
+	public void testSamePixelsWhenClipped() {
+		Rectangle clip = new Rectangle(30, 40, 150, 120);
+		for (int i = 0; i < 50; i++) {
+			_model.clock();
+			assertSamePixels(paint(_model, clip, TestPixels.DEFAULTS), paintBatched(_model, clip));
+		}
+	}
+}
@@ -7,7 +7,9 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -183,6 +185,45 @@ public class TestCarrierShape {
 		assertEquals(-1, _topLevelNest.indexOf(_bottomLevelNest));
 	}
 	
+	/**
+	 * Check that shapeAt, indexOf, contains and shapeCount stay consistent 
+	 * with the order in which shapes were added, as shapes are added to and
+	 * removed from arbitrary positions of a wide CarrierShape.
+	 */
+	@Test
+	public void testOrderIsStableUnderAddAndRemove() {
+		CarrierShape carrier = new CarrierShape(0, 0, 0, 0, 100, 100);
+		List<Shape> expected = new ArrayList<Shape>();
+		Random random = new Random(11);
+		for (int i = 0; i < 5000; i++) {
+			if (expected.isEmpty() || random.nextInt(3) > 0) {
+				Shape shape = new RectangleShape(0, 0, 1, 1, 5, 5);
+				carrier.add(shape);
+				expected.add(shape);
+			} else {
+				Shape shape = expected.remove(random.nextInt(expected.size()));
+				carrier.remove(shape);
+				assertFalse(carrier.contains(shape));
+				assertEquals(-1, carrier.indexOf(shape));
+			}
+			if (i % 50 == 0) {
+				carrier.move(500, 500);
+			}
+
+			assertEquals(expected.size(), carrier.shapeCount());
+			if (expected.isEmpty()) {
+				continue;
+			}
+			int probe = random.nextInt(expected.size());
+			assertSame(expected.get(probe), carrier.shapeAt(probe));
+			assertEquals(probe, carrier.indexOf(expected.get(probe)));
+			assertTrue(carrier.contains(expected.get(probe)));
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i), carrier.shapeAt(i));
+		}
+	}
+	
 	/**
 	 * Check that Shape's path method correctly returns the path from the root
 	 * CarrierShape object through to the Shape object that path is called on.
@@ -208,4 +249,34 @@ public class TestCarrierShape {
 		assertEquals(1, path.size());
 		assertSame(_topLevelNest, path.get(0));
 	}
+	
+	/**
+	 * Check that depth, ancestor and path reflect changes to the hierarchy
+	 * after a path has been cached, including changes to an ancestor.
+	 */
+	@Test
+	public void testDepthAndPathAfterReparenting() {
+		assertEquals(0, _topLevelNest.depth());
+		assertEquals(2, _simpleShape.depth());
+		assertSame(_midLevelNest, _simpleShape.ancestor(1));
+		List<Shape> before = _simpleShape.path();
+
+		// Move midLevelNest, and with it simpleShape, under a new root.
+		CarrierShape root = new CarrierShape(0, 0, 0, 0, 200, 200);
+		_topLevelNest.remove(_midLevelNest);
+		assertEquals(1, _simpleShape.depth());
+		assertSame(_midLevelNest, _simpleShape.ancestor(0));
+		root.add(_midLevelNest);
+
+		List<Shape> path = _simpleShape.path();
+		assertEquals(3, path.size());
+		assertSame(root, path.get(0));
+		assertSame(_midLevelNest, path.get(1));
+		assertSame(_simpleShape, path.get(2));
+		assertEquals(2, _bottomLevelNest.depth());
+		assertSame(root, _bottomLevelNest.ancestor(0));
+
+		// The earlier path is unaffected.
+		assertSame(_topLevelNest, before.get(0));
+	}
 }
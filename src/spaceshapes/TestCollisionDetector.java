@@ -0,0 +1,163 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a ShapeModel with collisions enabled makes colliding
+ * sibling shapes bounce apart, taking their outlines into account, and fires
+ * a ShapesCollided event for each colliding pair.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestCollisionDetector {
+
+	private ShapeModel _model;
+	private List<ShapeModelEvent> _collisions;
+
+	/**
+	 * Creates a ShapeModel with collisions enabled, and a listener that
+	 * records ShapesCollided events.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.setCollisionsEnabled(true);
+		_collisions = new ArrayList<ShapeModelEvent>();
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapesCollided) {
+					_collisions.add(event);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Checks that two shapes moving towards one another both reverse
+	 * direction when they collide.
+	 */
+	@Test
+	public void testHeadOnCollision() {
+		Shape left = new RectangleShape(10, 10, 5, 1, 20, 20);
+		Shape right = new RectangleShape(32, 10, -5, 1, 20, 20);
+		_model.add(left, _model.root());
+		_model.add(right, _model.root());
+
+		_model.clock();
+		assertEquals(-5, left.deltaX());
+		assertEquals(5, right.deltaX());
+		assertEquals(1, left.deltaY());
+		assertEquals(1, right.deltaY());
+
+		assertEquals(1, _collisions.size());
+		ShapeModelEvent event = _collisions.get(0);
+		assertSame(_model.root(), event.parent());
+		assertEquals(left == event.operand() ? right : left, event.other());
+
+		// The shapes now move apart, so they don't bounce again.
+		_model.clock();
+		assertEquals(-5, left.deltaX());
+		assertEquals(5, right.deltaX());
+	}
+
+	/**
+	 * Checks that the outlines of ovals and hexagons, rather than their
+	 * bounding boxes, determine whether they collide.
+	 */
+	@Test
+	public void testOutlines() {
+		_model.add(new OvalShape(100, 100, 0, 0, 40, 40), _model.root());
+		_model.add(new OvalShape(134, 134, 0, 0, 40, 40), _model.root());
+		_model.add(new HexagonShape(300, 100, 0, 0, 30, 30), _model.root());
+		_model.add(new HexagonShape(322, 122, 0, 0, 30, 30), _model.root());
+		_model.clock();
+		assertEquals(0, _collisions.size());
+
+		_model.add(new RectangleShape(100, 300, 0, 0, 40, 40), _model.root());
+		_model.add(new RectangleShape(134, 334, 0, 0, 40, 40), _model.root());
+		_model.clock();
+		assertEquals(1, _collisions.size());
+	}
+
+	/**
+	 * Checks that only siblings collide.
+	 */
+	@Test
+	public void testOnlySiblingsCollide() {
+		CarrierShape carrier = new CarrierShape(100, 100, 0, 0, 100, 100);
+		_model.add(carrier, _model.root());
+		_model.add(new RectangleShape(10, 10, 0, 0, 20, 20), carrier);
+		_model.add(new RectangleShape(115, 115, 0, 0, 20, 20), _model.root());
+		_model.clock();
+		assertEquals(1, _collisions.size());
+		ShapeModelEvent event = _collisions.get(0);
+		assertTrue(event.operand() == carrier || event.other() == carrier);
+	}
+
+	/**
+	 * Checks that collisions affect shapes identically in every clock mode.
+	 */
+	@Test
+	public void testCollisionsMatchAcrossClockModes() {
+		ShapeModel treeModel = createCrowdedModel();
+		ShapeModel arraysModel = createCrowdedModel();
+		arraysModel.setClockMode(ShapeModel.ClockMode.Arrays);
+		ShapeModel parallelModel = createCrowdedModel();
+		parallelModel.setClockMode(ShapeModel.ClockMode.Parallel);
+		parallelModel.setParallelThreshold(2);
+
+		for (int i = 0; i < 200; i++) {
+			treeModel.clock();
+			arraysModel.clock();
+			parallelModel.clock();
+			assertEquals(paint(treeModel), paint(arraysModel));
+			assertEquals(paint(treeModel), paint(parallelModel));
+		}
+	}
+
+	/*
+	 * Creates a ShapeModel with collisions enabled, crowded with shapes
+	 * of various kinds.
+	 */
+	private ShapeModel createCrowdedModel() {
+		ShapeModel model = new ShapeModel(new Dimension(400, 400));
+		model.setCollisionsEnabled(true);
+		Random random = new Random(7);
+		for (int i = 0; i < 60; i++) {
+			int x = random.nextInt(350);
+			int y = random.nextInt(350);
+			int deltaX = random.nextInt(11) - 5;
+			int deltaY = random.nextInt(11) - 5;
+			Shape shape;
+			switch (i % 3) {
+			case 0:
+				shape = new OvalShape(x, y, deltaX, deltaY, 30, 20);
+				break;
+			case 1:
+				shape = new HexagonShape(x, y, deltaX, deltaY, 45, 30);
+				break;
+			default:
+				shape = new RectangleShape(x, y, deltaX, deltaY, 25, 25);
+			}
+			model.add(shape, model.root());
+		}
+		return model;
+	}
+
+	private String paint(ShapeModel model) {
+		MockPainter painter = new MockPainter();
+		model.root().paint(painter);
+		return painter.toString();
+	}
+}
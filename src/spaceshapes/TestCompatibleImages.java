@@ -0,0 +1,89 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static spaceshapes.TestPixels.assertSamePixels;
+import static spaceshapes.TestPixels.paint;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that CompatibleImages makes copies of images in the pixel
+ * format of the device painted, reuses them, and that painting from them
+ * gives the same pixels as painting the images themselves.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestCompatibleImages {
+
+	private BufferedImage _sprite;
+	private GraphicsConfiguration _configuration;
+
+	/**
+	 * Creates a sprite in the format ImageIO reads JPEG files into, and finds
+	 * the GraphicsConfiguration of a TYPE_INT_RGB image.
+	 */
+	@Before
+	public void setUpSprite() {
+		_sprite = new BufferedImage(32, 24, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = _sprite.createGraphics();
+		g.setColor(Color.ORANGE);
+		g.fillOval(0, 0, 32, 24);
+		g.dispose();
+
+		g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		_configuration = g.getDeviceConfiguration();
+		g.dispose();
+	}
+
+	/**
+	 * Checks that a copy is made once per size, in the device's format, and
+	 * that copies of different sizes are kept together.
+	 */
+	@Test
+	public void testCopies() {
+		Image copy = CompatibleImages.compatible(_sprite, 32, 24, _configuration);
+		assertNotSame(_sprite, copy);
+		assertEquals(_configuration.getColorModel(), ((BufferedImage)copy).getColorModel());
+		assertSame(copy, CompatibleImages.compatible(_sprite, 32, 24, _configuration));
+
+		Image larger = CompatibleImages.compatible(_sprite, 64, 48, _configuration);
+		assertEquals(64, larger.getWidth(null));
+		assertEquals(48, larger.getHeight(null));
+
+		// Painting the image at either size reuses its copy for that size.
+		assertSame(copy, CompatibleImages.compatible(_sprite, 32, 24, _configuration));
+		assertSame(larger, CompatibleImages.compatible(_sprite, 64, 48, _configuration));
+
+		// An image that is already compatible isn't copied.
+		BufferedImage compatible = _configuration.createCompatibleImage(32, 24);
+		assertSame(compatible, CompatibleImages.compatible(compatible, 32, 24, _configuration));
+	}
+
+	/**
+	 * Checks that painting ImageRectangleShapes from copies gives the same
+	 * pixels as painting their images directly.
+	 */
+	@Test
+	public void testSamePixels() {
+		ShapeModel model = new ShapeModel(new Dimension(200, 200));
+		for (int i = 0; i < 5; i++) {
+			model.add(new ImageRectangleShape(3 + i, 7 - i, _sprite), model.root());
+		}
+		for (int tick = 0; tick < 20; tick++) {
+			model.clock();
+			assertSamePixels(paint(model, null, TestPixels.CACHED_TEXT), 
+					paint(model, null, TestPixels.CACHED_TEXT | TestPixels.COMPATIBLE_IMAGES));
+		}
+	}
+}
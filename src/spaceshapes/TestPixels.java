@@ -0,0 +1,88 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Helper for tests that check that different ways of painting a ShapeModel
+ * give the same pixels. It isn't a test class itself, so it isn't listed in
+ * TestAll.
+ *
+ * @author Dave Shin
+ *
+ */
+final class TestPixels {
+
+	// Flags selecting the GraphicsPainter settings used by paint().
+	static final int CACHED_TEXT = 1;
+	static final int GLYPH_IMAGES = 2;
+	static final int COMPATIBLE_IMAGES = 4;
+	static final int ANTIALIASED_TEXT = 8;
+
+	// GraphicsPainter's default settings.
+	static final int DEFAULTS = CACHED_TEXT | GLYPH_IMAGES | COMPATIBLE_IMAGES;
+
+	private TestPixels() {
+	}
+
+	/**
+	 * Paints model with a GraphicsPainter, configured by flags, into a new
+	 * TYPE_INT_RGB image the size of the model's bounds, with an optional
+	 * clip.
+	 */
+	static BufferedImage paint(ShapeModel model, Rectangle clip, int flags) {
+		BufferedImage image = newImage(model);
+		Graphics2D g = image.createGraphics();
+		if (clip != null) {
+			g.setClip(clip);
+		}
+		if ((flags & ANTIALIASED_TEXT) != 0) {
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		}
+		GraphicsPainter painter = new GraphicsPainter(g);
+		painter.setCachedText((flags & CACHED_TEXT) != 0);
+		painter.setGlyphImages((flags & GLYPH_IMAGES) != 0);
+		painter.setCompatibleImages((flags & COMPATIBLE_IMAGES) != 0);
+		model.root().paint(painter);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Paints model with a BatchingPainter into a new TYPE_INT_RGB image the
+	 * size of the model's bounds, with an optional clip.
+	 */
+	static BufferedImage paintBatched(ShapeModel model, Rectangle clip) {
+		BufferedImage image = newImage(model);
+		BatchingPainter painter = new BatchingPainter(image, clip);
+		model.root().paint(painter);
+		painter.dispose();
+		return image;
+	}
+
+	/**
+	 * Checks that the two images hold the same pixels.
+	 */
+	static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		assertSamePixels(expected, actual, new Rectangle(0, 0, expected.getWidth(), expected.getHeight()));
+	}
+
+	/**
+	 * Checks that the two images hold the same pixels within clip.
+	 */
+	static void assertSamePixels(BufferedImage expected, BufferedImage actual, Rectangle clip) {
+		for (int y = clip.y; y < clip.y + clip.height; y++) {
+			for (int x = clip.x; x < clip.x + clip.width; x++) {
+				assertEquals("Pixel (" + x + ", " + y + ")", expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	private static BufferedImage newImage(ShapeModel model) {
+		return new BufferedImage(model.bounds().width, model.bounds().height, BufferedImage.TYPE_INT_RGB);
+	}
+}
@@ -0,0 +1,180 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a listener registered for asynchronous notification 
+ * receives events in order, with moves coalesced, overflowing collisions
+ * dropped and other overflowing events collapsed into a resync.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestQueuedListener {
+
+	private ShapeModel _model;
+	private List<ShapeModelEvent> _received;
+	private List<Runnable> _tasks;
+	private QueuedListener _queued;
+
+	/**
+	 * Registers a recording listener on a ShapeModel, with an Executor that 
+	 * only runs tasks when runTasks() is called.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_received = new ArrayList<ShapeModelEvent>();
+		_tasks = new ArrayList<Runnable>();
+		_queued = _model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				_received.add(event);
+			}
+		}, new Executor() {
+			public void execute(Runnable task) {
+				_tasks.add(task);
+			}
+		}, 3);
+	}
+
+	/**
+	 * Checks that queued ShapeMoved events are coalesced into the latest, 
+	 * which is delivered after the events fired before it.
+	 */
+	@Test
+	public void testMovesAreCoalesced() {
+		Shape shape = new RectangleShape(0, 0, 1, 1, 10, 10);
+		_model.clock();
+		_model.add(shape, _model.root());
+		_model.clock();
+		_model.clock();
+		assertEquals(0, _received.size());
+		assertEquals(2, _queued.queuedCount());
+		assertEquals(1, _tasks.size());
+
+		runTasks();
+		assertEquals(2, _received.size());
+		assertSame(ShapeModelEvent.EventType.ShapeAdded, _received.get(0).eventType());
+		assertSame(ShapeModelEvent.EventType.ShapeMoved, _received.get(1).eventType());
+		assertEquals(2, _queued.coalescedCount());
+		assertEquals(2, _queued.deliveredCount());
+		assertTrue(_queued.maxLagNanos() >= _queued.lastLagNanos());
+	}
+
+	/**
+	 * Checks that collisions fired while the queue is full are dropped and 
+	 * counted, and that moves are still queued.
+	 */
+	@Test
+	public void testOverflowingCollisionsAreDropped() {
+		for (int i = 0; i < 3; i++) {
+			_model.add(new RectangleShape(100, 100, 1, 1, 10, 10), _model.root());
+		}
+		_model.setCollisionsEnabled(true);
+		_model.clock();
+		assertTrue(_queued.droppedCount() > 0);
+		assertEquals(4, _queued.queuedCount());
+
+		runTasks();
+		assertEquals(4, _received.size());
+		for (int i = 0; i < 3; i++) {
+			assertSame(ShapeModelEvent.EventType.ShapeAdded, _received.get(i).eventType());
+			assertEquals(i, _received.get(i).index());
+		}
+		assertSame(ShapeModelEvent.EventType.ShapeMoved, _received.get(3).eventType());
+	}
+
+	/**
+	 * Checks that structural events fired while the queue is full are 
+	 * collapsed, with those queued, into a single Resync event, so the 
+	 * queue stays bounded, and that events are queued individually again 
+	 * once the Resync event has been delivered.
+	 */
+	@Test
+	public void testOverflowingChangesAreCollapsedIntoResync() {
+		Shape[] shapes = new Shape[100];
+		for (int i = 0; i < shapes.length; i++) {
+			shapes[i] = new RectangleShape(100, 100, 1, 1, 10, 10);
+			_model.add(shapes[i], _model.root());
+			assertTrue(_queued.queuedCount() <= 3);
+		}
+		_model.clock();
+		_model.remove(shapes[1]);
+		assertEquals(2, _queued.queuedCount());
+		assertEquals(101, _queued.droppedCount());
+
+		runTasks();
+		assertEquals(2, _received.size());
+		assertSame(ShapeModelEvent.EventType.Resync, _received.get(0).eventType());
+		assertSame(_model.root(), _received.get(0).operand());
+		assertSame(ShapeModelEvent.EventType.ShapeMoved, _received.get(1).eventType());
+
+		_model.remove(shapes[2]);
+		runTasks();
+		assertEquals(3, _received.size());
+		assertSame(ShapeModelEvent.EventType.ShapeRemoved, _received.get(2).eventType());
+		assertSame(shapes[2], _received.get(2).operand());
+	}
+
+	/**
+	 * Checks that removing the delegate listener removes the QueuedListener.
+	 */
+	@Test
+	public void testRemoveByDelegate() {
+		_model.removeShapeModelListener(_queued.delegate());
+		_model.clock();
+		assertEquals(0, _queued.queuedCount());
+		assertEquals(0, _tasks.size());
+	}
+
+	/**
+	 * Checks that a listener that blocks doesn't hold up clock().
+	 */
+	@Test
+	public void testSlowListenerDoesNotBlockClock() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		QueuedListener slow = _model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, executor, 10);
+
+		for (int i = 0; i < 1000; i++) {
+			_model.clock();
+		}
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(slow.deliveredCount() <= 2);
+		assertEquals(1000, slow.deliveredCount() + slow.coalescedCount());
+	}
+
+	/*
+	 * Runs the tasks submitted to the Executor, including any submitted 
+	 * while doing so.
+	 */
+	private void runTasks() {
+		while (!_tasks.isEmpty()) {
+			_tasks.remove(0).run();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spaceshapes.forms.ImageCache;
+import spaceshapes.forms.ImageDecoder;
+
+/**
+ * Class to test that SceneFile saves and loads every kind of shape, and that
+ * scenes can be loaded lazily.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestSceneFile {
+
+	private ShapeModel _model;
+	private CarrierShape _carrier;
+	private File _imageFile;
+	private Path _sceneFile;
+
+	/**
+	 * Creates a ShapeModel holding one shape of each kind, and the files
+	 * used by the tests.
+	 */
+	@Before
+	public void setUpModel() throws IOException {
+		_imageFile = File.createTempFile("scene", ".png");
+		ImageIO.write(new BufferedImage(12, 8, BufferedImage.TYPE_INT_RGB), "png", _imageFile);
+		_sceneFile = Files.createTempFile("scene", ".bin");
+
+		_model = new ShapeModel(new Dimension(500, 500));
+		_carrier = new CarrierShape(10, 10, 2, 3, 200, 200, "Carrier \u00e9");
+		_model.add(_carrier, _model.root());
+		_model.add(new RectangleShape(1, 2, 3, 4, 5, 6), _carrier);
+		_model.add(new OvalShape(5, 5, 4, -3, 30, 20, "Oval"), _carrier);
+		_model.add(new HexagonShape(7, 8, -1, -2, 40, 30), _model.root());
+		_model.add(new DynamicShape(0, 0, 7, 5, 50, 50, new Color(10, 20, 30, 40)), _model.root());
+		ImageRectangleShape image = new ImageRectangleShape(1, 1, ImageIO.read(_imageFile), _imageFile.getPath());
+		_model.add(image, _model.root());
+		_model.add(new CarrierShape(0, 0, 1, 1, 10, 10), _model.root());
+	}
+
+	@After
+	public void deleteFiles() {
+		_imageFile.delete();
+		_sceneFile.toFile().delete();
+	}
+
+	/**
+	 * Checks that a loaded scene matches the saved one shape for shape.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		// Move the shapes so that the DynamicShape changes state.
+		for (int i = 0; i < 100; i++) {
+			_model.clock();
+		}
+		SceneFile.write(_model.root(), _sceneFile);
+
+		SceneFile file = SceneFile.open(_sceneFile);
+		assertEquals(8, file.shapeCount());
+		assertSameTree(_model.root(), file.load());
+	}
+
+	/**
+	 * Checks that Entries can be walked without loading the shapes, and that
+	 * loading into a ShapeModel notifies listeners once.
+	 */
+	@Test
+	public void testLazyLoading() throws IOException {
+		SceneFile.write(_model.root(), _sceneFile);
+		SceneFile file = SceneFile.open(_sceneFile);
+
+		SceneFile.Entry root = file.root();
+		assertTrue(root.isCarrier());
+		assertEquals(5, root.childCount());
+		SceneFile.Entry carrier = root.firstChild();
+		assertEquals(2, carrier.childCount());
+		SceneFile.Entry hexagon = carrier.nextSibling();
+		assertFalse(hexagon.isCarrier());
+		assertNull(hexagon.firstChild());
+		assertSameShape(_model.root().shapeAt(1), hexagon.shape());
+		assertNull(carrier.firstChild().nextSibling().nextSibling());
+		SceneFile.Entry empty = hexagon.nextSibling().nextSibling().nextSibling();
+		assertTrue(empty.isCarrier());
+		assertNull(empty.firstChild());
+		assertNull(empty.nextSibling());
+
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		final int[] events = new int[1];
+		model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				assertSame(ShapeModelEvent.EventType.Batch, event.eventType());
+				events[0]++;
+			}
+		});
+		file.load(model);
+		assertEquals(1, events[0]);
+		assertSameTree(_model.root(), model.root());
+	}
+
+	/**
+	 * Checks that an ImageRectangleShape displaying a scaled image is loaded
+	 * with its image read at the shape's width, not at full size.
+	 */
+	@Test
+	public void testImagesLoadedAtShapeWidth() throws IOException {
+		File largeImageFile = File.createTempFile("scene", ".png");
+		try {
+			ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), "png", largeImageFile);
+			BufferedImage scaled = new BufferedImage(50, 25, BufferedImage.TYPE_INT_RGB);
+			CarrierShape root = new CarrierShape(0, 0, 0, 0, 500, 500);
+			root.add(new ImageRectangleShape(1, 1, scaled, largeImageFile.getPath()));
+			SceneFile.write(root, _sceneFile);
+
+			Shape loaded = SceneFile.open(_sceneFile).load().shapeAt(0);
+			assertEquals(50, loaded.width());
+			assertEquals(25, loaded.height());
+			ImageDecoder.Decoded decoded = ImageCache.shared().lastDecoded();
+			assertEquals(200, decoded.sourceWidth());
+			assertEquals(50, decoded.image().getWidth());
+		} finally {
+			largeImageFile.delete();
+		}
+	}
+
+	/**
+	 * Checks that shapes that can't be saved, and files that aren't scene
+	 * files, are rejected.
+	 */
+	@Test
+	public void testInvalidScenes() throws IOException {
+		_model.add(new ImageRectangleShape(1, 1, ImageIO.read(_imageFile)), _model.root());
+		try {
+			SceneFile.write(_model.root(), _sceneFile);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected: the image's source isn't known.
+		}
+
+		Files.write(_sceneFile, new byte[100]);
+		try {
+			SceneFile.open(_sceneFile);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	private void assertSameTree(Shape expected, Shape actual) {
+		assertSameShape(expected, actual);
+		if (expected instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)expected;
+			assertEquals(carrier.shapeCount(), ((CarrierShape)actual).shapeCount());
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				assertSameTree(carrier.shapeAt(i), ((CarrierShape)actual).shapeAt(i));
+			}
+		}
+	}
+
+	private void assertSameShape(Shape expected, Shape actual) {
+		assertSame(expected.getClass(), actual.getClass());
+		assertEquals(expected.x(), actual.x());
+		assertEquals(expected.y(), actual.y());
+		assertEquals(expected.deltaX(), actual.deltaX());
+		assertEquals(expected.deltaY(), actual.deltaY());
+		assertEquals(expected.width(), actual.width());
+		assertEquals(expected.height(), actual.height());
+		assertEquals(expected.text(), actual.text());
+		if (expected instanceof DynamicShape) {
+			assertEquals(((DynamicShape)expected).color(), ((DynamicShape)actual).color());
+			assertEquals(((DynamicShape)expected).isFilled(), ((DynamicShape)actual).isFilled());
+		}
+		if (expected instanceof ImageRectangleShape) {
+			assertEquals(((ImageRectangleShape)expected).source(), ((ImageRectangleShape)actual).source());
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that the different ShapeModel clock modes move shapes in
+ * exactly the same way.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestShapeModel {
+
+	private ShapeModel _treeModel;
+	private ShapeModel _arraysModel;
+
+	/**
+	 * Creates two identical ShapeModels, one clocked by moving the tree and
+	 * the other by moving the array representation.
+	 */
+	@Before
+	public void setUpModels() {
+		_treeModel = createModel();
+		_arraysModel = createModel();
+		_arraysModel.setClockMode(ShapeModel.ClockMode.Arrays);
+	}
+
+	/**
+	 * Checks that ClockMode.Arrays produces the same positions, velocities and
+	 * fill states as ClockMode.Tree over many ticks.
+	 */
+	@Test
+	public void testArraysModeMatchesTreeMode() {
+		for (int i = 0; i < 500; i++) {
+			_treeModel.clock();
+			_arraysModel.clock();
+			assertEquals(paint(_treeModel), paint(_arraysModel));
+		}
+	}
+
+	/**
+	 * Checks that ClockMode.Arrays picks up shapes added and removed between
+	 * ticks, and that switching back to ClockMode.Tree preserves shape state.
+	 */
+	@Test
+	public void testArraysModeWithStructuralChanges() {
+		for (int i = 0; i < 50; i++) {
+			_treeModel.clock();
+			_arraysModel.clock();
+		}
+
+		_treeModel.remove(_treeModel.root().shapeAt(0));
+		_arraysModel.remove(_arraysModel.root().shapeAt(0));
+		_treeModel.add(new DynamicShape(7, 9, 6, -4, 30, 30, Color.GREEN), _treeModel.root());
+		_arraysModel.add(new DynamicShape(7, 9, 6, -4, 30, 30, Color.GREEN), _arraysModel.root());
+
+		for (int i = 0; i < 50; i++) {
+			_treeModel.clock();
+			_arraysModel.clock();
+			assertEquals(paint(_treeModel), paint(_arraysModel));
+		}
+
+		_arraysModel.setClockMode(ShapeModel.ClockMode.Tree);
+		for (int i = 0; i < 50; i++) {
+			_treeModel.clock();
+			_arraysModel.clock();
+		}
+		assertEquals(paint(_treeModel), paint(_arraysModel));
+	}
+
+	/**
+	 * Checks that ClockMode.Parallel produces the same state as ClockMode.Tree
+	 * when the composition is large enough to be split across threads.
+	 */
+	@Test
+	public void testParallelModeMatchesTreeMode() {
+		ShapeModel parallelModel = createModel();
+		parallelModel.setClockMode(ShapeModel.ClockMode.Parallel);
+		parallelModel.setParallelThreshold(2);
+		
+		for (int i = 0; i < 500; i++) {
+			_treeModel.clock();
+			parallelModel.clock();
+			assertEquals(paint(_treeModel), paint(parallelModel));
+		}
+	}
+
+	/**
+	 * Checks that advance() leaves shapes in the same state as the same 
+	 * number of clock() calls.
+	 */
+	@Test
+	public void testAdvanceMatchesClock() {
+		for (long ticks : new long[] {1, 2, 3, 17, 100, 499, 1234}) {
+			ShapeModel advanced = createModel();
+			ShapeModel clocked = createModel();
+			advanced.advance(ticks);
+			for (long i = 0; i < ticks; i++) {
+				clocked.clock();
+			}
+			assertEquals(state(clocked), state(advanced));
+		}
+
+		// Advancing in steps, e.g. from Arrays mode, makes no difference.
+		for (int i = 0; i < 40; i++) {
+			_treeModel.clock();
+		}
+		_arraysModel.clock();
+		_arraysModel.advance(38);
+		_arraysModel.clock();
+		assertEquals(state(_treeModel), state(_arraysModel));
+	}
+
+	/**
+	 * Checks that advance() handles shapes that start out of bounds, don't 
+	 * move, fill their parent or move faster than their parent is wide, and
+	 * shapes, including CarrierShapes, whose movement can only be calculated
+	 * tick by tick.
+	 */
+	@Test
+	public void testAdvanceEdgeCases() {
+		for (int seed = 0; seed < 20; seed++) {
+			for (long ticks : new long[] {1, 2, 5, 64, 301}) {
+				ShapeModel advanced = createRandomModel(seed);
+				ShapeModel clocked = createRandomModel(seed);
+				advanced.advance(ticks);
+				for (long i = 0; i < ticks; i++) {
+					clocked.clock();
+				}
+				assertEquals(state(clocked), state(advanced));
+			}
+		}
+	}
+
+	/*
+	 * Creates a ShapeModel of randomly placed shapes, many of which start 
+	 * out of bounds or have awkward sizes and speeds.
+	 */
+	private ShapeModel createRandomModel(int seed) {
+		Random random = new Random(seed);
+		ShapeModel model = new ShapeModel(new Dimension(100, 80));
+		int carrierX = random.nextInt(120) - 10;
+		int carrierY = random.nextInt(100) - 10;
+		int carrierDeltaX = random.nextInt(7) - 3;
+		int carrierDeltaY = random.nextInt(7) - 3;
+		CarrierShape carrier;
+		if (seed % 2 == 0) {
+			carrier = new CarrierShape(carrierX, carrierY, carrierDeltaX, carrierDeltaY, 40, 30);
+		} else {
+			// A CarrierShape whose movement, and its children's, advance()
+			// can't calculate.
+			carrier = new CarrierShape(carrierX, carrierY, carrierDeltaX, carrierDeltaY, 40, 30) {
+				@Override
+				public void move(int boundsWidth, int boundsHeight) {
+					super.move(boundsWidth, boundsHeight);
+				}
+			};
+		}
+		model.add(carrier, model.root());
+		for (int i = 0; i < 30; i++) {
+			CarrierShape parent = i % 2 == 0 ? model.root() : carrier;
+			int width = random.nextInt(4) == 0 ? parent.width() : 1 + random.nextInt(parent.width());
+			int height = random.nextInt(4) == 0 ? parent.height() : 1 + random.nextInt(parent.height());
+			int x = random.nextInt(parent.width() + 40) - 20;
+			int y = random.nextInt(parent.height() + 40) - 20;
+			int deltaX = random.nextInt(5) == 0 ? 0 : random.nextInt(121) - 60;
+			int deltaY = random.nextInt(5) == 0 ? 0 : random.nextInt(121) - 60;
+			Shape shape;
+			switch (i % 3) {
+			case 0:
+				shape = new DynamicShape(x, y, deltaX, deltaY, width, height, Color.RED);
+				break;
+			case 1:
+				shape = new OvalShape(x, y, deltaX, deltaY, width, height);
+				break;
+			default:
+				// A shape whose movement advance() can't calculate.
+				shape = new RectangleShape(x, y, deltaX, deltaY, width, height) {
+					@Override
+					public void move(int boundsWidth, int boundsHeight) {
+						super.move(boundsWidth, boundsHeight);
+						_deltaX = _deltaX / 2 * 2 + 1;
+					}
+				};
+				break;
+			}
+			model.add(shape, parent);
+		}
+		return model;
+	}
+
+	/*
+	 * Returns a description of the model's state: as painted, together with
+	 * every shape's deltas.
+	 */
+	private String state(ShapeModel model) {
+		StringBuilder state = new StringBuilder(paint(model));
+		appendDeltas(model.root(), state);
+		return state.toString();
+	}
+
+	private void appendDeltas(Shape shape, StringBuilder state) {
+		state.append(shape.deltaX()).append(',').append(shape.deltaY()).append(' ');
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				appendDeltas(carrier.shapeAt(i), state);
+			}
+		}
+	}
+
+	/*
+	 * Creates a ShapeModel containing a nested composition of shapes,
+	 * including DynamicShapes that will repeatedly change their fill state.
+	 */
+	private ShapeModel createModel() {
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		CarrierShape root = model.root();
+
+		model.add(new RectangleShape(440, 0, 10, 10, 4, 2), root);
+		model.add(new HexagonShape(20, 20, 4, 4, 200, 20, "Space-Shape"), root);
+		model.add(new DynamicShape(0, 0, 2, 3, 180, 130, "Changes Color", Color.CYAN), root);
+		model.add(new OvalShape(50, 110, -7, 2), root);
+
+		CarrierShape outer = new CarrierShape(10, 10, 2, 2, 200, 150);
+		CarrierShape inner = new CarrierShape(5, 5, -3, 1, 80, 70);
+		model.add(outer, root);
+		model.add(new RectangleShape(10, 10, 10, 10, 4, 2), outer);
+		model.add(new DynamicShape(0, 0, 2, 3, 50, 80, Color.RED), outer);
+		model.add(inner, outer);
+		model.add(new DynamicShape(3, 4, 11, -5, 20, 20, Color.BLUE), inner);
+		model.add(new OvalShape(10, 10, 2, 9, 60, 60), inner);
+		model.add(new DynamicShape(0, 0, 0, 20, 35, 25), root);
+		return model;
+	}
+
+	/*
+	 * Returns a textual description of the model's state, as logged by a
+	 * MockPainter.
+	 */
+	private String paint(ShapeModel model) {
+		MockPainter painter = new MockPainter();
+		model.root().paint(painter);
+		return painter.toString();
+	}
+}
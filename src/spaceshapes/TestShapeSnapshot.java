@@ -0,0 +1,185 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that ShapeModel publishes ShapeSnapshots that faithfully
+ * record the model's state, and that snapshots are recycled.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestShapeSnapshot {
+
+	private ShapeModel _model;
+	private CarrierShape _carrier;
+	private Shape _oval;
+
+	/**
+	 * Creates a ShapeModel with snapshots enabled and a small nested
+	 * composition.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.setSnapshotsEnabled(true);
+
+		_carrier = new CarrierShape(10, 10, 2, 3, 200, 200, "Carrier");
+		_oval = new OvalShape(5, 5, 4, -3, 30, 20, "Oval");
+		_model.add(new DynamicShape(0, 0, 7, 5, 50, 50, Color.RED), _model.root());
+		_model.add(_carrier, _model.root());
+		_model.add(new RectangleShape(1, 2, 3, 4), _carrier);
+		_model.add(_oval, _carrier);
+	}
+
+	/**
+	 * Checks that a snapshot records the structure and state of the model.
+	 */
+	@Test
+	public void testSnapshotRecordsState() {
+		_model.clock();
+		ShapeSnapshot snapshot = _model.acquireSnapshot();
+
+		assertEquals(5, snapshot.shapeCount());
+		assertEquals(1, snapshot.tick());
+		assertSame(_model.root(), snapshot.shape(0));
+		assertEquals(2, snapshot.childCount(0));
+
+		int carrier = snapshot.indexOf(_carrier);
+		assertEquals(1, snapshot.childIndex(carrier));
+		assertEquals(2, snapshot.childCount(carrier));
+
+		int oval = snapshot.child(carrier, 1);
+		assertSame(_oval, snapshot.shape(oval));
+		assertEquals(oval, snapshot.indexOf(_oval));
+		assertEquals(carrier, snapshot.parent(oval));
+		assertEquals(_oval.x(), snapshot.x(oval));
+		assertEquals(_oval.y(), snapshot.y(oval));
+		assertEquals(_oval.deltaX(), snapshot.deltaX(oval));
+		assertEquals(_oval.deltaY(), snapshot.deltaY(oval));
+		assertEquals("Oval", snapshot.text(oval));
+
+		assertEquals(-1, snapshot.indexOf(new RectangleShape()));
+		snapshot.release();
+	}
+
+	/**
+	 * Checks that painting a snapshot is equivalent to painting the model,
+	 * and that a snapshot held by a reader is unaffected by later ticks.
+	 */
+	@Test
+	public void testSnapshotPainting() {
+		_model.clock();
+		ShapeSnapshot held = _model.acquireSnapshot();
+		String expected = paintModel();
+
+		for (int i = 0; i < 100; i++) {
+			_model.clock();
+			ShapeSnapshot snapshot = _model.acquireSnapshot();
+			assertNotSame(held, snapshot);
+			assertEquals(paintModel(), paintSnapshot(snapshot));
+			snapshot.release();
+		}
+
+		assertEquals(expected, paintSnapshot(held));
+		held.release();
+	}
+
+	/**
+	 * Checks that, once readers release their snapshots, ticks reuse a small
+	 * number of snapshot objects.
+	 */
+	@Test
+	public void testSnapshotsAreRecycled() {
+		Set<ShapeSnapshot> snapshots = Collections.newSetFromMap(new IdentityHashMap<ShapeSnapshot, Boolean>());
+		for (int i = 0; i < 100; i++) {
+			_model.clock();
+			ShapeSnapshot snapshot = _model.acquireSnapshot();
+			snapshots.add(snapshot);
+			snapshot.release();
+		}
+		assertTrue(snapshots.size() <= 2);
+	}
+
+	/**
+	 * Checks that a snapshot records absolute positions that account for the
+	 * positions of ancestors.
+	 */
+	@Test
+	public void testAbsolutePositions() {
+		ShapeSnapshot snapshot = _model.acquireSnapshot();
+		int oval = snapshot.indexOf(_oval);
+		assertEquals(_carrier.x() + _oval.x(), snapshot.absoluteX(oval));
+		assertEquals(_carrier.y() + _oval.y(), snapshot.absoluteY(oval));
+		snapshot.release();
+	}
+	
+	/**
+	 * Checks that the dirty region tracked by a ShapeModel covers the 
+	 * previous and current bounds of moved shapes, but not stationary ones.
+	 */
+	@Test
+	public void testDirtyRegion() {
+		FontMetrics metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).getGraphics().getFontMetrics();
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		model.setSnapshotsEnabled(true);
+		model.setDirtyRegionTracking(metrics);
+		CarrierShape carrier = new CarrierShape(100, 100, 0, 0, 200, 200);
+		Shape moving = new RectangleShape(10, 20, 3, 4, 25, 35);
+		model.add(carrier, model.root());
+		model.add(new RectangleShape(400, 400, 0, 0, 50, 50), model.root());
+		model.add(moving, carrier);
+		
+		// Structural changes dirty every shape.
+		Rectangle region = new Rectangle();
+		assertTrue(model.takeDirtyRegion(region));
+		assertEquals(new Rectangle(0, 0, 501, 501), region);
+		assertFalse(model.takeDirtyRegion(region));
+		
+		model.clock();
+		assertTrue(model.takeDirtyRegion(region));
+		assertEquals(new Rectangle(110, 120, 29, 40), region);
+		
+		model.setDirtyRegionTracking(null);
+		model.clock();
+		assertFalse(model.takeDirtyRegion(region));
+	}
+	
+	/**
+	 * Checks that no snapshot is available once snapshots are disabled.
+	 */
+	@Test
+	public void testDisableSnapshots() {
+		_model.setSnapshotsEnabled(false);
+		assertNull(_model.acquireSnapshot());
+	}
+
+	private String paintModel() {
+		MockPainter painter = new MockPainter();
+		_model.root().paint(painter);
+		return painter.toString();
+	}
+
+	private String paintSnapshot(ShapeSnapshot snapshot) {
+		MockPainter painter = new MockPainter();
+		snapshot.paint(painter);
+		return painter.toString();
+	}
+}
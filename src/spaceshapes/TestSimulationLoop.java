@@ -0,0 +1,78 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a SimulationLoop clocks its ShapeModel on a separate
+ * thread and stops cleanly.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestSimulationLoop {
+
+	private ShapeModel _model;
+	private int _eventCount;
+
+	/**
+	 * Creates a ShapeModel with a single shape, and a listener that counts
+	 * ShapeMoved events.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.add(new RectangleShape(10, 10, 3, 4), _model.root());
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapeMoved) {
+					_eventCount++;
+				}
+			}
+		});
+		_eventCount = 0;
+	}
+
+	/**
+	 * Checks that a SimulationLoop running at maximum rate clocks the model,
+	 * and that no ticks occur once it has been stopped.
+	 */
+	@Test
+	public void testMaximumRate() throws InterruptedException {
+		SimulationLoop loop = new SimulationLoop(_model, 0);
+		loop.start();
+		assertTrue(loop.isRunning());
+		Thread.sleep(50);
+		loop.stop();
+		assertFalse(loop.isRunning());
+
+		long ticks = loop.tickCount();
+		assertTrue(ticks > 0);
+		assertEquals(ticks, _eventCount);
+
+		Thread.sleep(20);
+		assertEquals(ticks, loop.tickCount());
+	}
+
+	/**
+	 * Checks that a SimulationLoop with a fixed tick rate clocks the model at
+	 * approximately that rate.
+	 */
+	@Test
+	public void testFixedRate() throws InterruptedException {
+		SimulationLoop loop = new SimulationLoop(_model, 200);
+		loop.start();
+		Thread.sleep(250);
+		loop.stop();
+
+		// Expect around 50 ticks; allow generous slack for scheduling.
+		long ticks = loop.tickCount();
+		assertTrue(ticks >= 25 && ticks <= 60);
+	}
+}
@@ -0,0 +1,116 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a ShapeModel's SpatialIndex answers point and region
+ * queries consistently with the absolute bounds of the model's shapes as they
+ * are added, removed and moved.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestSpatialIndex {
+
+	private ShapeModel _model;
+	private SpatialIndex _index;
+	private CarrierShape _carrier;
+	private Shape _inner;
+	private Shape _outer;
+
+	/**
+	 * Creates a ShapeModel with a small index grid and a nested composition.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.setSpatialIndex(16);
+		_index = _model.spatialIndex();
+
+		_carrier = new CarrierShape(100, 100, 2, 3, 200, 200);
+		_inner = new RectangleShape(50, 60, 5, -4, 20, 30);
+		_outer = new OvalShape(400, 10, -3, 7, 40, 40);
+		_model.add(_carrier, _model.root());
+		_model.add(_inner, _carrier);
+		_model.add(_outer, _model.root());
+	}
+
+	/**
+	 * Checks that the index reports absolute bounds and that point queries
+	 * return shapes in painting order.
+	 */
+	@Test
+	public void testPointQueries() {
+		assertEquals(4, _index.size());
+		assertEquals(new Rectangle(150, 160, 21, 31), _index.boundsOf(_inner));
+
+		assertEquals(Arrays.asList(_model.root(), _carrier, _inner), _index.shapesAt(155, 170));
+		assertSame(_inner, _index.shapeAt(155, 170));
+		assertSame(_carrier, _index.shapeAt(110, 110));
+		assertSame(_model.root(), _index.shapeAt(5, 5));
+		assertEquals(Arrays.asList(_model.root(), _carrier, _inner), _index.shapeAt(155, 170).path());
+	}
+
+	/**
+	 * Checks that the index follows shapes as the model is clocked, agreeing
+	 * with a brute force search after every tick.
+	 */
+	@Test
+	public void testQueriesAfterMoves() {
+		Rectangle region = new Rectangle(120, 40, 300, 200);
+		for (int i = 0; i < 200; i++) {
+			_model.clock();
+			assertEquals(bruteForce(region), _index.shapesIn(region));
+		}
+	}
+
+	/**
+	 * Checks that removing a CarrierShape removes its descendants from the
+	 * index, and that adding it back restores them.
+	 */
+	@Test
+	public void testAddAndRemove() {
+		_model.remove(_carrier);
+		assertEquals(2, _index.size());
+		assertNull(_index.boundsOf(_inner));
+		assertSame(_model.root(), _index.shapeAt(155, 170));
+
+		_model.add(_carrier, _model.root());
+		assertEquals(4, _index.size());
+		assertSame(_inner, _index.shapeAt(155, 170));
+	}
+
+	/*
+	 * Returns, in painting order, the shapes whose bounds overlap region.
+	 */
+	private List<Shape> bruteForce(Rectangle region) {
+		List<Shape> shapes = new ArrayList<Shape>();
+		collect(_model.root(), 0, 0, region, shapes);
+		return shapes;
+	}
+
+	private void collect(Shape shape, int offsetX, int offsetY, Rectangle region, List<Shape> shapes) {
+		int x = offsetX + shape.x();
+		int y = offsetY + shape.y();
+		if (region.intersects(new Rectangle(x, y, shape.width() + 1, shape.height() + 1))) {
+			shapes.add(shape);
+		}
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				collect(carrier.shapeAt(i), x, y, region, shapes);
+			}
+		}
+	}
+}
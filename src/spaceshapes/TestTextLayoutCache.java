@@ -0,0 +1,92 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static spaceshapes.TestPixels.assertSamePixels;
+import static spaceshapes.TestPixels.paint;
+import static spaceshapes.TestPixels.paintBatched;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * Class to test that TextLayoutCache caches text measurements, and that
+ * painting text through it gives the same pixels as painting it directly.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestTextLayoutCache {
+
+	/**
+	 * Checks that Layouts are cached per string and font, match FontMetrics,
+	 * and are evicted beyond the cache's capacity.
+	 */
+	@Test
+	public void testLayouts() {
+		Graphics2D g = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+		FontMetrics metrics = g.getFontMetrics();
+		FontMetrics bold = g.getFontMetrics(metrics.getFont().deriveFont(Font.BOLD));
+		g.dispose();
+
+		TextLayoutCache cache = new TextLayoutCache(2);
+		TextLayoutCache.Layout layout = cache.layout("Space-Shape", metrics);
+		assertEquals(metrics.stringWidth("Space-Shape"), layout.width());
+		assertEquals(metrics.getAscent(), layout.ascent());
+		assertEquals(metrics.getDescent(), layout.descent());
+		assertFalse(layout.requiresLayout());
+		assertSame(layout, cache.layout("Space-Shape", metrics));
+		assertTrue(layout != cache.layout("Space-Shape", bold));
+		assertEquals(1, cache.hitCount());
+		assertEquals(2, cache.missCount());
+		assertEquals(1.0 / 3, cache.hitRate(), 1e-9);
+
+		cache.layout("Carrier", metrics);
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.capacity());
+		assertTrue(layout != cache.layout("Space-Shape", metrics));
+
+		assertTrue(cache.layout("\u0906\u0915\u093e\u0930", metrics).requiresLayout());
+		assertNull(cache.layout("", metrics).glyphs(Color.BLACK));
+		BufferedImage glyphs = layout.glyphs(Color.BLACK);
+		assertSame(glyphs, layout.glyphs(Color.BLACK));
+		assertTrue(glyphs != layout.glyphs(Color.RED));
+	}
+
+	/**
+	 * Checks that painting shapes' text with and without the cache, and
+	 * from glyph images, gives the same pixels, with GraphicsPainters and
+	 * BatchingPainters, and with antialiased text, which isn't drawn from
+	 * glyph images.
+	 */
+	@Test
+	public void testSamePixels() {
+		ShapeModel model = new ShapeModel(new Dimension(300, 300));
+		model.add(new HexagonShape(20, 20, 4, 4, 200, 20, "Space-Shape"), model.root());
+		model.add(new DynamicShape(0, 0, 2, 3, 180, 130, "Changes Color", Color.CYAN), model.root());
+		CarrierShape carrier = new CarrierShape(10, 10, 2, 2, 200, 150, "Carrier");
+		model.add(new RectangleShape(10, 10, 3, 5, 60, 20, "Nested \u00e9g"), carrier);
+		model.add(new OvalShape(40, 90, -3, 2, 90, 40, "\u0906\u0915\u093e\u0930 \u05e9\u05dc\u05d5\u05dd"), model.root());
+		model.add(carrier, model.root());
+
+		for (int tick = 0; tick < 40; tick++) {
+			model.clock();
+			for (int text : new int[] {0, TestPixels.ANTIALIASED_TEXT}) {
+				BufferedImage expected = paint(model, null, text);
+				assertSamePixels(expected, paint(model, null, text | TestPixels.CACHED_TEXT));
+				assertSamePixels(expected, paint(model, null, text | TestPixels.CACHED_TEXT | TestPixels.GLYPH_IMAGES));
+			}
+			assertSamePixels(paint(model, null, 0), paintBatched(model, null));
+		}
+		assertFalse(TextLayoutCache.shared().size() == 0);
+	}
+}
@@ -0,0 +1,193 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a journal written by TickRecorder is replayed exactly
+ * by TickReplayer, both tick by tick and when seeking, including ticks by 
+ * which the model was advanced.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestTickJournal {
+
+	private static final int TICKS = 300;
+
+	private Path _journal;
+
+	// State of the recorded model after each tick, as built by state().
+	private List<String> _states = new ArrayList<String>();
+
+	/**
+	 * Records a model through TICKS ticks, during which shapes are added
+	 * and removed and bounce off the walls.
+	 */
+	@Before
+	public void record() throws IOException {
+		_journal = Files.createTempFile("journal", ".bin");
+		ShapeModel model = new ShapeModel(new Dimension(200, 150));
+		CarrierShape carrier = new CarrierShape(10, 10, 3, 2, 100, 80, "Carrier");
+		model.add(carrier, model.root());
+		model.add(new OvalShape(5, 5, 4, -3, 30, 20), carrier);
+		model.add(new DynamicShape(0, 0, 7, 5, 50, 40, Color.RED), model.root());
+		Shape rectangle = new RectangleShape(20, 30, -6, 9, 10, 10);
+		model.add(rectangle, model.root());
+
+		TickRecorder recorder = new TickRecorder(model, _journal, 50);
+		_states.add(state(model));
+		for (int tick = 1; tick <= TICKS; tick++) {
+			if (tick == 40) {
+				model.add(new HexagonShape(1, 1, 2, 11, 20, 20), carrier);
+			} else if (tick == 120) {
+				model.remove(rectangle);
+			} else if (tick == 175) {
+				model.beginBatch();
+				CarrierShape nested = new CarrierShape(0, 0, 1, 1, 60, 60);
+				model.add(nested, model.root());
+				model.add(new RectangleShape(3, 3, 5, -4, 8, 8, "Nested"), nested);
+				model.remove(carrier);
+				model.commitBatch();
+			}
+			model.clock();
+			_states.add(state(model));
+		}
+		assertEquals(TICKS, recorder.tickCount());
+		recorder.close();
+	}
+
+	@After
+	public void deleteJournal() {
+		_journal.toFile().delete();
+	}
+
+	/**
+	 * Checks that replaying tick by tick reproduces every tick.
+	 */
+	@Test
+	public void testReplay() throws IOException {
+		TickReplayer replayer = new TickReplayer(_journal);
+		final int[] moves = new int[1];
+		replayer.model().addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapeMoved) {
+					moves[0]++;
+				}
+			}
+		});
+
+		assertEquals(TICKS, replayer.lastTick());
+		assertEquals(_states.get(0), state(replayer.model()));
+		for (int tick = 1; tick <= TICKS; tick++) {
+			assertTrue(replayer.step());
+			assertEquals(tick, replayer.tick());
+			assertEquals(_states.get(tick), state(replayer.model()));
+		}
+		assertFalse(replayer.step());
+		assertEquals(TICKS, moves[0]);
+	}
+
+	/**
+	 * Checks that seeking forwards and backwards reproduces the ticks sought.
+	 */
+	@Test
+	public void testSeek() throws IOException {
+		TickReplayer replayer = new TickReplayer(_journal);
+		for (int tick : new int[] {260, 30, 30, 150, 151, 100, TICKS, 0, 199}) {
+			replayer.seek(tick);
+			assertEquals(tick, replayer.tick());
+			assertEquals(_states.get(tick), state(replayer.model()));
+		}
+	}
+
+	/**
+	 * Checks that ticks by which a model is advanced, with and without 
+	 * collisions, are recorded and replayed in one step, and that seeking 
+	 * into an advance lands at its end.
+	 */
+	@Test
+	public void testAdvance() throws IOException {
+		ShapeModel model = new ShapeModel(new Dimension(200, 150));
+		model.add(new RectangleShape(20, 30, -6, 9, 10, 10), model.root());
+		model.add(new OvalShape(5, 5, 4, -3, 30, 20), model.root());
+		TickRecorder recorder = new TickRecorder(model, _journal, 25);
+		long[] ticks = {0, 10, 47, 52, 72, 75};
+		List<String> states = new ArrayList<String>();
+		states.add(state(model));
+		for (int i = 0; i < 10; i++) {
+			model.clock();
+		}
+		states.add(state(model));
+		model.advance(37);
+		states.add(state(model));
+		for (int i = 0; i < 5; i++) {
+			model.clock();
+		}
+		states.add(state(model));
+		model.setCollisionsEnabled(true);
+		model.advance(20);
+		states.add(state(model));
+		for (int i = 0; i < 3; i++) {
+			model.clock();
+		}
+		states.add(state(model));
+		assertEquals(75, recorder.tickCount());
+		recorder.close();
+
+		TickReplayer replayer = new TickReplayer(_journal);
+		assertEquals(75, replayer.lastTick());
+		for (int i = 1; i < ticks.length; i++) {
+			do {
+				assertTrue(replayer.step());
+			} while (replayer.tick() < ticks[i]);
+			assertEquals(ticks[i], replayer.tick());
+			assertEquals(states.get(i), state(replayer.model()));
+		}
+		assertFalse(replayer.step());
+
+		replayer.seek(30);
+		assertEquals(47, replayer.tick());
+		assertEquals(states.get(2), state(replayer.model()));
+		replayer.seek(60);
+		assertEquals(72, replayer.tick());
+		assertEquals(states.get(4), state(replayer.model()));
+	}
+
+	/*
+	 * Describes the state of every shape in model, in depth first order.
+	 */
+	private static String state(ShapeModel model) {
+		StringBuilder state = new StringBuilder();
+		append(model.root(), state);
+		return state.toString();
+	}
+
+	private static void append(Shape shape, StringBuilder state) {
+		state.append(shape.getClass().getSimpleName()).append(' ').append(shape.x()).append(',').append(shape.y())
+				.append(' ').append(shape.deltaX()).append(',').append(shape.deltaY()).append(' ').append(shape.text());
+		if (shape instanceof DynamicShape) {
+			state.append(((DynamicShape)shape).isFilled());
+		}
+		state.append('\n');
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				append(carrier.shapeAt(i), state);
+			}
+		}
+	}
+}
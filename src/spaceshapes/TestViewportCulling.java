@@ -0,0 +1,141 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static spaceshapes.TestPixels.assertSamePixels;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that painting with a clip skips the shapes outside it, and
+ * that doing so doesn't change what is painted inside it.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestViewportCulling {
+
+	private static final Rectangle CLIP = new Rectangle(0, 0, 200, 200);
+
+	private ShapeModel _model;
+
+	/**
+	 * Creates a ShapeModel with one CarrierShape inside the clip and one
+	 * outside it.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.setSnapshotsEnabled(true);
+
+		CarrierShape visible = new CarrierShape(20, 20, 0, 0, 150, 150, "Visible");
+		_model.add(visible, _model.root());
+		_model.add(new OvalShape(10, 10, 0, 0, 40, 30), visible);
+		_model.add(new DynamicShape(100, 100, 0, 0, 60, 60, Color.RED), _model.root());
+
+		CarrierShape hidden = new CarrierShape(300, 300, 0, 0, 150, 150, "Hidden");
+		_model.add(hidden, _model.root());
+		_model.add(new RectangleShape(10, 10, 0, 0, 20, 20), hidden);
+		_model.add(new HexagonShape(50, 50, 0, 0, 60, 40), hidden);
+		_model.add(new OvalShape(250, 10, 0, 0, 20, 20), _model.root());
+	}
+
+	/**
+	 * Checks that painting the composition with a clip culls the subtrees
+	 * outside it, without affecting the pixels inside it.
+	 */
+	@Test
+	public void testTreeCulling() {
+		BufferedImage unclipped = newImage();
+		paint(unclipped, null, false);
+
+		BufferedImage clipped = newImage();
+		assertEquals(4, paint(clipped, CLIP, false));
+		assertSamePixels(unclipped, clipped, CLIP);
+	}
+
+	/**
+	 * Checks that painting a snapshot with a clip culls the same shapes, and
+	 * paints the same pixels, as painting the composition itself.
+	 */
+	@Test
+	public void testSnapshotCulling() {
+		BufferedImage tree = newImage();
+		paint(tree, null, false);
+
+		BufferedImage snapshot = newImage();
+		assertEquals(4, paint(snapshot, CLIP, true));
+		assertSamePixels(tree, snapshot, CLIP);
+
+		assertEquals(0, paint(newImage(), null, true));
+	}
+
+	/**
+	 * Checks that text extending beyond its shape, or beyond the shape's 
+	 * parent, is painted when only the text lies within the clip.
+	 */
+	@Test
+	public void testTextOverhangingClip() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.setSnapshotsEnabled(true);
+		_model.add(new RectangleShape(245, 100, 0, 0, 10, 10, "A label much wider than its shape"), _model.root());
+		CarrierShape carrier = new CarrierShape(230, 300, 0, 0, 40, 40);
+		_model.add(carrier, _model.root());
+		_model.add(new RectangleShape(15, 15, 0, 0, 10, 10, "Another label much wider than its parent"), carrier);
+		_model.clock();
+
+		// Clips to the right of both shapes, holding only their labels.
+		Rectangle clip = new Rectangle(290, 0, 210, 500);
+		BufferedImage unclipped = newImage();
+		paint(unclipped, null, false);
+		int labelPixels = 0;
+		for (int y = clip.y; y < clip.y + clip.height; y++) {
+			for (int x = clip.x; x < clip.x + clip.width; x++) {
+				if (unclipped.getRGB(x, y) != 0xFF000000) {
+					labelPixels++;
+				}
+			}
+		}
+		assertTrue(labelPixels > 0);
+
+		BufferedImage tree = newImage();
+		paint(tree, clip, false);
+		assertSamePixels(unclipped, tree, clip);
+
+		BufferedImage snapshot = newImage();
+		paint(snapshot, clip, true);
+		assertSamePixels(unclipped, snapshot, clip);
+	}
+
+	/*
+	 * Paints the model, or its latest snapshot, into image with an optional
+	 * clip, and returns the number of shapes culled.
+	 */
+	private int paint(BufferedImage image, Rectangle clip, boolean fromSnapshot) {
+		Graphics g = image.getGraphics();
+		if (clip != null) {
+			g.setClip(clip);
+		}
+		GraphicsPainter painter = new GraphicsPainter(g);
+		if (fromSnapshot) {
+			ShapeSnapshot snapshot = _model.acquireSnapshot();
+			snapshot.paint(painter);
+			snapshot.release();
+		} else {
+			_model.root().paint(painter);
+		}
+		g.dispose();
+		return painter.culledShapeCount();
+	}
+
+	private BufferedImage newImage() {
+		return new BufferedImage(500, 500, BufferedImage.TYPE_INT_RGB);
+	}
+}
@@ -0,0 +1,291 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the measurements needed to centre text within a shape, keyed by
+ * the text, its font and the FontRenderContext it's measured in, so that
+ * painting a shape's text doesn't measure the string on every frame. A
+ * Layout can also hold the text pre-rendered into an image, which painters
+ * draw with one blit instead of laying out and rendering the glyphs.
+ *
+ * Text that requires complex layout (e.g. bidirectional text, or scripts
+ * such as Devanagari) is shaped by Java2D on every call, so measuring and
+ * drawing it from scratch takes microseconds per string; drawing its
+ * pre-rendered image is several times faster. Simple text is drawn from
+ * Java2D's own glyph cache about as fast as an image can be blitted, so
+ * painters draw it as a string; see Layout.requiresLayout().
+ *
+ * The cache holds up to a fixed number of Layouts, evicting the least
+ * recently used, and counts lookups that hit and miss. It is safe to use
+ * from several threads.
+ *
+ * @author Dave Shin
+ */
+public class TextLayoutCache {
+
+	/**
+	 * Capacity of the shared TextLayoutCache.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final TextLayoutCache SHARED = new TextLayoutCache(DEFAULT_CAPACITY);
+
+	/**
+	 * The measurements of a string in a font, and optionally the string
+	 * pre-rendered in one colour.
+	 */
+	public static final class Layout {
+		private final String _text;
+		private final Font _font;
+		private final FontRenderContext _context;
+		private final int _width;
+		private final int _ascent;
+		private final int _descent;
+		private final boolean _requiresLayout;
+
+		// Pixel bounds of the rendered glyphs relative to the baseline
+		// origin, and the glyphs rendered in _glyphColor.
+		private Rectangle _glyphBounds;
+		private Color _glyphColor;
+		private BufferedImage _glyphs;
+
+		private Layout(String text, FontMetrics metrics) {
+			_text = text;
+			_font = metrics.getFont();
+			_context = metrics.getFontRenderContext();
+			_width = metrics.stringWidth(text);
+			_ascent = metrics.getAscent();
+			_descent = metrics.getDescent();
+			_requiresLayout = Font.textRequiresLayout(text.toCharArray(), 0, text.length());
+		}
+
+		/**
+		 * Returns the advance width of the text, as FontMetrics.stringWidth()
+		 * does.
+		 */
+		public int width() {
+			return _width;
+		}
+
+		/**
+		 * Returns the font's ascent.
+		 */
+		public int ascent() {
+			return _ascent;
+		}
+
+		/**
+		 * Returns the font's descent.
+		 */
+		public int descent() {
+			return _descent;
+		}
+
+		/**
+		 * Returns true if the text requires complex layout, so that drawing
+		 * the image returned by glyphs() is much cheaper than drawing the
+		 * string.
+		 */
+		public boolean requiresLayout() {
+			return _requiresLayout;
+		}
+
+		/**
+		 * Returns how far below a shape's vertical centre the baseline of
+		 * its centred text lies.
+		 */
+		public int baselineOffset() {
+			return _ascent > _descent ? (_ascent - _descent) / 2 : 0;
+		}
+
+		/**
+		 * Returns the text rendered in color onto a transparent image, to be
+		 * drawn at glyphX() and glyphY() relative to the baseline origin, or
+		 * null if the text has no visible glyphs. The image is made on the
+		 * first call for each colour, and kept until a different colour is
+		 * asked for. Drawing it gives the same pixels as drawing the string
+		 * only if text antialiasing is off and the Graphics isn't scaled or
+		 * rotated; see TextLayoutCache.canDrawGlyphs().
+		 */
+		public synchronized BufferedImage glyphs(Color color) {
+			if (_glyphBounds == null) {
+				_glyphBounds = _font.createGlyphVector(_context, _text).getPixelBounds(_context, 0, 0);
+			}
+			if (_glyphBounds.isEmpty()) {
+				return null;
+			}
+			if (!color.equals(_glyphColor)) {
+				BufferedImage glyphs = new BufferedImage(_glyphBounds.width, _glyphBounds.height, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = glyphs.createGraphics();
+				g.setFont(_font);
+				g.setColor(color);
+				g.drawString(_text, -_glyphBounds.x, -_glyphBounds.y);
+				g.dispose();
+				_glyphs = glyphs;
+				_glyphColor = color;
+			}
+			return _glyphs;
+		}
+
+		/**
+		 * Returns the horizontal offset from the baseline origin at which
+		 * the image returned by glyphs() is drawn.
+		 */
+		public synchronized int glyphX() {
+			return _glyphBounds == null ? 0 : _glyphBounds.x;
+		}
+
+		/**
+		 * Returns the vertical offset from the baseline origin at which the
+		 * image returned by glyphs() is drawn.
+		 */
+		public synchronized int glyphY() {
+			return _glyphBounds == null ? 0 : _glyphBounds.y;
+		}
+	}
+
+	// Identifies a string in a font and FontRenderContext.
+	private static final class Key {
+		private final String _text;
+		private final Font _font;
+		private final FontRenderContext _context;
+
+		Key(String text, Font font, FontRenderContext context) {
+			_text = text;
+			_font = font;
+			_context = context;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key)other;
+			return _text.equals(key._text) && _font.equals(key._font) && _context.equals(key._context);
+		}
+
+		@Override
+		public int hashCode() {
+			return (_text.hashCode() * 31 + _font.hashCode()) * 31 + _context.hashCode();
+		}
+	}
+
+	private final int _capacity;
+	private final LinkedHashMap<Key, Layout> _layouts;
+
+	private long _hitCount;
+	private long _missCount;
+
+	/**
+	 * Returns the TextLayoutCache shared by painters.
+	 */
+	public static TextLayoutCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Creates a TextLayoutCache that holds up to capacity Layouts.
+	 * @throws IllegalArgumentException if capacity isn't positive.
+	 */
+	public TextLayoutCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_capacity = capacity;
+		_layouts = new LinkedHashMap<Key, Layout>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+				return size() > _capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the Layout of text in the font, and FontRenderContext, of
+	 * metrics, measuring it if it isn't cached.
+	 */
+	public Layout layout(String text, FontMetrics metrics) {
+		Key key = new Key(text, metrics.getFont(), metrics.getFontRenderContext());
+		synchronized (this) {
+			Layout layout = _layouts.get(key);
+			if (layout != null) {
+				_hitCount++;
+				return layout;
+			}
+			_missCount++;
+		}
+		// Measure without holding the lock. Another thread may measure the
+		// same text at the same time, in which case the last Layout is kept.
+		Layout layout = new Layout(text, metrics);
+		synchronized (this) {
+			_layouts.put(key, layout);
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns true if the glyph images of Layouts can be drawn with g in
+	 * place of drawing strings, giving the same pixels: text isn't
+	 * antialiased and g is neither scaled nor rotated.
+	 */
+	public static boolean canDrawGlyphs(Graphics2D g) {
+		FontRenderContext context = g.getFontRenderContext();
+		return !context.isAntiAliased() && !context.usesFractionalMetrics() && context.getTransform().isIdentity();
+	}
+
+	/**
+	 * Discards every Layout. The counters are not reset.
+	 */
+	public synchronized void clear() {
+		_layouts.clear();
+	}
+
+	/**
+	 * Returns the number of Layouts cached.
+	 */
+	public synchronized int size() {
+		return _layouts.size();
+	}
+
+	/**
+	 * Returns the most Layouts that are cached.
+	 */
+	public int capacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached Layout.
+	 */
+	public synchronized long hitCount() {
+		return _hitCount;
+	}
+
+	/**
+	 * Returns the number of lookups that measured text.
+	 */
+	public synchronized long missCount() {
+		return _missCount;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a cached Layout, or 0 if
+	 * there have been none.
+	 */
+	public synchronized double hitRate() {
+		long lookups = _hitCount + _missCount;
+		return lookups == 0 ? 0 : (double)_hitCount / lookups;
+	}
+}
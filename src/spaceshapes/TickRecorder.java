@@ -0,0 +1,504 @@
+package spaceshapes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * ShapeModelListener that records everything that happens to a ShapeModel in
+ * a journal file, so that it can be replayed exactly with a TickReplayer.
+ *
+ * A journal holds a header followed by a sequence of records:
+ * - Keyframes hold the tick number and the whole composition, encoded as
+ *   for SceneFile. One is written when recording starts and then every
+ *   keyframe interval ticks, so that a replayer can seek to any tick.
+ * - Add records hold the parent of an added shape and the shape itself,
+ *   again encoded as for SceneFile; remove records identify a removed shape.
+ * - Tick records hold the changes made by one clock() call. A shape is
+ *   expected to move by its deltas and keep them; only shapes that didn't,
+ *   because they bounced, are listed, each with varint encoded differences
+ *   between the expected and actual x(), y(), deltaX() and deltaY() values.
+ *   So a tick in which nothing bounces takes a few bytes however many
+ *   shapes are moving.
+ * - Advance records hold the changes made by one advance() call: the 
+ *   number of ticks, followed by the shapes that didn't move by that many
+ *   times their deltas, listed as in tick records. A keyframe is written 
+ *   after an advance that passes a multiple of the keyframe interval.
+ * Shapes are identified by numbers, assigned in depth first order at each
+ * keyframe and in order of addition between keyframes.
+ *
+ * Records are encoded on the thread that fires ShapeModelEvents and written
+ * to the file by a background thread, through a FileChannel. If the writer
+ * falls behind, the recording thread waits for it rather than buffering
+ * without limit.
+ *
+ * Collisions between shapes aren't recorded, other than through their
+ * effect on shapes' positions and deltas. ImageRectangleShapes can only be
+ * recorded if their image source is known.
+ *
+ * @author Dave Shin
+ */
+public class TickRecorder implements ShapeModelListener {
+
+	/**
+	 * Default number of ticks between keyframes.
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 250;
+
+	// Identifies journal files ("SSJN"), and the version of the format.
+	static final int MAGIC = 0x53534A4E;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 16;
+
+	// Record types. Each record is a type byte and an int length followed by
+	// the record's contents.
+	static final byte KEYFRAME = 1;
+	static final byte TICK = 2;
+	static final byte ADD = 3;
+	static final byte REMOVE = 4;
+	static final byte ADVANCE = 5;
+
+	// Flags identifying the values listed for a shape in a tick record.
+	static final int X = 1;
+	static final int Y = 2;
+	static final int DELTA_X = 4;
+	static final int DELTA_Y = 8;
+	static final int FILL = 16;
+
+	// Size at which encoded records are handed to the writer, and number of
+	// buffers in use at once.
+	private static final int FLUSH_SIZE = 64 * 1024;
+	private static final int BUFFERS = 4;
+
+	private ShapeModel _model;
+	private int _keyframeInterval;
+	private long _tick;
+
+	// Shapes by number, with their state as of the last record, and the
+	// number of each shape. Removed shapes leave null entries.
+	private Shape[] _shapes = new Shape[64];
+	private int[] _x = new int[64];
+	private int[] _y = new int[64];
+	private int[] _deltaX = new int[64];
+	private int[] _deltaY = new int[64];
+	private boolean[] _filled = new boolean[64];
+	private int _shapeCount;
+	private Map<Shape, Integer> _numbers = new IdentityHashMap<Shape, Integer>();
+
+	// Buffer into which records are encoded, buffers ready for reuse, and
+	// buffers waiting to be written (a zero capacity buffer marks the end).
+	private ByteBuffer _buffer;
+	private BlockingQueue<ByteBuffer> _free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private BlockingQueue<ByteBuffer> _pending = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+
+	private FileChannel _channel;
+	private Thread _writer;
+	private volatile IOException _error;
+	private boolean _stopped;
+	private boolean _closed;
+
+	/**
+	 * Creates a TickRecorder that records model to journal, replacing any
+	 * existing file, and registers it as a listener of model. The current
+	 * composition is recorded in a first keyframe.
+	 * @param keyframeInterval number of ticks between keyframes.
+	 * @throws IllegalArgumentException if keyframeInterval is less than one,
+	 * or the composition contains a shape that can't be recorded (see
+	 * SceneFile.write()).
+	 * @throws IOException if the journal can't be created.
+	 */
+	public TickRecorder(ShapeModel model, Path journal, int keyframeInterval) throws IOException {
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_keyframeInterval = keyframeInterval;
+		for (int i = 0; i < BUFFERS; i++) {
+			_free.add(ByteBuffer.allocate(FLUSH_SIZE * 2).order(ByteOrder.LITTLE_ENDIAN));
+		}
+		_buffer = _free.poll();
+
+		_channel = FileChannel.open(journal, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		_writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "TickRecorder");
+		_writer.setDaemon(true);
+		_writer.start();
+
+		synchronized (model) {
+			_buffer.putInt(MAGIC);
+			_buffer.putInt(VERSION);
+			_buffer.putInt(model.bounds().width);
+			_buffer.putInt(model.bounds().height);
+			try {
+				writeKeyframe();
+			} catch (IllegalArgumentException e) {
+				_closed = true;
+				handOver(ByteBuffer.allocate(0));
+				_channel.close();
+				throw e;
+			}
+			model.addShapeModelListener(this);
+		}
+	}
+
+	/**
+	 * Creates a TickRecorder that writes keyframes every
+	 * DEFAULT_KEYFRAME_INTERVAL ticks.
+	 */
+	public TickRecorder(ShapeModel model, Path journal) throws IOException {
+		this(model, journal, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Records a change to the ShapeModel. If a shape is added that can't be
+	 * recorded, recording stops and close() reports the problem.
+	 */
+	public void update(ShapeModelEvent event) {
+		if (_stopped) {
+			return;
+		}
+		try {
+			record(event);
+		} catch (IllegalArgumentException e) {
+			_stopped = true;
+			_error = new IOException("Recording stopped at tick " + _tick + ": " + e.getMessage(), e);
+			return;
+		}
+		if (_buffer.position() >= FLUSH_SIZE) {
+			flush();
+		}
+	}
+
+	/*
+	 * Encodes the records describing event.
+	 */
+	private void record(ShapeModelEvent event) {
+		switch (event.eventType()) {
+		case Batch:
+			for (ShapeModelEvent group : event.events()) {
+				record(group);
+			}
+			break;
+		case ShapeAdded:
+			for (Shape shape : event.operands()) {
+				writeAdd(shape);
+			}
+			break;
+		case ShapeRemoved:
+			for (Shape shape : event.operands()) {
+				writeRemove(shape);
+			}
+			break;
+		case ShapeMoved:
+			writeTick(event.ticks());
+			if (_tick / _keyframeInterval != (_tick - event.ticks()) / _keyframeInterval) {
+				writeKeyframe();
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Returns the number of ticks recorded.
+	 */
+	public long tickCount() {
+		return _tick;
+	}
+
+	/**
+	 * Stops recording, unregisters this TickRecorder from its ShapeModel and
+	 * waits for the journal to be written. This method has no effect if the
+	 * TickRecorder is already closed.
+	 * @throws IOException if the journal couldn't be written.
+	 */
+	public void close() throws IOException {
+		synchronized (_model) {
+			if (_closed) {
+				return;
+			}
+			_model.removeShapeModelListener(this);
+			_closed = true;
+			_stopped = true;
+			flush();
+		}
+		handOver(ByteBuffer.allocate(0));
+		try {
+			_writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_channel.close();
+		if (_error != null) {
+			throw _error;
+		}
+	}
+
+	/*
+	 * Writes a keyframe, numbering the shapes in depth first order.
+	 */
+	private void writeKeyframe() {
+		CarrierShape root = _model.root();
+		Arrays.fill(_shapes, 0, _shapeCount, null);
+		_shapeCount = 0;
+		_numbers.clear();
+		number(root);
+
+		int length = 8 + (int)SceneFile.recordLength(root);
+		int start = beginRecord(KEYFRAME, length);
+		_buffer.putLong(_tick);
+		SceneFile.writeRecord(root, _buffer);
+		endRecord(start);
+	}
+
+	/*
+	 * Writes an add record for shape, numbering it and its descendants.
+	 */
+	private void writeAdd(Shape shape) {
+		Integer parent = _numbers.get(shape.parent());
+		if (parent == null || _numbers.containsKey(shape)) {
+			// The shape has since been removed, or was recorded along with
+			// an ancestor added earlier in the same batch.
+			return;
+		}
+		number(shape);
+
+		int start = beginRecord(ADD, 5 + (int)SceneFile.recordLength(shape));
+		putVarint(parent);
+		SceneFile.writeRecord(shape, _buffer);
+		endRecord(start);
+	}
+
+	/*
+	 * Writes a remove record for shape, forgetting it and its descendants.
+	 */
+	private void writeRemove(Shape shape) {
+		Integer number = _numbers.get(shape);
+		if (number == null) {
+			return;
+		}
+		forget(shape);
+
+		int start = beginRecord(REMOVE, 5);
+		putVarint(number);
+		endRecord(start);
+	}
+
+	/*
+	 * Writes a tick record, or an advance record if more than one tick has
+	 * passed, listing the shapes that didn't move as expected.
+	 */
+	private void writeTick(long ticks) {
+		_tick += ticks;
+		int start;
+		if (ticks == 1) {
+			start = beginRecord(TICK, 0);
+		} else {
+			start = beginRecord(ADVANCE, 8);
+			_buffer.putLong(ticks);
+		}
+		int previous = -1;
+		for (int i = 0; i < _shapeCount; i++) {
+			Shape shape = _shapes[i];
+			if (shape == null) {
+				continue;
+			}
+			int x = shape.x() - (_x[i] + (int)(_deltaX[i] * ticks));
+			int y = shape.y() - (_y[i] + (int)(_deltaY[i] * ticks));
+			int deltaX = shape.deltaX() - _deltaX[i];
+			int deltaY = shape.deltaY() - _deltaY[i];
+			boolean filled = shape instanceof DynamicShape && ((DynamicShape)shape).isFilled();
+			int flags = (x != 0 ? X : 0) | (y != 0 ? Y : 0) | (deltaX != 0 ? DELTA_X : 0)
+					| (deltaY != 0 ? DELTA_Y : 0) | (filled != _filled[i] ? FILL : 0);
+			capture(shape, i);
+			if (flags == 0) {
+				continue;
+			}
+
+			ensureCapacity(26);
+			putVarint(i - previous - 1);
+			_buffer.put((byte)flags);
+			if (x != 0) {
+				putVarint(zigzag(x));
+			}
+			if (y != 0) {
+				putVarint(zigzag(y));
+			}
+			if (deltaX != 0) {
+				putVarint(zigzag(deltaX));
+			}
+			if (deltaY != 0) {
+				putVarint(zigzag(deltaY));
+			}
+			previous = i;
+		}
+		endRecord(start);
+	}
+
+	/*
+	 * Numbers shape and its descendants in depth first order, recording
+	 * their state.
+	 */
+	private void number(Shape shape) {
+		int number = _shapeCount++;
+		if (number == _shapes.length) {
+			int capacity = number * 2;
+			_shapes = Arrays.copyOf(_shapes, capacity);
+			_x = Arrays.copyOf(_x, capacity);
+			_y = Arrays.copyOf(_y, capacity);
+			_deltaX = Arrays.copyOf(_deltaX, capacity);
+			_deltaY = Arrays.copyOf(_deltaY, capacity);
+			_filled = Arrays.copyOf(_filled, capacity);
+		}
+		_shapes[number] = shape;
+		_numbers.put(shape, number);
+		capture(shape, number);
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				number(carrier.shapeAt(i));
+			}
+		}
+	}
+
+	/*
+	 * Forgets shape and its descendants.
+	 */
+	private void forget(Shape shape) {
+		Integer number = _numbers.remove(shape);
+		if (number != null) {
+			_shapes[number] = null;
+		}
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				forget(carrier.shapeAt(i));
+			}
+		}
+	}
+
+	private void capture(Shape shape, int number) {
+		_x[number] = shape.x();
+		_y[number] = shape.y();
+		_deltaX[number] = shape.deltaX();
+		_deltaY[number] = shape.deltaY();
+		_filled[number] = shape instanceof DynamicShape && ((DynamicShape)shape).isFilled();
+	}
+
+	/*
+	 * Starts a record of the specified type, making room for at least
+	 * length bytes of contents, and returns the position of its length.
+	 */
+	private int beginRecord(byte type, int length) {
+		ensureCapacity(5 + length);
+		_buffer.put(type);
+		int start = _buffer.position();
+		_buffer.putInt(0);
+		return start;
+	}
+
+	/*
+	 * Fills in the length of the record begun at start.
+	 */
+	private void endRecord(int start) {
+		_buffer.putInt(start, _buffer.position() - start - 4);
+	}
+
+	/*
+	 * Makes room for length more bytes in the buffer, growing it if
+	 * necessary. Buffers that have grown are replaced when recycled.
+	 */
+	private void ensureCapacity(int length) {
+		if (_buffer.remaining() < length) {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(_buffer.capacity() * 2, _buffer.position() + length));
+			_buffer.flip();
+			_buffer = buffer.order(ByteOrder.LITTLE_ENDIAN).put(_buffer);
+		}
+	}
+
+	private void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			_buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		_buffer.put((byte)value);
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/*
+	 * Hands the encoded records to the writer, and takes an empty buffer.
+	 */
+	private void flush() {
+		if (_buffer.position() == 0) {
+			return;
+		}
+		_buffer.flip();
+		handOver(_buffer);
+		try {
+			_buffer = _free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			_buffer = ByteBuffer.allocate(FLUSH_SIZE * 2).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private void handOver(ByteBuffer buffer) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				_pending.put(buffer);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Body of the writer thread.
+	 */
+	private void write() {
+		while (true) {
+			ByteBuffer buffer;
+			try {
+				buffer = _pending.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (buffer.capacity() == 0) {
+				return;
+			}
+			try {
+				while (buffer.hasRemaining() && _error == null) {
+					_channel.write(buffer);
+				}
+			} catch (IOException e) {
+				_error = e;
+			}
+			buffer.clear();
+			if (buffer.capacity() > FLUSH_SIZE * 2) {
+				buffer = ByteBuffer.allocate(FLUSH_SIZE * 2).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			_free.offer(buffer);
+		}
+	}
+}
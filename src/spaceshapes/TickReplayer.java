@@ -0,0 +1,373 @@
+package spaceshapes;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a journal written by a TickRecorder into a ShapeModel. The model
+ * goes through the same additions, removals and movements, tick by tick, as
+ * the recorded model, and fires the same ShapeAdded, ShapeRemoved and
+ * ShapeMoved events to its listeners; ShapesCollided events aren't replayed.
+ * Ticks are replayed as fast as step() is called, so a journal can be
+ * replayed much faster than it was recorded. Ticks by which the recorded 
+ * model was advanced with advance() are replayed together, as one step 
+ * firing one ShapeMoved event.
+ *
+ * The journal is memory mapped. When a TickReplayer is created it indexes
+ * the journal's keyframes, so seek() can jump to any tick by loading the
+ * nearest keyframe before it and replaying the ticks that follow.
+ *
+ * @author Dave Shin
+ */
+public class TickReplayer {
+
+	private ByteBuffer _journal;
+	private ShapeModel _model;
+
+	// Ticks and positions of the journal's keyframes, in order.
+	private long[] _keyframeTicks;
+	private int[] _keyframePositions;
+	private int _keyframeCount;
+	private long _lastTick;
+
+	// Position of the next record to replay, and the current tick.
+	private int _position;
+	private long _tick;
+
+	// Shapes by number, and the number of each shape, as for TickRecorder.
+	private Shape[] _shapes = new Shape[64];
+	private int _shapeCount;
+	private Map<Shape, Integer> _numbers = new IdentityHashMap<Shape, Integer>();
+
+	/**
+	 * Opens a journal for replay, and creates the ShapeModel into which it is
+	 * replayed, positioned at the first keyframe.
+	 * @throws IOException if the journal can't be read or is corrupt.
+	 */
+	public TickReplayer(Path journal) throws IOException {
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(journal + " is too large to replay");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			_journal = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (_journal.limit() < TickRecorder.HEADER_LENGTH || _journal.getInt(0) != TickRecorder.MAGIC) {
+			throw new IOException(journal + " is not a journal");
+		}
+		if (_journal.getInt(4) != TickRecorder.VERSION) {
+			throw new IOException(journal + " was recorded in an unsupported format");
+		}
+		_model = new ShapeModel(new Dimension(_journal.getInt(8), _journal.getInt(12)));
+
+		index();
+		if (_keyframeCount == 0) {
+			throw new IOException(journal + " has no keyframes");
+		}
+		loadKeyframe(0);
+	}
+
+	/**
+	 * Returns the ShapeModel into which the journal is replayed.
+	 */
+	public ShapeModel model() {
+		return _model;
+	}
+
+	/**
+	 * Returns the tick that the model is at, counted from the start of the
+	 * recording.
+	 */
+	public long tick() {
+		return _tick;
+	}
+
+	/**
+	 * Returns the number of the last tick in the journal.
+	 */
+	public long lastTick() {
+		return _lastTick;
+	}
+
+	/**
+	 * Replays the next tick, or the next advance over several ticks, along 
+	 * with any additions and removals that preceded it. Returns false, without changing the model, if the end of
+	 * the journal has been reached.
+	 * @throws IOException if the journal is corrupt.
+	 */
+	public boolean step() throws IOException {
+		if (_tick == _lastTick) {
+			return false;
+		}
+		try {
+			while (_position < _journal.limit()) {
+				byte type = _journal.get(_position);
+				int length = _journal.getInt(_position + 1);
+				int start = _position + 5;
+				_position = start + length;
+				switch (type) {
+				case TickRecorder.KEYFRAME:
+					// The model already matches the keyframe; just renumber.
+					renumber();
+					break;
+				case TickRecorder.ADD:
+					replayAdd(start);
+					break;
+				case TickRecorder.REMOVE:
+					replayRemove(start);
+					break;
+				case TickRecorder.TICK:
+					replayTick(start, _position, 1);
+					return true;
+				case TickRecorder.ADVANCE:
+					replayTick(start + 8, _position, _journal.getLong(start));
+					return true;
+				default:
+					throw new IOException("Journal is corrupt");
+				}
+			}
+		} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new IOException("Journal is corrupt", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Brings the model to the state it was in at the specified tick. If tick
+	 * is ahead of the model, and no keyframe lies between them, the ticks in
+	 * between are replayed; otherwise the nearest keyframe at or before tick
+	 * is loaded first. If the recorded model was advanced over tick with 
+	 * advance(), the model is brought to the end of that advance instead.
+	 * @throws IllegalArgumentException if tick is outside the range
+	 * 0 .. lastTick().
+	 * @throws IOException if the journal is corrupt.
+	 */
+	public void seek(long tick) throws IOException {
+		if (tick < 0 || tick > _lastTick) {
+			throw new IllegalArgumentException();
+		}
+		int keyframe = Arrays.binarySearch(_keyframeTicks, 0, _keyframeCount, tick);
+		if (keyframe < 0) {
+			keyframe = -keyframe - 2;
+		}
+		if (keyframe >= 0 && (tick < _tick || _keyframeTicks[keyframe] > _tick)) {
+			loadKeyframe(keyframe);
+		}
+		while (_tick < tick && step()) {
+			// Replay towards tick.
+		}
+	}
+
+	/*
+	 * Finds the journal's keyframes, and its last tick.
+	 */
+	private void index() throws IOException {
+		List<long[]> keyframes = new ArrayList<long[]>();
+		long tick = 0;
+		int position = TickRecorder.HEADER_LENGTH;
+		try {
+			while (position < _journal.limit()) {
+				byte type = _journal.get(position);
+				int length = _journal.getInt(position + 1);
+				if (length < 0 || position + 5 + length > _journal.limit()) {
+					break;
+				}
+				if (type == TickRecorder.KEYFRAME) {
+					tick = _journal.getLong(position + 5);
+					keyframes.add(new long[] {tick, position});
+				} else if (type == TickRecorder.TICK) {
+					tick++;
+				} else if (type == TickRecorder.ADVANCE) {
+					tick += _journal.getLong(position + 5);
+				}
+				position += 5 + length;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// The journal was cut short, e.g. because the recording process
+			// ended without closing the recorder. Replay what is complete.
+		}
+		_keyframeCount = keyframes.size();
+		_keyframeTicks = new long[_keyframeCount];
+		_keyframePositions = new int[_keyframeCount];
+		for (int i = 0; i < _keyframeCount; i++) {
+			_keyframeTicks[i] = keyframes.get(i)[0];
+			_keyframePositions[i] = (int)keyframes.get(i)[1];
+		}
+		_lastTick = tick;
+		_journal.limit(position);
+	}
+
+	/*
+	 * Replaces the model's contents with the specified keyframe.
+	 */
+	private void loadKeyframe(int keyframe) throws IOException {
+		int position = _keyframePositions[keyframe];
+		SceneFile scene = new SceneFile(_journal, position + 5 + 8);
+		CarrierShape state = (CarrierShape)scene.root().shape();
+
+		synchronized (_model) {
+			_model.beginBatch();
+			try {
+				CarrierShape root = _model.root();
+				while (root.shapeCount() > 0) {
+					_model.remove(root.shapeAt(root.shapeCount() - 1));
+				}
+				root._x = state.x();
+				root._y = state.y();
+				root._deltaX = state.deltaX();
+				root._deltaY = state.deltaY();
+				scene.load(_model);
+			} finally {
+				_model.commitBatch();
+			}
+			renumber();
+		}
+		_tick = _keyframeTicks[keyframe];
+		_position = position + 5 + _journal.getInt(position + 1);
+	}
+
+	/*
+	 * Numbers the model's shapes in depth first order, as at a keyframe.
+	 */
+	private void renumber() {
+		Arrays.fill(_shapes, 0, _shapeCount, null);
+		_shapeCount = 0;
+		_numbers.clear();
+		number(_model.root());
+	}
+
+	private void number(Shape shape) {
+		if (_shapeCount == _shapes.length) {
+			_shapes = Arrays.copyOf(_shapes, _shapeCount * 2);
+		}
+		_numbers.put(shape, _shapeCount);
+		_shapes[_shapeCount++] = shape;
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				number(carrier.shapeAt(i));
+			}
+		}
+	}
+
+	private void forget(Shape shape) {
+		Integer number = _numbers.remove(shape);
+		if (number != null) {
+			_shapes[number] = null;
+		}
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				forget(carrier.shapeAt(i));
+			}
+		}
+	}
+
+	/*
+	 * Replays the add record whose contents start at start.
+	 */
+	private void replayAdd(int start) throws IOException {
+		ByteBuffer record = _journal.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		record.position(start);
+		CarrierShape parent = (CarrierShape)shape(getVarint(record));
+		Shape shape = new SceneFile(_journal, record.position()).root().load();
+		_model.add(shape, parent);
+		number(shape);
+	}
+
+	/*
+	 * Replays the remove record whose contents start at start.
+	 */
+	private void replayRemove(int start) throws IOException {
+		ByteBuffer record = _journal.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		record.position(start);
+		Shape shape = shape(getVarint(record));
+		forget(shape);
+		_model.remove(shape);
+	}
+
+	/*
+	 * Replays the tick or advance record whose listed shapes lie between 
+	 * start and end: moves every shape by ticks times its deltas, applies 
+	 * the recorded corrections to shapes that bounced, and has the model 
+	 * notify its listeners.
+	 */
+	private void replayTick(int start, int end, long ticks) throws IOException {
+		ByteBuffer record = _journal.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		record.position(start);
+		synchronized (_model) {
+			if (_model.clockMode() != ShapeModel.ClockMode.Tree) {
+				_model.setClockMode(ShapeModel.ClockMode.Tree);
+			}
+			for (int i = 0; i < _shapeCount; i++) {
+				Shape shape = _shapes[i];
+				if (shape != null) {
+					shape._x += (int)(shape._deltaX * ticks);
+					shape._y += (int)(shape._deltaY * ticks);
+				}
+			}
+			int number = -1;
+			while (record.position() < end) {
+				number += getVarint(record) + 1;
+				Shape shape = shape(number);
+				int flags = record.get();
+				if ((flags & TickRecorder.X) != 0) {
+					shape._x += unzigzag(getVarint(record));
+				}
+				if ((flags & TickRecorder.Y) != 0) {
+					shape._y += unzigzag(getVarint(record));
+				}
+				if ((flags & TickRecorder.DELTA_X) != 0) {
+					shape._deltaX += unzigzag(getVarint(record));
+				}
+				if ((flags & TickRecorder.DELTA_Y) != 0) {
+					shape._deltaY += unzigzag(getVarint(record));
+				}
+				if ((flags & TickRecorder.FILL) != 0) {
+					DynamicShape dynamic = (DynamicShape)shape;
+					dynamic.setFilled(!dynamic.isFilled());
+				}
+			}
+			_tick += ticks;
+			_model.replayedTicks(ticks);
+		}
+	}
+
+	/*
+	 * Returns the shape with the specified number.
+	 */
+	private Shape shape(int number) throws IOException {
+		Shape shape = number >= 0 && number < _shapeCount ? _shapes[number] : null;
+		if (shape == null) {
+			throw new IOException("Journal is corrupt");
+		}
+		return shape;
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,73 @@
+package spaceshapes.bench;
+
+/**
+ * Abstract superclass of a benchmark run by BenchmarkRunner. A benchmark is
+ * set up once for each scene size, after which run() is called repeatedly;
+ * each call is one operation. Subclasses should pass any value computed by
+ * run() to consume() so that the computation cannot be optimised away.
+ *
+ * @author Dave Shin
+ */
+public abstract class Benchmark {
+
+	// Sink for values computed by benchmarks.
+	private static volatile Object _sink;
+
+	private String _name;
+
+	/**
+	 * Creates a Benchmark with the specified name.
+	 */
+	protected Benchmark(String name) {
+		_name = name;
+	}
+
+	/**
+	 * Returns this Benchmark's name.
+	 */
+	public String name() {
+		return _name;
+	}
+
+	/**
+	 * Returns the largest size this Benchmark supports; larger sizes are
+	 * skipped. By default, there is no limit.
+	 */
+	public int maxSize() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Prepares this Benchmark to run against a scene of the specified size.
+	 * The meaning of size (e.g. number of shapes, tree depth or number of
+	 * listeners) is particular to each benchmark.
+	 */
+	public abstract void setUp(int size);
+
+	/**
+	 * Performs one operation.
+	 */
+	public abstract void run();
+
+	/**
+	 * Releases anything allocated by setUp(). By default, does nothing.
+	 */
+	public void tearDown() {
+	}
+
+	/**
+	 * Consumes a value computed by run().
+	 */
+	protected static void consume(Object value) {
+		_sink = value;
+	}
+
+	/**
+	 * Consumes a value computed by run().
+	 */
+	protected static void consume(int value) {
+		if (value == Integer.MIN_VALUE) {
+			_sink = value;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package spaceshapes.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks defined by Benchmarks and reports their throughput and
+ * allocation rate. Each benchmark is run against each scene size in turn:
+ * after a number of warmup iterations, which let the JIT compiler settle, a
+ * number of measurement iterations are timed. Each iteration calls run()
+ * repeatedly for a fixed length of time.
+ *
+ * Usage: java spaceshapes.bench.BenchmarkRunner [options]
+ *   -sizes n,n,...   scene sizes (default 100,1000,10000,100000,1000000)
+ *   -filter text     run only benchmarks whose names contain text
+ *   -warmup n        number of warmup iterations (default 3)
+ *   -iterations n    number of measurement iterations (default 5)
+ *   -time ms         length of each iteration in milliseconds (default 1000)
+ *
+ * For each benchmark and size, the mean and standard deviation of the
+ * throughput across measurement iterations is reported in operations per
+ * second, along with the bytes allocated per operation and the allocation
+ * rate in MB per second. Allocation is measured with
+ * com.sun.management.ThreadMXBean, and reported as "n/a" on JVMs that don't
+ * support it. Allocation by other threads (e.g. by ClockMode.Parallel) is
+ * not counted.
+ *
+ * @author Dave Shin
+ */
+public class BenchmarkRunner {
+
+	private static final int[] DEFAULT_SIZES = {100, 1000, 10000, 100000, 1000000};
+
+	// Stack size of the thread running benchmarks, large enough to recurse
+	// through the deepest scenes.
+	private static final long STACK_SIZE = 512L * 1024 * 1024;
+
+	private int[] _sizes = DEFAULT_SIZES;
+	private String _filter = "";
+	private int _warmupIterations = 3;
+	private int _measurementIterations = 5;
+	private long _iterationNanos = 1000L * 1000000;
+
+	private com.sun.management.ThreadMXBean _threads;
+
+	/**
+	 * Runs the benchmarks as specified by the command line arguments.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final BenchmarkRunner runner = new BenchmarkRunner();
+		try {
+			runner.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: BenchmarkRunner [-sizes n,n,...] [-filter text] [-warmup n] [-iterations n] [-time ms]");
+			System.exit(1);
+		}
+
+		Thread thread = new Thread(null, new Runnable() {
+			public void run() {
+				runner.runAll();
+			}
+		}, "benchmarks", STACK_SIZE);
+		thread.start();
+		thread.join();
+	}
+
+	/*
+	 * Sets this BenchmarkRunner's options from command line arguments.
+	 */
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try {
+				if (option.equals("-sizes")) {
+					String[] sizes = value.split(",");
+					_sizes = new int[sizes.length];
+					for (int s = 0; s < sizes.length; s++) {
+						_sizes[s] = Integer.parseInt(sizes[s].trim());
+					}
+				} else if (option.equals("-filter")) {
+					_filter = value;
+				} else if (option.equals("-warmup")) {
+					_warmupIterations = Integer.parseInt(value);
+				} else if (option.equals("-iterations")) {
+					_measurementIterations = Integer.parseInt(value);
+				} else if (option.equals("-time")) {
+					_iterationNanos = Long.parseLong(value) * 1000000;
+				} else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}
+		}
+		if (_warmupIterations < 0 || _measurementIterations < 1 || _iterationNanos < 1) {
+			throw new IllegalArgumentException("Iteration counts and time must be positive");
+		}
+	}
+
+	/*
+	 * Runs each selected benchmark against each size.
+	 */
+	private void runAll() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			_threads = (com.sun.management.ThreadMXBean) threads;
+			if (!_threads.isThreadAllocatedMemorySupported()) {
+				_threads = null;
+			} else if (!_threads.isThreadAllocatedMemoryEnabled()) {
+				_threads.setThreadAllocatedMemoryEnabled(true);
+			}
+		}
+
+		System.out.println(String.format("%-26s %9s %14s %12s %12s %10s",
+				"Benchmark", "Size", "ops/s", "+/-", "B/op", "MB/s"));
+		for (Benchmark benchmark : Benchmarks.all()) {
+			if (!benchmark.name().contains(_filter)) {
+				continue;
+			}
+			for (int size : _sizes) {
+				if (size > benchmark.maxSize()) {
+					continue;
+				}
+				benchmark.setUp(size);
+				try {
+					report(benchmark, size, measure(benchmark));
+				} finally {
+					benchmark.tearDown();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Runs the warmup and measurement iterations of a benchmark. Returns the
+	 * throughput of each measurement iteration, followed by the total
+	 * number of operations and bytes allocated across them.
+	 */
+	private double[] measure(Benchmark benchmark) {
+		for (int i = 0; i < _warmupIterations; i++) {
+			iterate(benchmark, null);
+		}
+
+		double[] results = new double[_measurementIterations + 2];
+		long[] counts = new long[2];
+		long allocatedBefore = allocatedBytes();
+		for (int i = 0; i < _measurementIterations; i++) {
+			results[i] = iterate(benchmark, counts);
+		}
+		long allocated = allocatedBytes() - allocatedBefore;
+		results[_measurementIterations] = counts[0];
+		results[_measurementIterations + 1] = _threads == null ? -1 : allocated;
+		return results;
+	}
+
+	/*
+	 * Calls run() repeatedly for one iteration and returns the throughput in
+	 * operations per second. If counts is not null, the number of operations
+	 * and the elapsed time are added to it.
+	 */
+	private double iterate(Benchmark benchmark, long[] counts) {
+		long operations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			benchmark.run();
+			operations++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < _iterationNanos);
+
+		if (counts != null) {
+			counts[0] += operations;
+			counts[1] += elapsed;
+		}
+		return operations * 1e9 / elapsed;
+	}
+
+	private long allocatedBytes() {
+		return _threads == null ? 0 : _threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/*
+	 * Prints one line of results.
+	 */
+	private void report(Benchmark benchmark, int size, double[] results) {
+		int n = _measurementIterations;
+		double mean = 0;
+		for (int i = 0; i < n; i++) {
+			mean += results[i];
+		}
+		mean /= n;
+		double variance = 0;
+		for (int i = 0; i < n; i++) {
+			variance += (results[i] - mean) * (results[i] - mean);
+		}
+		double deviation = n > 1 ? Math.sqrt(variance / (n - 1)) : 0;
+
+		double operations = results[n];
+		double allocated = results[n + 1];
+		String bytesPerOperation = "n/a";
+		String allocationRate = "n/a";
+		if (allocated >= 0) {
+			double perOperation = allocated / operations;
+			bytesPerOperation = String.format("%.1f", perOperation);
+			allocationRate = String.format("%.1f", perOperation * mean / (1024 * 1024));
+		}
+		System.out.println(String.format("%-26s %9d %14.1f %12.1f %12s %10s",
+				benchmark.name(), size, mean, deviation, bytesPerOperation, allocationRate));
+	}
+}
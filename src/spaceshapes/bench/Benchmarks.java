@@ -0,0 +1,265 @@
+package spaceshapes.bench;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import spaceshapes.BatchingPainter;
+import spaceshapes.CarrierShape;
+import spaceshapes.GraphicsPainter;
+import spaceshapes.RectangleShape;
+import spaceshapes.Shape;
+import spaceshapes.ShapeModel;
+import spaceshapes.ShapeModelEvent;
+import spaceshapes.ShapeModelListener;
+
+/**
+ * The benchmarks run by BenchmarkRunner, covering the simulation and
+ * painting hot paths.
+ *
+ * @author Dave Shin
+ */
+public class Benchmarks {
+
+	// Number of children of each CarrierShape in balanced scenes, and number
+	// of carriers in each chain in deep scenes.
+	private static final int FAN_OUT = 8;
+	private static final int DEPTH = 50;
+
+	/**
+	 * Returns a new instance of each benchmark.
+	 */
+	public static List<Benchmark> all() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(clock("clock.flat", Scene.Flat, ShapeModel.ClockMode.Tree));
+		benchmarks.add(clock("clock.balanced", Scene.Balanced, ShapeModel.ClockMode.Tree));
+		benchmarks.add(clock("clock.deep", Scene.Deep, ShapeModel.ClockMode.Tree));
+		benchmarks.add(clock("clock.flat.arrays", Scene.Flat, ShapeModel.ClockMode.Arrays));
+		benchmarks.add(clock("clock.balanced.parallel", Scene.Balanced, ShapeModel.ClockMode.Parallel));
+
+		// Adds a shape to, and removes it from, a carrier with size children.
+		benchmarks.add(new Benchmark("carrier.addRemove") {
+			private ShapeModel _model;
+			private Shape _shape;
+
+			public void setUp(int size) {
+				_model = Scenes.flat(size);
+				_shape = new RectangleShape(0, 0, 1, 1);
+			}
+
+			public void run() {
+				_model.add(_shape, _model.root());
+				_model.remove(_shape);
+			}
+		});
+
+		// Finds the position of the last child of a carrier with size
+		// children.
+		benchmarks.add(new Benchmark("carrier.indexOf") {
+			private CarrierShape _carrier;
+			private Shape _shape;
+
+			public void setUp(int size) {
+				_carrier = Scenes.flat(size).root();
+				_shape = _carrier.shapeAt(_carrier.shapeCount() - 1);
+			}
+
+			public void run() {
+				consume(_carrier.indexOf(_shape));
+			}
+		});
+
+		// Computes the path of the innermost shape of a chain size carriers
+		// deep. Building the chain is quadratic in its depth, so the largest
+		// sizes are skipped.
+		benchmarks.add(new Benchmark("shape.path") {
+			private Shape _shape;
+
+			public int maxSize() {
+				return 100000;
+			}
+
+			public void setUp(int size) {
+				ShapeModel model = new ShapeModel(Scenes.BOUNDS);
+				_shape = Scenes.chain(model, size);
+			}
+
+			public void run() {
+				consume(_shape.path());
+			}
+		});
+
+		benchmarks.add(paint("paint.graphics", false));
+		benchmarks.add(paint("paint.batching", true));
+		benchmarks.add(paintImages("paint.images", true));
+		benchmarks.add(paintImages("paint.images.direct", false));
+		benchmarks.add(paintText("paint.text", true, true));
+		benchmarks.add(paintText("paint.text.measured", true, false));
+		benchmarks.add(paintText("paint.text.direct", false, false));
+
+		// Clocks an empty model with size listeners, so that the cost is that
+		// of firing the ShapeMoved event.
+		benchmarks.add(new Benchmark("model.fire") {
+			private ShapeModel _model;
+
+			public int maxSize() {
+				return 100000;
+			}
+
+			public void setUp(int size) {
+				_model = new ShapeModel(Scenes.BOUNDS);
+				for (int i = 0; i < size; i++) {
+					_model.addShapeModelListener(new ShapeModelListener() {
+						private int _events;
+
+						public void update(ShapeModelEvent event) {
+							_events++;
+							consume(_events);
+						}
+					});
+				}
+			}
+
+			public void run() {
+				_model.clock();
+			}
+		});
+		return benchmarks;
+	}
+
+	private enum Scene {Flat, Balanced, Deep};
+
+	private static ShapeModel scene(Scene scene, int size) {
+		switch (scene) {
+		case Flat:
+			return Scenes.flat(size);
+		case Balanced:
+			return Scenes.balanced(size, FAN_OUT);
+		default:
+			return Scenes.deep(size, DEPTH);
+		}
+	}
+
+	/*
+	 * Creates a benchmark that clocks a scene of size shapes.
+	 */
+	private static Benchmark clock(String name, final Scene scene, final ShapeModel.ClockMode mode) {
+		return new Benchmark(name) {
+			private ShapeModel _model;
+
+			public void setUp(int size) {
+				_model = scene(scene, size);
+				_model.setClockMode(mode);
+			}
+
+			public void run() {
+				_model.clock();
+			}
+
+			public void tearDown() {
+				_model.setClockMode(ShapeModel.ClockMode.Tree);
+			}
+		};
+	}
+
+	/*
+	 * Creates a benchmark that paints a scene of size ImageRectangleShapes
+	 * into an offscreen image with a GraphicsPainter, either from compatible
+	 * copies of their images or from the images as they are.
+	 */
+	private static Benchmark paintImages(String name, final boolean compatible) {
+		return new Benchmark(name) {
+			private ShapeModel _model;
+			private BufferedImage _image;
+
+			public int maxSize() {
+				return 100000;
+			}
+
+			public void setUp(int size) {
+				_model = Scenes.images(size);
+				_image = new BufferedImage(Scenes.BOUNDS.width, Scenes.BOUNDS.height, BufferedImage.TYPE_INT_RGB);
+			}
+
+			public void run() {
+				Graphics g = _image.getGraphics();
+				GraphicsPainter painter = new GraphicsPainter(g);
+				painter.setCompatibleImages(compatible);
+				_model.root().paint(painter);
+				g.dispose();
+			}
+
+			public void tearDown() {
+				_image = null;
+			}
+		};
+	}
+
+	/*
+	 * Creates a benchmark that paints a scene of size labelled shapes into an
+	 * offscreen image with a GraphicsPainter, either measuring text with the
+	 * shared TextLayoutCache, and optionally drawing it from the cache's
+	 * glyph images, or measuring it on every frame.
+	 */
+	private static Benchmark paintText(String name, final boolean cached, final boolean glyphImages) {
+		return new Benchmark(name) {
+			private ShapeModel _model;
+			private BufferedImage _image;
+
+			public int maxSize() {
+				return 100000;
+			}
+
+			public void setUp(int size) {
+				_model = Scenes.labelled(size);
+				_image = new BufferedImage(Scenes.BOUNDS.width, Scenes.BOUNDS.height, BufferedImage.TYPE_INT_RGB);
+			}
+
+			public void run() {
+				Graphics g = _image.getGraphics();
+				GraphicsPainter painter = new GraphicsPainter(g);
+				painter.setCachedText(cached);
+				painter.setGlyphImages(glyphImages);
+				_model.root().paint(painter);
+				g.dispose();
+			}
+
+			public void tearDown() {
+				_image = null;
+			}
+		};
+	}
+
+	/*
+	 * Creates a benchmark that paints a balanced scene of size shapes into an
+	 * offscreen image, with either a GraphicsPainter or a BatchingPainter.
+	 */
+	private static Benchmark paint(String name, final boolean batching) {
+		return new Benchmark(name) {
+			private ShapeModel _model;
+			private BufferedImage _image;
+
+			public void setUp(int size) {
+				_model = Scenes.balanced(size, FAN_OUT);
+				_image = new BufferedImage(Scenes.BOUNDS.width, Scenes.BOUNDS.height, BufferedImage.TYPE_INT_RGB);
+			}
+
+			public void run() {
+				if (batching) {
+					BatchingPainter painter = new BatchingPainter(_image, null);
+					_model.root().paint(painter);
+					painter.dispose();
+				} else {
+					Graphics g = _image.getGraphics();
+					_model.root().paint(new GraphicsPainter(g));
+					g.dispose();
+				}
+			}
+
+			public void tearDown() {
+				_image = null;
+			}
+		};
+	}
+}
@@ -0,0 +1,215 @@
+package spaceshapes.bench;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spaceshapes.CarrierShape;
+import spaceshapes.DynamicShape;
+import spaceshapes.HexagonShape;
+import spaceshapes.ImageRectangleShape;
+import spaceshapes.OvalShape;
+import spaceshapes.RectangleShape;
+import spaceshapes.Shape;
+import spaceshapes.ShapeModel;
+
+/**
+ * Builds the ShapeModels used by benchmarks. Scenes are generated from a
+ * fixed seed, so a scene of a given kind and size is the same on every run.
+ *
+ * @author Dave Shin
+ */
+public class Scenes {
+
+	/**
+	 * Bounds of every scene.
+	 */
+	public static final Dimension BOUNDS = new Dimension(1000, 1000);
+
+	private static final Color[] COLOURS = {Color.RED, Color.GREEN, Color.BLUE, Color.CYAN, Color.MAGENTA};
+
+	/**
+	 * Creates a scene with size leaf shapes, all children of the root.
+	 */
+	public static ShapeModel flat(int size) {
+		return flat(BOUNDS, size);
+	}
+
+	/**
+	 * Creates a scene with the specified bounds and size leaf shapes, all
+	 * children of the root.
+	 */
+	public static ShapeModel flat(Dimension bounds, int size) {
+		ShapeModel model = new ShapeModel(bounds);
+		Random random = new Random(size);
+		for (int i = 0; i < size; i++) {
+			model.add(leaf(random, i, bounds.width, bounds.height), model.root());
+		}
+		return model;
+	}
+
+	/**
+	 * Creates a balanced tree of size shapes in which each CarrierShape has
+	 * fanOut children. The tree is filled level by level; the lowest level
+	 * holds leaf shapes and may be incomplete.
+	 */
+	public static ShapeModel balanced(int size, int fanOut) {
+		return balanced(BOUNDS, size, fanOut);
+	}
+
+	/**
+	 * Creates a balanced tree, as for balanced(int, int), with the specified
+	 * bounds.
+	 */
+	public static ShapeModel balanced(Dimension bounds, int size, int fanOut) {
+		ShapeModel model = new ShapeModel(bounds);
+		Random random = new Random(size);
+
+		// Number of levels below the root needed to hold size shapes.
+		int levels = 0;
+		for (long capacity = 1, level = 1; capacity < size; levels++) {
+			level *= fanOut;
+			capacity += level;
+		}
+
+		int remaining = size - 1;
+		List<CarrierShape> level = new ArrayList<CarrierShape>();
+		level.add(model.root());
+		for (int depth = 1; depth <= levels && remaining > 0; depth++) {
+			List<CarrierShape> next = new ArrayList<CarrierShape>();
+			for (int p = 0; p < level.size() && remaining > 0; p++) {
+				CarrierShape parent = level.get(p);
+				for (int i = 0; i < fanOut && remaining > 0; i++, remaining--) {
+					if (depth < levels) {
+						int width = Math.max(1, parent.width() / 2);
+						int height = Math.max(1, parent.height() / 2);
+						CarrierShape carrier = new CarrierShape(random.nextInt(parent.width() - width + 1),
+								random.nextInt(parent.height() - height + 1), 1 + random.nextInt(3), 1 + random.nextInt(3), width, height);
+						model.add(carrier, parent);
+						next.add(carrier);
+					} else {
+						model.add(leaf(random, i, parent.width(), parent.height()), parent);
+					}
+				}
+			}
+			level = next;
+		}
+		return model;
+	}
+
+	/**
+	 * Creates a scene of approximately size shapes arranged as chains of
+	 * nested CarrierShapes, each depth carriers deep, with a leaf shape at the
+	 * end of each chain.
+	 */
+	public static ShapeModel deep(int size, int depth) {
+		return deep(BOUNDS, size, depth);
+	}
+
+	/**
+	 * Creates chains of nested CarrierShapes, as for deep(int, int), with the
+	 * specified bounds.
+	 */
+	public static ShapeModel deep(Dimension bounds, int size, int depth) {
+		ShapeModel model = new ShapeModel(bounds);
+		Random random = new Random(size);
+		int chains = Math.max(1, size / (depth + 1));
+		for (int c = 0; c < chains; c++) {
+			CarrierShape parent = model.root();
+			for (int d = 0; d < depth; d++) {
+				CarrierShape carrier = new CarrierShape(random.nextInt(5), random.nextInt(5), 1, 1,
+						parent.width() - 5, parent.height() - 5);
+				model.add(carrier, parent);
+				parent = carrier;
+			}
+			model.add(leaf(random, c, parent.width(), parent.height()), parent);
+		}
+		return model;
+	}
+
+	/**
+	 * Creates a single chain of depth nested CarrierShapes of equal size, and
+	 * returns the innermost.
+	 */
+	public static CarrierShape chain(ShapeModel model, int depth) {
+		CarrierShape parent = model.root();
+		for (int d = 0; d < depth; d++) {
+			CarrierShape carrier = new CarrierShape(0, 0, 0, 0, parent.width(), parent.height());
+			model.add(carrier, parent);
+			parent = carrier;
+		}
+		return parent;
+	}
+
+	/**
+	 * Creates a scene with size ImageRectangleShapes, all children of the
+	 * root, spread out by advancing the model. The shapes share a few 32x24
+	 * sprites in the formats ImageIO reads JPEG and PNG files into, which
+	 * don't match the format of the screen or of a TYPE_INT_RGB image.
+	 */
+	public static ShapeModel images(int size) {
+		ShapeModel model = new ShapeModel(BOUNDS);
+		Random random = new Random(size);
+		BufferedImage[] sprites = new BufferedImage[COLOURS.length];
+		for (int i = 0; i < sprites.length; i++) {
+			int type = i % 2 == 0 ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_4BYTE_ABGR;
+			sprites[i] = new BufferedImage(32, 24, type);
+			Graphics2D g = sprites[i].createGraphics();
+			g.setColor(COLOURS[i]);
+			g.fillOval(0, 0, 32, 24);
+			g.dispose();
+		}
+		for (int i = 0; i < size; i++) {
+			int deltaX = 1 + random.nextInt(20);
+			int deltaY = 1 + random.nextInt(20);
+			model.add(new ImageRectangleShape(deltaX, deltaY, sprites[i % sprites.length]), model.root());
+		}
+		model.advance(1000);
+		return model;
+	}
+
+	/**
+	 * Creates a scene with size labelled RectangleShapes, all children of the
+	 * root. The labels are drawn from a set of 100, half of them Latin and
+	 * half Devanagari, which requires complex text layout.
+	 */
+	public static ShapeModel labelled(int size) {
+		ShapeModel model = new ShapeModel(BOUNDS);
+		Random random = new Random(size);
+		for (int i = 0; i < size; i++) {
+			int x = random.nextInt(BOUNDS.width - 80);
+			int y = random.nextInt(BOUNDS.height - 30);
+			int deltaX = random.nextInt(11) - 5;
+			int deltaY = random.nextInt(11) - 5;
+			model.add(new RectangleShape(x, y, deltaX, deltaY, 80, 30, (i % 2 == 0 ? "Shape " : "\u0906\u0915\u093e\u0930 ") + (i % 100)), model.root());
+		}
+		return model;
+	}
+
+	/*
+	 * Creates a leaf shape that fits within the specified bounds, cycling
+	 * through the leaf shape classes.
+	 */
+	private static Shape leaf(Random random, int i, int boundsWidth, int boundsHeight) {
+		int width = Math.max(1, Math.min(boundsWidth, 4 + random.nextInt(30)));
+		int height = Math.max(1, Math.min(boundsHeight, 4 + random.nextInt(30)));
+		int x = random.nextInt(boundsWidth - width + 1);
+		int y = random.nextInt(boundsHeight - height + 1);
+		int deltaX = random.nextInt(11) - 5;
+		int deltaY = random.nextInt(11) - 5;
+		switch (i % 4) {
+		case 0:
+			return new RectangleShape(x, y, deltaX, deltaY, width, height);
+		case 1:
+			return new OvalShape(x, y, deltaX, deltaY, width, height);
+		case 2:
+			return new HexagonShape(x, y, deltaX, deltaY, width, height);
+		default:
+			return new DynamicShape(x, y, deltaX, deltaY, width, height, COLOURS[i % COLOURS.length]);
+		}
+	}
+}
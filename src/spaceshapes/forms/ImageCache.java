@@ -0,0 +1,295 @@
+package spaceshapes.forms;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of images that have been loaded from files and scaled for use by
+ * ImageRectangleShapes. Images are keyed by file path, the file's
+ * modification time and the width they were scaled to, so an image is loaded
+ * again if its file changes.
+ *
+ * The most recently used images are held strongly, up to a budget of bytes.
+ * When the budget is exceeded, the least recently used images are evicted
+ * to soft references: they're still returned if they're asked for before
+ * the garbage collector reclaims them, which it does only under memory
+ * pressure.
+ *
+ * An ImageCache is safe to use from several threads; images are loaded
+ * without holding its lock, so loads of different images run concurrently.
+ * Cached images are shared and mustn't be drawn on.
+ *
+ * @author Dave Shin
+ */
+public class ImageCache {
+
+	/**
+	 * Byte budget of the shared ImageCache.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private static final ImageCache SHARED = new ImageCache(DEFAULT_MAX_BYTES);
+
+	private final long _maxBytes;
+	private long _bytes;
+
+	// Strongly held images, least recently used first.
+	private final LinkedHashMap<Key, BufferedImage> _images = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+
+	// Evicted images, until the garbage collector reclaims them.
+	private final Map<Key, SoftImage> _evicted = new HashMap<Key, SoftImage>();
+	private final ReferenceQueue<BufferedImage> _reclaimed = new ReferenceQueue<BufferedImage>();
+
+	private long _hitCount;
+	private long _softHitCount;
+	private long _missCount;
+	private long _evictionCount;
+
+	// Describes the most recent load, for monitoring.
+	private volatile ImageDecoder.Decoded _lastDecoded;
+
+	/**
+	 * Returns the ImageCache shared by the image form handlers.
+	 */
+	public static ImageCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Creates an ImageCache that holds up to maxBytes of images strongly.
+	 * @throws IllegalArgumentException if maxBytes is negative.
+	 */
+	public ImageCache(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException();
+		}
+		_maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the image loaded from file and scaled down to width, loading
+	 * and caching it if it isn't already cached. Images narrower than width
+	 * aren't scaled.
+	 * @throws IllegalArgumentException if width isn't positive.
+	 * @throws IOException if file can't be read or isn't an image.
+	 */
+	public BufferedImage load(File file, int width) throws IOException {
+		BufferedImage image = get(file, width);
+		if (image == null) {
+			image = read(file, width);
+		}
+		return image;
+	}
+
+	/**
+	 * Loads the image from file with an ImageDecoder, scaled down to width,
+	 * and caches it, without looking for it in the cache first. Used once a
+	 * lookup with get() has missed. The load is described by lastDecoded().
+	 * @throws IllegalArgumentException if width isn't positive.
+	 * @throws IOException if file can't be read or isn't an image.
+	 */
+	public BufferedImage read(File file, int width) throws IOException {
+		// Take the modification time before reading, so that an image read
+		// while its file is being changed is read again later.
+		Key key = new Key(file, width);
+		ImageDecoder.Decoded decoded = ImageDecoder.decode(file, width);
+		_lastDecoded = decoded;
+		put(key, decoded.image());
+		return decoded.image();
+	}
+
+	/**
+	 * Returns the cached image loaded from file and scaled to width, or null
+	 * if no such image is cached. A null return counts as a miss.
+	 * @throws IllegalArgumentException if width isn't positive.
+	 */
+	public BufferedImage get(File file, int width) {
+		Key key = new Key(file, width);
+		synchronized (this) {
+			purge();
+			BufferedImage image = _images.get(key);
+			if (image != null) {
+				_hitCount++;
+				return image;
+			}
+			SoftImage evicted = _evicted.remove(key);
+			image = evicted == null ? null : evicted.get();
+			if (image != null) {
+				// Bring the image back into the strongly held images.
+				_hitCount++;
+				_softHitCount++;
+				store(key, image);
+				return image;
+			}
+			_missCount++;
+			return null;
+		}
+	}
+
+	/**
+	 * Caches an image loaded from file and scaled to width, replacing any
+	 * image cached for them.
+	 * @throws IllegalArgumentException if width isn't positive.
+	 */
+	public void put(File file, int width, BufferedImage image) {
+		put(new Key(file, width), image);
+	}
+
+	private synchronized void put(Key key, BufferedImage image) {
+		purge();
+		_evicted.remove(key);
+		store(key, image);
+	}
+
+	/**
+	 * Discards every cached image. The counters are not reset.
+	 */
+	public synchronized void clear() {
+		_images.clear();
+		_evicted.clear();
+		_bytes = 0;
+	}
+
+	/**
+	 * Returns the number of images held strongly.
+	 */
+	public synchronized int size() {
+		return _images.size();
+	}
+
+	/**
+	 * Returns the number of bytes of images held strongly.
+	 */
+	public synchronized long byteCount() {
+		return _bytes;
+	}
+
+	/**
+	 * Returns the number of lookups that found an image, including those
+	 * counted by softHitCount().
+	 */
+	public synchronized long hitCount() {
+		return _hitCount;
+	}
+
+	/**
+	 * Returns the number of lookups that found an image that had been
+	 * evicted but not yet reclaimed.
+	 */
+	public synchronized long softHitCount() {
+		return _softHitCount;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find an image.
+	 */
+	public synchronized long missCount() {
+		return _missCount;
+	}
+
+	/**
+	 * Returns the number of images evicted to make room for others.
+	 */
+	public synchronized long evictionCount() {
+		return _evictionCount;
+	}
+
+	/**
+	 * Returns the description of the most recent load, which reports how
+	 * long it took and the memory it used, or null if no image has been 
+	 * loaded.
+	 */
+	public ImageDecoder.Decoded lastDecoded() {
+		return _lastDecoded;
+	}
+
+	/**
+	 * Returns the number of bytes that image's pixels occupy.
+	 */
+	public static long sizeOf(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	/*
+	 * Holds image strongly, evicting the least recently used images if the
+	 * budget is exceeded. An image larger than the whole budget is evicted
+	 * straight away.
+	 */
+	private void store(Key key, BufferedImage image) {
+		BufferedImage previous = _images.put(key, image);
+		if (previous != null) {
+			_bytes -= sizeOf(previous);
+		}
+		_bytes += sizeOf(image);
+		Iterator<Map.Entry<Key, BufferedImage>> entries = _images.entrySet().iterator();
+		while (_bytes > _maxBytes && entries.hasNext()) {
+			Map.Entry<Key, BufferedImage> entry = entries.next();
+			entries.remove();
+			_bytes -= sizeOf(entry.getValue());
+			_evicted.put(entry.getKey(), new SoftImage(entry.getKey(), entry.getValue(), _reclaimed));
+			_evictionCount++;
+		}
+	}
+
+	/*
+	 * Forgets evicted images that the garbage collector has reclaimed.
+	 */
+	private void purge() {
+		SoftImage reclaimed;
+		while ((reclaimed = (SoftImage)_reclaimed.poll()) != null) {
+			if (_evicted.get(reclaimed._key) == reclaimed) {
+				_evicted.remove(reclaimed._key);
+			}
+		}
+	}
+
+	/*
+	 * Identifies a file, as it was when last modified, scaled to a width.
+	 */
+	private static final class Key {
+		private final String _path;
+		private final long _lastModified;
+		private final int _width;
+
+		Key(File file, int width) {
+			if (width <= 0) {
+				throw new IllegalArgumentException();
+			}
+			_path = file.getAbsolutePath();
+			_lastModified = file.lastModified();
+			_width = width;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key)other;
+			return _path.equals(key._path) && _lastModified == key._lastModified && _width == key._width;
+		}
+
+		@Override
+		public int hashCode() {
+			return (_path.hashCode() * 31 + Long.hashCode(_lastModified)) * 31 + _width;
+		}
+	}
+
+	private static final class SoftImage extends SoftReference<BufferedImage> {
+		private final Key _key;
+
+		SoftImage(Key key, BufferedImage image, ReferenceQueue<BufferedImage> queue) {
+			super(image, queue);
+			_key = key;
+		}
+	}
+}
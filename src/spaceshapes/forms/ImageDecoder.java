@@ -0,0 +1,186 @@
+package spaceshapes.forms;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Loads images from files at the width they're to be displayed at.
+ *
+ * A large image isn't decoded in full: its reader subsamples the source so
+ * that only about twice as many columns and rows as are needed are decoded,
+ * and the subsampled image is then scaled down in halving steps, with
+ * bilinear interpolation, to the width required. Each load is described by
+ * a Decoded object, which reports how long the load took and the most
+ * memory its images occupied at once.
+ *
+ * @author Dave Shin
+ */
+public class ImageDecoder {
+
+	/**
+	 * The outcome of loading an image.
+	 */
+	public static final class Decoded {
+		private final File _file;
+		private final BufferedImage _image;
+		private final int _sourceWidth;
+		private final int _sourceHeight;
+		private final int _subsampling;
+		private final long _nanos;
+		private final long _peakBytes;
+
+		private Decoded(File file, BufferedImage image, int sourceWidth, int sourceHeight,
+				int subsampling, long nanos, long peakBytes) {
+			_file = file;
+			_image = image;
+			_sourceWidth = sourceWidth;
+			_sourceHeight = sourceHeight;
+			_subsampling = subsampling;
+			_nanos = nanos;
+			_peakBytes = peakBytes;
+		}
+
+		/**
+		 * Returns the loaded image.
+		 */
+		public BufferedImage image() {
+			return _image;
+		}
+
+		/**
+		 * Returns the width of the image stored in the file.
+		 */
+		public int sourceWidth() {
+			return _sourceWidth;
+		}
+
+		/**
+		 * Returns the height of the image stored in the file.
+		 */
+		public int sourceHeight() {
+			return _sourceHeight;
+		}
+
+		/**
+		 * Returns the subsampling factor the image was decoded with; 1 if
+		 * every pixel was decoded.
+		 */
+		public int subsampling() {
+			return _subsampling;
+		}
+
+		/**
+		 * Returns how long the load took, in nanoseconds.
+		 */
+		public long nanos() {
+			return _nanos;
+		}
+
+		/**
+		 * Returns the most bytes of pixels held at once during the load.
+		 */
+		public long peakBytes() {
+			return _peakBytes;
+		}
+
+		/**
+		 * Describes the load: the source and final sizes, the subsampling,
+		 * the time taken and the peak memory, along with the memory that
+		 * decoding the source in full would have taken.
+		 */
+		@Override
+		public String toString() {
+			return String.format("%s %dx%d -> %dx%d (subsampled %dx) in %.1f ms, peak %.1f MB (%.1f MB decoded in full)",
+					_file.getName(), _sourceWidth, _sourceHeight, _image.getWidth(), _image.getHeight(),
+					_subsampling, _nanos / 1e6, _peakBytes / 1048576.0,
+					(double)_sourceWidth * _sourceHeight * 3 / 1048576.0);
+		}
+	}
+
+	private ImageDecoder() {
+		// Not instantiable.
+	}
+
+	/**
+	 * Loads the image in file, scaled down to width if it's wider. The
+	 * image is of type TYPE_INT_RGB if it's scaled.
+	 * @throws IllegalArgumentException if width isn't positive.
+	 * @throws IOException if file can't be read or isn't an image.
+	 */
+	public static Decoded decode(File file, int width) throws IOException {
+		if (width <= 0) {
+			throw new IllegalArgumentException();
+		}
+		long startTime = System.nanoTime();
+
+		ImageInputStream stream = ImageIO.createImageInputStream(file);
+		if (stream == null) {
+			throw new IOException("Can't read " + file);
+		}
+		int sourceWidth;
+		int sourceHeight;
+		int subsampling;
+		int height;
+		BufferedImage image;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				throw new IOException(file + " is not an image");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				sourceWidth = reader.getWidth(0);
+				sourceHeight = reader.getHeight(0);
+
+				// Subsample so that between two and four times width
+				// columns are decoded, leaving the rest to be scaled with
+				// interpolation. The source region is cut to a whole number
+				// of subsampled pixels, so the image's aspect is kept.
+				ImageReadParam param = reader.getDefaultReadParam();
+				subsampling = Math.max(1, sourceWidth / (2 * width));
+				int columns = sourceWidth / subsampling;
+				int rows = Math.max(1, sourceHeight / subsampling);
+				if (subsampling > 1) {
+					param.setSourceRegion(new Rectangle(0, 0, columns * subsampling, rows * subsampling));
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+				image = reader.read(0, param);
+				height = Math.max(1, (int)((double)rows * width / columns));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			stream.close();
+		}
+
+		long peakBytes = ImageCache.sizeOf(image);
+		// Halve the image until one more halving would take it below width,
+		// then scale it to width. Only the step's source and destination are
+		// held at once.
+		while (image.getWidth() > width) {
+			int stepWidth = Math.max(width, image.getWidth() / 2);
+			int stepHeight = stepWidth == width ? height : Math.max(height, image.getHeight() / 2);
+			BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = step.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(image, 0, 0, stepWidth, stepHeight, null);
+			g.dispose();
+			peakBytes = Math.max(peakBytes, ImageCache.sizeOf(image) + ImageCache.sizeOf(step));
+			image = step;
+		}
+		return new Decoded(file, image, sourceWidth, sourceHeight, subsampling,
+				System.nanoTime() - startTime, peakBytes);
+	}
+}
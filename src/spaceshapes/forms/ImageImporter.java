@@ -0,0 +1,241 @@
+package spaceshapes.forms;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingWorker;
+
+import spaceshapes.CarrierShape;
+import spaceshapes.ImageRectangleShape;
+import spaceshapes.ShapeModel;
+
+/**
+ * SwingWorker that imports every image in a directory, and its
+ * subdirectories, as ImageRectangleShapes added to a CarrierShape.
+ *
+ * Images are loaded through the shared ImageCache on a pool of background
+ * threads, so at most a bounded number are decoded at once. Once all have
+ * been loaded the shapes are added to the model in a single batch, so
+ * listeners see one Batch event and the import is all or nothing: a
+ * cancelled import adds no shapes. Files that can't be read as images are
+ * skipped and counted. Progress, as a percentage of files loaded, is
+ * reported through the worker's "progress" property.
+ *
+ * Nothing runs on the Event Dispatch thread, which can cancel an import
+ * with cancelImport(). Cancelling and adding the shapes exclude each other,
+ * so an import is either cancelled before any shape is added or not 
+ * cancelled at all; cancel(true), by contrast, can succeed after the shapes 
+ * have been added. The outcome, including the IOException if the directory
+ * can't be walked, is reported by get() once the worker is done.
+ *
+ * @author Dave Shin
+ */
+public class ImageImporter extends SwingWorker<List<ImageRectangleShape>, Void> {
+
+	/**
+	 * Default number of images loaded at once: one per processor.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors();
+
+	private final ShapeModel _model;
+	private final CarrierShape _parent;
+	private final File _directory;
+	private final int _width;
+	private final int _maxDelta;
+	private final int _maxInFlight;
+
+	private volatile int _fileCount;
+	private final AtomicInteger _loadedCount = new AtomicInteger();
+	private final AtomicInteger _failedCount = new AtomicInteger();
+
+	// Held while cancelling, and while checking for cancellation and adding
+	// the shapes; whether the shapes have been added, guarded by the lock.
+	private final Object _addLock = new Object();
+	private boolean _added;
+
+	/**
+	 * Creates an ImageImporter.
+	 *
+	 * @param model the ShapeModel to which the imported shapes are added.
+	 * @param parent the CarrierShape that will serve as the parent of the
+	 *        imported shapes.
+	 * @param directory the directory to import images from.
+	 * @param width the width images are scaled down to.
+	 * @param maxDelta each imported shape moves by a random number of pixels
+	 *        between 1 and maxDelta in each direction per tick, so that the
+	 *        shapes spread out.
+	 * @param maxInFlight the most images to load at once.
+	 * @throws IllegalArgumentException if width, maxDelta or maxInFlight
+	 *         isn't positive.
+	 */
+	public ImageImporter(ShapeModel model, CarrierShape parent, File directory, int width, int maxDelta, int maxInFlight) {
+		if (width <= 0 || maxDelta <= 0 || maxInFlight <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_parent = parent;
+		_directory = directory;
+		_width = width;
+		_maxDelta = maxDelta;
+		_maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Returns the number of image files found, once the directory has been
+	 * walked; 0 until then.
+	 */
+	public int fileCount() {
+		return _fileCount;
+	}
+
+	/**
+	 * Returns the number of image files loaded so far, including those that
+	 * failed.
+	 */
+	public int loadedCount() {
+		return _loadedCount.get();
+	}
+
+	/**
+	 * Returns the number of image files that couldn't be read.
+	 */
+	public int failedCount() {
+		return _failedCount.get();
+	}
+
+	/**
+	 * Cancels the import, unless the shapes have already been added to the
+	 * model. Returns true if the import was cancelled, in which case no 
+	 * shapes are added.
+	 */
+	public boolean cancelImport() {
+		synchronized (_addLock) {
+			return !_added && cancel(true);
+		}
+	}
+
+	/**
+	 * Loads the images and adds the shapes to the model, returning the shapes
+	 * added in the order of their files' paths.
+	 * @throws IOException if the directory can't be walked.
+	 * @throws InterruptedException if the import is cancelled.
+	 */
+	@Override
+	protected List<ImageRectangleShape> doInBackground() throws IOException, InterruptedException {
+		final List<File> files = imageFiles();
+		_fileCount = files.size();
+
+		ExecutorService pool = Executors.newFixedThreadPool(_maxInFlight, new ThreadFactory() {
+			private int _count;
+
+			public synchronized Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "ImageImporter-" + ++_count);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<BufferedImage>> images = new ArrayList<Future<BufferedImage>>();
+		try {
+			for (final File file : files) {
+				images.add(pool.submit(new Callable<BufferedImage>() {
+					public BufferedImage call() {
+						if (isCancelled()) {
+							return null;
+						}
+						BufferedImage image = null;
+						try {
+							image = ImageCache.shared().load(file, _width);
+						} catch (IOException | RuntimeException e) {
+							_failedCount.incrementAndGet();
+						}
+						setProgress(_loadedCount.incrementAndGet() * 100 / files.size());
+						return image;
+					}
+				}));
+			}
+
+			Random random = new Random(files.size());
+			List<ImageRectangleShape> shapes = new ArrayList<ImageRectangleShape>();
+			for (int i = 0; i < files.size(); i++) {
+				BufferedImage image;
+				try {
+					image = images.get(i).get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+				if (image != null) {
+					int deltaX = 1 + random.nextInt(_maxDelta);
+					int deltaY = 1 + random.nextInt(_maxDelta);
+					shapes.add(new ImageRectangleShape(deltaX, deltaY, image, files.get(i).getPath()));
+				}
+			}
+
+			synchronized (_addLock) {
+				if (isCancelled()) {
+					throw new InterruptedException();
+				}
+				_model.beginBatch();
+				try {
+					for (ImageRectangleShape shape : shapes) {
+						_model.add(shape, _parent);
+					}
+				} finally {
+					_model.commitBatch();
+				}
+				_added = true;
+			}
+			setProgress(100);
+			return shapes;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Returns the files below the directory that ImageIO has a reader for,
+	 * judged by their suffixes, in order of their paths.
+	 */
+	private List<File> imageFiles() throws IOException {
+		Set<String> suffixes = new HashSet<String>();
+		for (String suffix : ImageIO.getReaderFileSuffixes()) {
+			suffixes.add(suffix.toLowerCase(Locale.ROOT));
+		}
+		List<File> files = new ArrayList<File>();
+		addImageFiles(_directory, suffixes, files);
+		Collections.sort(files);
+		return files;
+	}
+
+	private static void addImageFiles(File directory, Set<String> suffixes, List<File> files) throws IOException {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			throw new IOException("Can't list " + directory);
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				addImageFiles(child, suffixes, files);
+			} else if (child.isFile()) {
+				String name = child.getName();
+				if (suffixes.contains(name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT))) {
+					files.add(child);
+				}
+			}
+		}
+	}
+}
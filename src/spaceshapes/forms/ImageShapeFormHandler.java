@@ -1,12 +1,10 @@
 package spaceshapes.forms;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
-import javax.imageio.ImageIO;
 import javax.swing.SwingWorker;
 
 import spaceshapes.ImageRectangleShape;
@@ -51,8 +49,17 @@ public class ImageShapeFormHandler implements FormHandler {
 	public void processForm(Form form) {	
 		long startTime = System.currentTimeMillis();
 
-		SwingWorker<BufferedImage, Void> worker = new ImageScalingWorker(form);
-		worker.execute();
+		// An image that is already cached can be used straight away;
+		// otherwise it's loaded and scaled on a background thread.
+		File imageFile = form.getFieldValue(File.class, ImageFormElement.IMAGE);
+		int width = form.getFieldValue(Integer.class, ShapeFormElement.WIDTH);
+		BufferedImage scaledImage = ImageCache.shared().get(imageFile, width);
+		if (scaledImage != null) {
+			addShape(form, scaledImage);
+		} else {
+			SwingWorker<BufferedImage, Void> worker = new ImageScalingWorker(form);
+			worker.execute();
+		}
 
 		long elapsedTime = System.currentTimeMillis() - startTime;
 		System.out.println("Image loading and scaling took " + elapsedTime + "ms.");
@@ -66,53 +73,38 @@ public class ImageShapeFormHandler implements FormHandler {
 		}
 
 		@Override
-		protected BufferedImage doInBackground() {
+		protected BufferedImage doInBackground() throws IOException {
 			// Read field values from the form.
 			File imageFile = (File)_form.getFieldValue(File.class, ImageFormElement.IMAGE);
 			int width = _form.getFieldValue(Integer.class, ShapeFormElement.WIDTH);
 
-			// Load the original image (ImageIO.read() is a blocking call).
-			BufferedImage fullImage = null;
-			try {
-				fullImage = ImageIO.read(imageFile);
-			} catch(IOException e) {
-				System.out.println("Error loading image.");
-			}
-			System.out.println(imageFile);
-			int fullImageWidth = fullImage.getWidth();
-			int fullImageHeight = fullImage.getHeight();
-
-			BufferedImage scaledImage = fullImage;
-
-			// Scale the image if necessary.
-			if(fullImageWidth > width) {
-				double scaleFactor = (double)width / (double)fullImageWidth;
-				int height = (int)((double)fullImageHeight * scaleFactor);
-
-				scaledImage = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB); 
-				Graphics2D g = scaledImage.createGraphics();
-
-				// Method drawImage() scales an already loaded image. The 
-				// ImageObserver argument is null because we don't need to monitor 
-				// the scaling operation.
-				g.drawImage(fullImage, 0, 0, width, height, null);
-			}
-			return scaledImage;
+			// Load and scale the image (ImageIO.read() is a blocking call).
+			// processForm() has already looked for it in the cache.
+			return ImageCache.shared().read(imageFile, width);
 		}
 
 		protected void done() {
 			try {
 				BufferedImage scaledImage = get();
-				int deltaX = _form.getFieldValue(Integer.class, ShapeFormElement.DELTA_X);
-				int deltaY = _form.getFieldValue(Integer.class, ShapeFormElement.DELTA_Y);
-				
-				// Create the new Shape and add it to the model.
-				ImageRectangleShape imageShape = new ImageRectangleShape(deltaX, deltaY, scaledImage);
-				_model.add(imageShape, _parentOfNewShape);
+				addShape(_form, scaledImage);
 			}
 			catch (InterruptedException | ExecutionException e) {
 				e.printStackTrace();
 			}
 		}
 	}
+
+	/*
+	 * Creates an ImageRectangleShape from form and scaledImage, and adds it
+	 * to the model.
+	 */
+	private void addShape(Form form, BufferedImage scaledImage) {
+		int deltaX = form.getFieldValue(Integer.class, ShapeFormElement.DELTA_X);
+		int deltaY = form.getFieldValue(Integer.class, ShapeFormElement.DELTA_Y);
+
+		// Create the new Shape and add it to the model.
+		File imageFile = form.getFieldValue(File.class, ImageFormElement.IMAGE);
+		ImageRectangleShape imageShape = new ImageRectangleShape(deltaX, deltaY, scaledImage, imageFile.getPath());
+		_model.add(imageShape, _parentOfNewShape);
+	}
 }
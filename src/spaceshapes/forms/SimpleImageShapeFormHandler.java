@@ -1,12 +1,9 @@
 package spaceshapes.forms;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
-import javax.imageio.ImageIO;
-
 import spaceshapes.ImageRectangleShape;
 import spaceshapes.CarrierShape;
 import spaceshapes.ShapeModel;
@@ -58,35 +55,17 @@ public class SimpleImageShapeFormHandler implements FormHandler {
 		int deltaY = form.getFieldValue(Integer.class, ShapeFormElement.DELTA_Y);
 		
 
-		// Load the original image (ImageIO.read() is a blocking call).
-		BufferedImage fullImage = null;
+		// Load and scale the image, unless it's already cached.
+		BufferedImage scaledImage = null;
 		try {
-			fullImage = ImageIO.read(imageFile);
+			scaledImage = ImageCache.shared().load(imageFile, width);
 		} catch(IOException e) {
 			System.out.println("Error loading image.");
-		}
-		
-		int fullImageWidth = fullImage.getWidth();
-		int fullImageHeight = fullImage.getHeight();
-				
-		BufferedImage scaledImage = fullImage;
-				
-		// Scale the image if necessary.
-		if(fullImageWidth > width) {
-			double scaleFactor = (double)width / (double)fullImageWidth;
-			int height = (int)((double)fullImageHeight * scaleFactor);
-					
-			scaledImage = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB); 
-			Graphics2D g = scaledImage.createGraphics();
-					
-			// Method drawImage() scales an already loaded image. The 
-			// ImageObserver argument is null because we don't need to monitor 
-			// the scaling operation.
-			g.drawImage(fullImage, 0, 0, width, height, null);
+			return;
 		}
 		
 		// Create the new Shape and add it to the model.
-		ImageRectangleShape imageShape = new ImageRectangleShape(deltaX, deltaY, scaledImage);
+		ImageRectangleShape imageShape = new ImageRectangleShape(deltaX, deltaY, scaledImage, imageFile.getPath());
 		_model.add(imageShape, _parentOfNewShape);
 		
 		long elapsedTime = System.currentTimeMillis() - startTime;
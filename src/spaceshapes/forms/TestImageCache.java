@@ -0,0 +1,119 @@
+package spaceshapes.forms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that ImageCache returns cached images, evicts the least
+ * recently used ones when full, and keeps its counters.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestImageCache {
+
+	private File _imageFile;
+
+	/**
+	 * Creates a 200x100 image file for the tests to load.
+	 */
+	@Before
+	public void createImageFile() throws IOException {
+		_imageFile = File.createTempFile("cache", ".png");
+		ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), "png", _imageFile);
+	}
+
+	@After
+	public void deleteImageFile() {
+		_imageFile.delete();
+	}
+
+	/**
+	 * Checks that images are loaded and scaled once per width, and that
+	 * changing the file causes it to be loaded again.
+	 */
+	@Test
+	public void testLoad() throws IOException {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES);
+		assertNull(cache.lastDecoded());
+		BufferedImage image = cache.load(_imageFile, 80);
+		assertEquals(80, image.getWidth());
+		assertEquals(40, image.getHeight());
+		assertSame(image, cache.lastDecoded().image());
+		assertEquals(200, cache.lastDecoded().sourceWidth());
+		assertSame(image, cache.load(_imageFile, 80));
+		BufferedImage fullImage = cache.load(_imageFile, 300);
+		assertEquals(200, fullImage.getWidth());
+		assertEquals(1, cache.hitCount());
+		assertEquals(2, cache.missCount());
+		assertEquals(2, cache.size());
+		assertEquals(80 * 40 * 4 + ImageCache.sizeOf(fullImage), cache.byteCount());
+
+		_imageFile.setLastModified(_imageFile.lastModified() - 10000);
+		assertNull(cache.get(_imageFile, 80));
+		assertNotSame(image, cache.load(_imageFile, 80));
+
+		try {
+			cache.load(new File(_imageFile.getPath() + ".missing"), 80);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+		try {
+			cache.get(_imageFile, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Checks that the least recently used images are evicted once the byte
+	 * budget is exceeded, and can be recovered until they're reclaimed.
+	 */
+	@Test
+	public void testEviction() {
+		File first = new File("first.png");
+		File second = new File("second.png");
+		File third = new File("third.png");
+		BufferedImage firstImage = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		BufferedImage secondImage = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		BufferedImage thirdImage = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+
+		ImageCache cache = new ImageCache(2 * 10 * 10 * 4);
+		cache.put(first, 10, firstImage);
+		cache.put(second, 10, secondImage);
+		assertSame(firstImage, cache.get(first, 10));
+		cache.put(third, 10, thirdImage);
+		assertEquals(1, cache.evictionCount());
+		assertEquals(2, cache.size());
+		assertEquals(2 * 10 * 10 * 4, cache.byteCount());
+
+		// secondImage was least recently used. It's still strongly held here,
+		// so it can't have been reclaimed.
+		assertSame(secondImage, cache.get(second, 10));
+		assertEquals(1, cache.softHitCount());
+		assertEquals(2, cache.evictionCount());
+		assertSame(thirdImage, cache.get(third, 10));
+		assertEquals(2, cache.size());
+
+		cache.clear();
+		assertNull(cache.get(first, 10));
+		assertEquals(0, cache.byteCount());
+		assertEquals(3, cache.hitCount());
+		assertEquals(1, cache.missCount());
+	}
+}
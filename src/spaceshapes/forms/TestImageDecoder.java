@@ -0,0 +1,80 @@
+package spaceshapes.forms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that ImageDecoder subsamples large images, and scales them
+ * to the width asked for.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestImageDecoder {
+
+	private File _imageFile;
+
+	/**
+	 * Creates a 3000x2000 image file, red on the left and blue on the right.
+	 */
+	@Before
+	public void createImageFile() throws IOException {
+		BufferedImage image = new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, 1500, 2000);
+		g.setColor(Color.BLUE);
+		g.fillRect(1500, 0, 1500, 2000);
+		g.dispose();
+		_imageFile = File.createTempFile("decoder", ".png");
+		ImageIO.write(image, "png", _imageFile);
+	}
+
+	@After
+	public void deleteImageFile() {
+		_imageFile.delete();
+	}
+
+	/**
+	 * Checks that a large image is subsampled, and scaled to the requested
+	 * width with its aspect kept, using a fraction of a full decode's memory.
+	 */
+	@Test
+	public void testSubsampledDecode() throws IOException {
+		ImageDecoder.Decoded decoded = ImageDecoder.decode(_imageFile, 250);
+		BufferedImage image = decoded.image();
+		assertEquals(3000, decoded.sourceWidth());
+		assertEquals(2000, decoded.sourceHeight());
+		assertEquals(6, decoded.subsampling());
+		assertEquals(250, image.getWidth());
+		assertEquals(166, image.getHeight());
+		assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+		assertEquals(Color.RED.getRGB(), image.getRGB(10, 80));
+		assertEquals(Color.BLUE.getRGB(), image.getRGB(240, 80));
+		assertTrue(decoded.peakBytes() < 3000 * 2000 * 3 / 20);
+		assertTrue(decoded.nanos() > 0);
+	}
+
+	/**
+	 * Checks that images no wider than the requested width aren't scaled.
+	 */
+	@Test
+	public void testNarrowImage() throws IOException {
+		ImageDecoder.Decoded decoded = ImageDecoder.decode(_imageFile, 3000);
+		assertEquals(1, decoded.subsampling());
+		assertEquals(3000, decoded.image().getWidth());
+		assertEquals(2000, decoded.image().getHeight());
+	}
+}
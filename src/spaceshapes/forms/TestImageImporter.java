@@ -0,0 +1,167 @@
+package spaceshapes.forms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spaceshapes.CarrierShape;
+import spaceshapes.ImageRectangleShape;
+import spaceshapes.ShapeModel;
+import spaceshapes.ShapeModelEvent;
+import spaceshapes.ShapeModelListener;
+
+/**
+ * Class to test that ImageImporter imports a directory of images in a
+ * single batch, skipping files that aren't images, and that cancelling and
+ * failing imports add no shapes.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestImageImporter {
+
+	private static final int IMAGE_COUNT = 30;
+
+	private File _directory;
+	private ShapeModel _model;
+	private CarrierShape _carrier;
+
+	/**
+	 * Creates a directory holding IMAGE_COUNT images, some in a
+	 * subdirectory, along with a corrupt image and a text file.
+	 */
+	@Before
+	public void createDirectory() throws IOException {
+		_directory = Files.createTempDirectory("import").toFile();
+		File subdirectory = new File(_directory, "more");
+		subdirectory.mkdir();
+		for (int i = 0; i < IMAGE_COUNT; i++) {
+			File file = new File(i % 3 == 0 ? subdirectory : _directory, String.format("sprite%02d.png", i));
+			ImageIO.write(new BufferedImage(100 + i, 50, BufferedImage.TYPE_INT_RGB), "png", file);
+		}
+		Files.write(new File(_directory, "corrupt.png").toPath(), new byte[] {1, 2, 3});
+		Files.write(new File(_directory, "notes.txt").toPath(), new byte[] {1, 2, 3});
+
+		_model = new ShapeModel(new Dimension(500, 500));
+		_carrier = new CarrierShape(0, 0, 1, 1, 300, 300);
+		_model.add(_carrier, _model.root());
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(_directory);
+	}
+
+	/**
+	 * Checks that every image is added to the carrier, scaled, with one
+	 * Batch event.
+	 */
+	@Test
+	public void testImport() throws Exception {
+		final int[] events = new int[1];
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				assertSame(ShapeModelEvent.EventType.Batch, event.eventType());
+				events[0]++;
+			}
+		});
+
+		ImageImporter importer = new ImageImporter(_model, _carrier, _directory, 40, 5, 4);
+		importer.execute();
+		List<ImageRectangleShape> shapes = importer.get();
+
+		assertEquals(IMAGE_COUNT + 1, importer.fileCount());
+		assertEquals(IMAGE_COUNT + 1, importer.loadedCount());
+		assertEquals(1, importer.failedCount());
+		assertEquals(IMAGE_COUNT, shapes.size());
+		assertEquals(IMAGE_COUNT, _carrier.shapeCount());
+		assertEquals(1, events[0]);
+		for (int i = 0; i < IMAGE_COUNT; i++) {
+			ImageRectangleShape shape = shapes.get(i);
+			assertSame(shape, _carrier.shapeAt(i));
+			assertEquals(40, shape.width());
+			assertTrue(shape.deltaX() >= 1 && shape.deltaX() <= 5);
+			assertTrue(shape.deltaY() >= 1 && shape.deltaY() <= 5);
+		}
+		assertTrue(shapes.get(0).source().endsWith("sprite00.png"));
+	}
+
+	/**
+	 * Checks that an import cancelled while images are being loaded adds no
+	 * shapes.
+	 */
+	@Test
+	public void testCancel() throws InterruptedException, ExecutionException {
+		ImageImporter importer = new ImageImporter(_model, _carrier, _directory, 40, 5, 1);
+		importer.execute();
+		while (importer.loadedCount() == 0) {
+			Thread.sleep(1);
+		}
+		assertTrue(importer.cancelImport());
+		try {
+			importer.get();
+		} catch (CancellationException e) {
+			// Expected.
+		}
+		Thread.sleep(200);
+		assertTrue(importer.loadedCount() < IMAGE_COUNT + 1);
+		assertEquals(0, _carrier.shapeCount());
+	}
+
+	/**
+	 * Checks that an import can't be cancelled once its shapes have been 
+	 * added.
+	 */
+	@Test
+	public void testCancelAfterAdding() throws InterruptedException, ExecutionException {
+		ImageImporter importer = new ImageImporter(_model, _carrier, _directory, 40, 5, 4);
+		importer.execute();
+		importer.get();
+		assertFalse(importer.cancelImport());
+		assertFalse(importer.isCancelled());
+		assertEquals(IMAGE_COUNT, _carrier.shapeCount());
+	}
+
+	/**
+	 * Checks that get() reports a directory that can't be walked.
+	 */
+	@Test
+	public void testMissingDirectory() throws InterruptedException {
+		ImageImporter importer = new ImageImporter(_model, _carrier, new File(_directory, "missing"), 40, 5, 4);
+		importer.execute();
+		try {
+			importer.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(0, _carrier.shapeCount());
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,278 @@
+package spaceshapes.shapesApp;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import spaceshapes.GraphicsPainter;
+import spaceshapes.ShapeModel;
+import spaceshapes.ShapeSnapshot;
+import spaceshapes.bench.Scenes;
+
+/**
+ * Runs a scene without a display, e.g. on a build server, and reports how
+ * quickly it can be clocked. A ShapeModel is built from the animation bounds
+ * held by ShapeConfig and a scene description, then clocked a number of
+ * times, either as fast as possible or at a target tick rate.
+ *
+ * Usage: java spaceshapes.shapesApp.HeadlessRunner [options]
+ *   -scene kind:size[:n]  scene to run, one of flat:size, balanced:size:fanOut
+ *                         or deep:size:depth (default flat:10000)
+ *   -ticks n              number of ticks measured (default 1000)
+ *   -warmup n             number of ticks run before measuring (default 200)
+ *   -rate n               target ticks per second, 0 for as fast as
+ *                         possible (default 0)
+ *   -mode m               ClockMode: Tree, Arrays or Parallel (default Tree)
+ *   -render               paint a frame after each tick with a
+ *                         GraphicsPainter, into an offscreen image
+ *
+ * The runner reports throughput in ticks per second, the median (p50) and
+ * 99th percentile (p99) tick latency, the bytes allocated per tick by the
+ * clocking thread, and the number and total length of garbage collections
+ * while measuring. When rendering, frame latencies are reported too, and
+ * the tick latency covers both the tick and its frame.
+ *
+ * @author Dave Shin
+ */
+public class HeadlessRunner {
+
+	private String _scene = "flat:10000";
+	private int _ticks = 1000;
+	private int _warmupTicks = 200;
+	private int _rate = 0;
+	private ShapeModel.ClockMode _mode = ShapeModel.ClockMode.Tree;
+	private boolean _render = false;
+
+	// Offscreen image into which frames are rendered, if rendering.
+	private BufferedImage _image;
+
+	/**
+	 * Runs a scene as specified by the command line arguments.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		HeadlessRunner runner = new HeadlessRunner();
+		ShapeModel model;
+		try {
+			runner.parse(args);
+			model = runner.buildScene(ShapeConfig.instance().getAnimationBounds());
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: HeadlessRunner [-scene kind:size[:n]] [-ticks n] [-warmup n] [-rate n] [-mode m] [-render]");
+			System.exit(1);
+			return;
+		}
+		runner.run(model);
+	}
+
+	/*
+	 * Sets this HeadlessRunner's options from command line arguments.
+	 */
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("-render")) {
+				_render = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try {
+				if (option.equals("-scene")) {
+					_scene = value;
+				} else if (option.equals("-ticks")) {
+					_ticks = Integer.parseInt(value);
+				} else if (option.equals("-warmup")) {
+					_warmupTicks = Integer.parseInt(value);
+				} else if (option.equals("-rate")) {
+					_rate = Integer.parseInt(value);
+				} else if (option.equals("-mode")) {
+					_mode = ShapeModel.ClockMode.valueOf(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (IllegalArgumentException e) {
+				if (e instanceof NumberFormatException || option.equals("-mode")) {
+					throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+				}
+				throw e;
+			}
+		}
+		if (_ticks < 1 || _warmupTicks < 0 || _rate < 0 || _rate > ShapeConfig.MAX_RATE) {
+			throw new IllegalArgumentException("Tick counts must be positive and the rate in the range 0 .. "
+					+ ShapeConfig.MAX_RATE);
+		}
+	}
+
+	/*
+	 * Builds the ShapeModel described by the scene option.
+	 */
+	private ShapeModel buildScene(Dimension bounds) {
+		String[] parts = _scene.split(":");
+		try {
+			int size = parts.length > 1 ? Integer.parseInt(parts[1]) : 10000;
+			if (parts[0].equals("flat") && parts.length <= 2) {
+				return Scenes.flat(bounds, size);
+			} else if (parts[0].equals("balanced") && parts.length <= 3) {
+				int fanOut = parts.length > 2 ? Integer.parseInt(parts[2]) : 8;
+				if (fanOut > 1) {
+					return Scenes.balanced(bounds, size, fanOut);
+				}
+			} else if (parts[0].equals("deep") && parts.length <= 3) {
+				int depth = parts.length > 2 ? Integer.parseInt(parts[2]) : 50;
+				if (depth >= 0) {
+					return Scenes.deep(bounds, size, depth);
+				}
+			}
+		} catch (NumberFormatException e) {
+			// Fall through to report the invalid scene.
+		}
+		throw new IllegalArgumentException("Invalid scene " + _scene);
+	}
+
+	/*
+	 * Clocks model and reports the measurements.
+	 */
+	private void run(ShapeModel model) {
+		model.setClockMode(_mode);
+		if (_render) {
+			Dimension bounds = ShapeConfig.instance().getAnimationBounds();
+			_image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+		}
+		com.sun.management.ThreadMXBean threads = allocationCounter();
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+		for (int i = 0; i < _warmupTicks; i++) {
+			tick(model, null, i);
+		}
+
+		long[] tickNanos = new long[_ticks];
+		long[] frameNanos = _render ? new long[_ticks] : null;
+		long collectionsBefore = collectionCount(collectors);
+		long collectionMillisBefore = collectionMillis(collectors);
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threads == null ? 0 : threads.getThreadAllocatedBytes(threadId);
+
+		long interval = _rate == 0 ? 0 : 1000000000L / _rate;
+		long start = System.nanoTime();
+		long next = start;
+		for (int i = 0; i < _ticks; i++) {
+			if (interval > 0) {
+				// Wait for the tick's scheduled time. If a tick overruns,
+				// the following ticks run late rather than being skipped.
+				next += interval;
+				for (long wait = next - System.nanoTime(); wait > 0; wait = next - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			long tickStart = System.nanoTime();
+			tick(model, frameNanos, i);
+			tickNanos[i] = System.nanoTime() - tickStart;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long allocated = threads == null ? -1 : threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		long collections = collectionCount(collectors) - collectionsBefore;
+		long collectionMillis = collectionMillis(collectors) - collectionMillisBefore;
+
+		System.out.println("Scene " + _scene + ", " + _mode
+				+ ", " + _ticks + " ticks" + (_rate == 0 ? "" : " at " + _rate + " ticks/s")
+				+ (_render ? ", rendered" : ""));
+		System.out.println(String.format("  Throughput:   %.1f ticks/s", _ticks * 1e9 / elapsed));
+		System.out.println("  Tick latency: " + percentiles(tickNanos));
+		if (_render) {
+			System.out.println("  Frame latency: " + percentiles(frameNanos));
+		}
+		System.out.println("  Allocation:   "
+				+ (allocated < 0 ? "n/a" : String.format("%.1f B/tick", (double)allocated / _ticks)));
+		System.out.println("  GC:           " + collections + " collections, " + collectionMillis + " ms"
+				+ (collections == 0 ? "" : String.format(" (%.1f ms mean pause)", (double)collectionMillis / collections)));
+	}
+
+	/*
+	 * Clocks model once and, if rendering, paints a frame. If frameNanos is
+	 * not null, the time taken to paint is recorded at index i.
+	 */
+	private void tick(ShapeModel model, long[] frameNanos, int i) {
+		model.clock();
+		if (_render) {
+			long frameStart = System.nanoTime();
+			Graphics g = _image.getGraphics();
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, _image.getWidth(), _image.getHeight());
+			g.setColor(Color.BLACK);
+			GraphicsPainter painter = new GraphicsPainter(g);
+			ShapeSnapshot snapshot = model.acquireSnapshot();
+			if (snapshot != null) {
+				snapshot.paint(painter);
+				snapshot.release();
+			} else {
+				synchronized (model) {
+					model.root().paint(painter);
+				}
+			}
+			g.dispose();
+			if (frameNanos != null) {
+				frameNanos[i] = System.nanoTime() - frameStart;
+			}
+		}
+	}
+
+	/*
+	 * Returns the median and 99th percentile of latencies, which is sorted.
+	 */
+	private static String percentiles(long[] latencies) {
+		Arrays.sort(latencies);
+		return String.format("p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+				percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+				latencies[latencies.length - 1] / 1e6);
+	}
+
+	/*
+	 * Returns the specified percentile of sorted, using the nearest rank.
+	 */
+	private static long percentile(long[] sorted, int percent) {
+		int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	/*
+	 * Returns the ThreadMXBean used to measure allocation, or null if the JVM
+	 * doesn't support measuring it.
+	 */
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean)threads;
+			if (counter.isThreadAllocatedMemorySupported()) {
+				counter.setThreadAllocatedMemoryEnabled(true);
+				return counter;
+			}
+		}
+		return null;
+	}
+
+	private static long collectionCount(List<GarbageCollectorMXBean> collectors) {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : collectors) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long collectionMillis(List<GarbageCollectorMXBean> collectors) {
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : collectors) {
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return millis;
+	}
+}
@@ -36,16 +36,26 @@ public class ShapeConfig {
 	public static final int DEFAULT_ANIMATION_HEIGHT = 500;
 	public static final int MAX_ANIMATION_WIDTH = 1000;
 	public static final int MAX_ANIMATION_HEIGHT = 1000;
+	public static final int DEFAULT_TICK_RATE = 40;
+	public static final int DEFAULT_FRAME_RATE = 40;
+	public static final int DEFAULT_TABLE_REFRESH_RATE = 10;
+	public static final int MAX_RATE = 1000;
 	
 	// Property names (keys).
 	private static final String ANIMATION_WIDTH = "animation_width";
 	private static final String ANIMATION_HEIGHT = "animation_height";
 	private static final String SHAPES = "shape_classes";
+	private static final String TICK_RATE = "tick_rate";
+	private static final String FRAME_RATE = "frame_rate";
+	private static final String TABLE_REFRESH_RATE = "table_refresh_rate";
 	
 	// Property values.
 	private Dimension _bounds;
 	private String[] _shapeClassNames;
 	private List<Class<? extends Shape>> _shapeClasses;
+	private int _tickRate;
+	private int _frameRate;
+	private int _tableRefreshRate;
 	
 	// Singleton instance.
 	private static ShapeConfig instance;
@@ -98,6 +108,20 @@ public class ShapeConfig {
 			}
 			_bounds = new Dimension(width, height);
 			
+			// Read rate properties, restoring defaults for invalid values.
+			_tickRate = getBound(TICK_RATE, DEFAULT_TICK_RATE, props);
+			_frameRate = getBound(FRAME_RATE, DEFAULT_FRAME_RATE, props);
+			_tableRefreshRate = getBound(TABLE_REFRESH_RATE, DEFAULT_TABLE_REFRESH_RATE, props);
+			if(_tickRate < 1 || _tickRate > MAX_RATE) {
+				_tickRate = DEFAULT_TICK_RATE;
+			}
+			if(_frameRate < 1 || _frameRate > MAX_RATE) {
+				_frameRate = DEFAULT_FRAME_RATE;
+			}
+			if(_tableRefreshRate < 1 || _tableRefreshRate > MAX_RATE) {
+				_tableRefreshRate = DEFAULT_TABLE_REFRESH_RATE;
+			}
+			
 			// Set shapes property.
 			String shapeTypes = props.getProperty(SHAPES);
 			if(shapeTypes == null) {
@@ -120,6 +144,36 @@ public class ShapeConfig {
 		return _bounds;
 	}
 	
+	/**
+	 * Returns the number of times per second that the animation is clocked. 
+	 * This method returns a value in the range 1 .. MAX_RATE; if the 
+	 * properties file specifies a value outside this range, 
+	 * DEFAULT_TICK_RATE is returned.
+	 */
+	public int getTickRate() {
+		return _tickRate;
+	}
+	
+	/**
+	 * Returns the number of times per second that the animation view is
+	 * repainted. This method returns a value in the range 1 .. MAX_RATE; if 
+	 * the properties file specifies a value outside this range, 
+	 * DEFAULT_FRAME_RATE is returned.
+	 */
+	public int getFrameRate() {
+		return _frameRate;
+	}
+	
+	/**
+	 * Returns the number of times per second that the tabular view is 
+	 * refreshed as shapes move. This method returns a value in the range 
+	 * 1 .. MAX_RATE; if the properties file specifies a value outside this 
+	 * range, DEFAULT_TABLE_REFRESH_RATE is returned.
+	 */
+	public int getTableRefreshRate() {
+		return _tableRefreshRate;
+	}
+	
 	/**
 	 * Returns an array of strings containing names of shape classes. If no 
 	 * shape classes are named in the properties file, this method returns an 
@@ -198,6 +252,10 @@ public class ShapeConfig {
 		System.out.println("Animation bounds ...");
 		System.out.println("  " + config.getAnimationBounds());
 		
+		System.out.println("Tick and frame rates ...");
+		System.out.println("  " + config.getTickRate() + " ticks/s, " + config.getFrameRate() + " frames/s, " 
+				+ config.getTableRefreshRate() + " table refreshes/s");
+		
 		System.out.println("Shape class names ... ");
 		for(String className : config.getShapeClassNames()) {
 			System.out.println("  " + className);
@@ -7,21 +7,29 @@ import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JList;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTree;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.plaf.basic.BasicComboBoxRenderer;
@@ -35,10 +43,15 @@ import spaceshapes.OvalShape;
 import spaceshapes.RectangleShape;
 import spaceshapes.Shape;
 import spaceshapes.ShapeModel;
+import spaceshapes.SimulationLoop;
+import spaceshapes.SpatialIndex;
 import spaceshapes.forms.FormResolver;
+import spaceshapes.forms.ImageImporter;
 import spaceshapes.forms.util.FormComponent;
 import spaceshapes.forms.util.FormHandler;
 import spaceshapes.views.AnimationView;
+import spaceshapes.views.ChildPage;
+import spaceshapes.views.EventDispatchAdapter;
 import spaceshapes.views.TableModelAdapter;
 import spaceshapes.views.Task2;
 
@@ -48,10 +61,12 @@ import spaceshapes.views.Task2;
  * comprising three views of a ShapeModel: an animation view, a table view and
  * a tree view. In addition the GUI includes buttons and associated event
  * handlers to add new shapes to the animation and to remove existing shapes. 
- * A SpaceShape object uses a Timer to progress the animation; this results in the 
- * ShapeModel being sent a clock() message to which it responds by moving its
- * constituent Shape objects and then by notifying the three views 
- * (ShapeModelListeners). The application uses a ShapeConfig object to read 
+ * A SpaceShape object uses a SimulationLoop to progress the animation on a 
+ * dedicated thread; this results in the ShapeModel being sent a clock() 
+ * message at a fixed rate to which it responds by moving its constituent 
+ * Shape objects and then by notifying the three views (ShapeModelListeners).
+ * The animation view repaints at its own frame rate, while the table and 
+ * tree views receive events on the Event Dispatch thread. The application uses a ShapeConfig object to read 
  * properties from the spaceshapes.properties file, one of which is the name of a
  * ShapeFactory implementation class that is used to create Shapes on request. 
  * 
@@ -60,11 +75,16 @@ import spaceshapes.views.Task2;
  */
 @SuppressWarnings("serial")
 public class SpaceShape extends JPanel {
-	private static final int DELAY = 25;
+	// Width of, and greatest speed of, shapes imported from a directory.
+	private static final int IMPORT_WIDTH = 64;
+	private static final int IMPORT_MAX_DELTA = 10;
 
 	// Underlying model for the application.
 	private ShapeModel _model;
 	
+	// Drives the model's clock.
+	private SimulationLoop _simulation;
+	
 	private ShapeClassComboBoxModel _comboBoxModel;
 	
 	// View instances.
@@ -82,6 +102,7 @@ public class SpaceShape extends JPanel {
 	// Swing components to handle user input.
 	private JButton _newShape;
 	private JButton _deleteShape;
+	private JButton _importImages;
 	private JComboBox<Class<? extends Shape>> _shapeTypes;
 	
 	// Shape selected in the JTree view.
@@ -94,6 +115,8 @@ public class SpaceShape extends JPanel {
 		// Instantiate model and populate it with an initial set of shapes.
 		ShapeConfig config = ShapeConfig.instance();
 		_model = new ShapeModel(config.getAnimationBounds());
+		_model.setSnapshotsEnabled(true);
+		_model.setSpatialIndex(SpatialIndex.DEFAULT_CELL_SIZE);
 		populateModel();
 		
 		_comboBoxModel = new ShapeClassComboBoxModel();
@@ -101,10 +124,14 @@ public class SpaceShape extends JPanel {
 		// Instantiate GUI objects and construct GUI.
 		buildGUI();
 		
+		// Track changed regions so that the animation view need only repaint
+		// the shapes that have moved.
+		_model.setDirtyRegionTracking(_animationView.getFontMetrics(_animationView.getFont()));
+		
 		// Register views with models.
 		_model.addShapeModelListener(_animationView);
-		_model.addShapeModelListener(_tableModelAdapter);
-		_model.addShapeModelListener(_treeModelAdapter);
+		_model.addShapeModelListener(new EventDispatchAdapter(_tableModelAdapter));
+		_model.addShapeModelListener(new EventDispatchAdapter(_treeModelAdapter));
 		
 		// Setup event handlers to process user input.
 		setUpEventHandlers();
@@ -113,12 +140,11 @@ public class SpaceShape extends JPanel {
 		_treeView.setSelectionPath(new TreePath(_model.root()));
 		
 		// Start animation.
-		Timer timer = new Timer(DELAY, new ActionListener() {
-			public void actionPerformed(ActionEvent e) {
-				_model.clock();
-			}
-		} );
-		timer.start();
+		_animationView.setBatchedRendering(true);
+		_animationView.setFrameRate(config.getFrameRate());
+		_tableModelAdapter.setRefreshRate(config.getTableRefreshRate());
+		_simulation = new SimulationLoop(_model, config.getTickRate());
+		_simulation.start();
 	}
 
 	private static void createAndShowGUI() {
@@ -145,6 +171,7 @@ public class SpaceShape extends JPanel {
 	 */
 	private void populateModel() {
 		CarrierShape root = _model.root();
+		_model.beginBatch();
 		
 		_model.add(new RectangleShape(440, 0, 10, 10, 4, 2), root);
 		//_model.add(new RectangleShape(0, 0, 5, 7), root);
@@ -160,6 +187,7 @@ public class SpaceShape extends JPanel {
 		_model.add(new OvalShape(10,10,2,2, 60, 60), child);
 		_model.add(child, root);
 		_model.add(new DynamicShape(0,0,0,20,35,25), root);
+		_model.commitBatch();
 	}
 	
 	/*
@@ -191,6 +219,67 @@ public class SpaceShape extends JPanel {
 			}
 		});
 		
+		/*
+		 * Event handling code to be executed whenever the user presses the
+		 * "Import" button. The user chooses a directory, and every image in
+		 * it is added to the selected CarrierShape by an ImageImporter,
+		 * which loads the images on background threads. A ProgressMonitor
+		 * shows the import's progress and allows it to be cancelled, and the
+		 * user is told if the import fails or some files can't be read.
+		 */
+		_importImages.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser();
+				chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				if(chooser.showDialog(SpaceShape.this, "Import") != JFileChooser.APPROVE_OPTION) {
+					return;
+				}
+				File directory = chooser.getSelectedFile();
+				
+				final ProgressMonitor monitor = new ProgressMonitor(SpaceShape.this, 
+						"Importing images from " + directory.getName(), "", 0, 100);
+				final ImageImporter importer = new ImageImporter(_model, (CarrierShape)_shapeSelected, directory,
+						IMPORT_WIDTH, IMPORT_MAX_DELTA, ImageImporter.DEFAULT_MAX_IN_FLIGHT) {
+					/*
+					 * Closes the progress monitor and tells the user if the
+					 * import failed, or if some files couldn't be read.
+					 */
+					@Override
+					protected void done() {
+						monitor.close();
+						if(isCancelled()) {
+							return;
+						}
+						try {
+							get();
+							if(failedCount() > 0) {
+								JOptionPane.showMessageDialog(SpaceShape.this, 
+										failedCount() + " of " + fileCount() + " files couldn't be read as images.",
+										"Import", JOptionPane.WARNING_MESSAGE);
+							}
+						} catch(InterruptedException e) {
+							// Can't happen: the worker is done.
+						} catch(ExecutionException e) {
+							JOptionPane.showMessageDialog(SpaceShape.this, 
+									"Couldn't import images: " + e.getCause().getMessage(),
+									"Import", JOptionPane.ERROR_MESSAGE);
+						}
+					}
+				};
+				importer.addPropertyChangeListener(new PropertyChangeListener() {
+					public void propertyChange(PropertyChangeEvent event) {
+						if(monitor.isCanceled()) {
+							importer.cancelImport();
+						} else if("progress".equals(event.getPropertyName())) {
+							monitor.setProgress(importer.getProgress());
+							monitor.setNote(importer.loadedCount() + " of " + importer.fileCount() + " images loaded");
+						}
+					}
+				});
+				importer.execute();
+			}
+		});
+		
 		/*
 		 * Event handling code to be executed whenever the user presses the
 		 * "Delete" button. The shape that is currently selected in the JTree
@@ -202,12 +291,28 @@ public class SpaceShape extends JPanel {
 				Shape selection = _shapeSelected;
 				CarrierShape parent = selection.parent();
 				
-				_treeView.setSelectionPath(new TreePath(parent.path().toArray()));
+				_treeView.setSelectionPath(_treeModelAdapter.treePath(parent));
 				_model.remove(selection);
 				
 			}
 		});
 		
+		/*
+		 * Event handling code to be executed whenever the user clicks within
+		 * the animation view. The topmost shape under the mouse, found using
+		 * the model's SpatialIndex, is selected in the JTree view.
+		 */
+		_animationView.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				Shape shape = _model.spatialIndex().shapeAt(e.getX(), e.getY());
+				if(shape != null) {
+					TreePath path = _treeModelAdapter.treePath(shape);
+					_treeView.setSelectionPath(path);
+					_treeView.scrollPathToVisible(path);
+				}
+			}
+		});
+		
 		/*
 		 * Event handling code to be executed whenever the user selects a node
 		 * within the JTree view. The event handler records which shape is
@@ -219,7 +324,19 @@ public class SpaceShape extends JPanel {
 		_treeView.addTreeSelectionListener(new TreeSelectionListener() {
 			public void valueChanged(TreeSelectionEvent e) {
 				TreePath selectionPath = _treeView.getSelectionPath();
-				_shapeSelected = (Shape)selectionPath.getLastPathComponent();
+				Object node = selectionPath.getLastPathComponent();
+				
+				/*
+				 * Selecting a page of a CarrierShape's children selects the
+				 * CarrierShape, with the table scrolled to the page's first
+				 * child.
+				 */
+				ChildPage page = null;
+				if(node instanceof ChildPage) {
+					page = (ChildPage)node;
+					node = page.carrier();
+				}
+				_shapeSelected = (Shape)node;
 				
 				/*
 				 * Enable button fNewShape only if what is selected in the 
@@ -227,6 +344,7 @@ public class SpaceShape extends JPanel {
 				 * added to CarrierShape instances. 
 				 */
 				_newShape.setEnabled(_shapeSelected instanceof CarrierShape);
+				_importImages.setEnabled(_shapeSelected instanceof CarrierShape);
 				
 				/*
 				 * Enable button fDeleteShape only if what is selected in the
@@ -240,6 +358,9 @@ public class SpaceShape extends JPanel {
 				 * selected in the JTree component.
 				 */
 				_tableModelAdapter.setAdaptee(_shapeSelected);
+				if(page != null) {
+					_tabularView.scrollRectToVisible(_tabularView.getCellRect(page.first(), 0, true));
+				}
 			}
 		});
 	}
@@ -303,6 +424,7 @@ public class SpaceShape extends JPanel {
 		controlPanel.setBorder(BorderFactory.createTitledBorder("Control panel"));
 		_newShape = new JButton("New");
 		_deleteShape = new JButton("Delete");
+		_importImages = new JButton("Import");
 		_shapeTypes = new JComboBox<Class<? extends Shape>>(_comboBoxModel);
 		
 		/*
@@ -322,6 +444,7 @@ public class SpaceShape extends JPanel {
 		
 		controlPanel.add(_newShape);
 		controlPanel.add(_deleteShape);
+		controlPanel.add(_importImages);
 		controlPanel.add(_shapeTypes);
 		
 		JPanel top = new JPanel(new BorderLayout());
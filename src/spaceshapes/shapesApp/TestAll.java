@@ -14,8 +14,26 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({spaceshapes.TestCarrierShape.class, 
+	spaceshapes.TestShapeModel.class, 
+	spaceshapes.TestSimulationLoop.class, 
+	spaceshapes.TestShapeSnapshot.class, 
+	spaceshapes.TestSpatialIndex.class, 
+	spaceshapes.TestCollisionDetector.class, 
+	spaceshapes.TestViewportCulling.class, 
+	spaceshapes.TestBatchingPainter.class, 
+	spaceshapes.TestCompatibleImages.class, 
+	spaceshapes.TestTextLayoutCache.class, 
+	spaceshapes.TestBatchEvents.class, 
+	spaceshapes.TestQueuedListener.class, 
+	spaceshapes.TestSceneFile.class, 
+	spaceshapes.TestTickJournal.class, 
 	spaceshapes.views.TestTask1.class, 
 	spaceshapes.views.TestTask2.class,
+	spaceshapes.views.TestTableModelAdapter.class,
+	spaceshapes.views.TestEventDispatchAdapter.class,
+	spaceshapes.forms.TestImageCache.class, 
+	spaceshapes.forms.TestImageDecoder.class, 
+	spaceshapes.forms.TestImageImporter.class, 
 	spaceshapes.forms.TestImageShapeFormHandler.class})
 public class TestAll {}
 
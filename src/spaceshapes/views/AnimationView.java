@@ -3,14 +3,23 @@ package spaceshapes.views;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
+import spaceshapes.BatchingPainter;
 import spaceshapes.GraphicsPainter;
 import spaceshapes.CarrierShape;
 import spaceshapes.Painter;
+import spaceshapes.ShapeModel;
 import spaceshapes.ShapeModelEvent;
 import spaceshapes.ShapeModelListener;
+import spaceshapes.ShapeSnapshot;
 
 /**
  * Class that presents an animation view of a ShapeModel. This class implements
@@ -20,13 +29,54 @@ import spaceshapes.ShapeModelListener;
  * animation, removing a deleted shape from the animation, or updating the 
  * positions of shapes that have moved.
  * 
+ * By default an AnimationView repaints whenever it is notified of a change.
+ * Alternatively, a frame rate can be set so that the view repaints at a
+ * fixed rate, independently of how often the model is clocked. If the model
+ * publishes ShapeSnapshots, the view paints the latest snapshot without
+ * locking the model; otherwise painting synchronizes on the ShapeModel so 
+ * that each frame shows a completed tick.
+ * 
+ * If the model tracks the region that changes between snapshots (see
+ * ShapeModel.setDirtyRegionTracking()), the view repaints only that region,
+ * unless it covers more than a configurable fraction of the view, in which
+ * case the whole view is repainted.
+ * 
+ * Shapes that lie outside the area being painted, e.g. because they have 
+ * been scrolled out of view, are skipped along with their descendants.
+ * 
+ * With batched rendering enabled, shapes are painted into an off-screen 
+ * image by a BatchingPainter, and the image copied to the screen in one 
+ * operation.
+ * 
  * @author Ian Warren
  *
  */
 public class AnimationView extends JPanel implements ShapeModelListener {
 
-	// Reference to root CarrierShape.
-	private CarrierShape _root;
+	// Reference to root CarrierShape and the ShapeModel that holds it.
+	private volatile CarrierShape _root;
+	private volatile ShapeModel _model;
+	
+	// Timer used to repaint at a fixed frame rate; null if the view repaints
+	// in response to model changes.
+	private volatile Timer _frameTimer;
+	
+	/**
+	 * Default fraction of the view's area above which a changed region is
+	 * repainted by repainting the whole view.
+	 */
+	public static final double DEFAULT_FULL_REPAINT_RATIO = 0.5;
+	
+	// Fraction of the view's area above which the whole view is repainted.
+	private volatile double _fullRepaintRatio = DEFAULT_FULL_REPAINT_RATIO;
+	
+	// Number of shapes culled when the view was last painted.
+	private volatile int _culledShapes;
+	
+	// Whether to paint with a BatchingPainter, and the off-screen image it
+	// paints into. The image is only used on the Event Dispatch thread.
+	private volatile boolean _batchedRendering;
+	private BufferedImage _frame;
 	
 	/**
 	 * Creates an AnimationView object with specified bounds.
@@ -46,25 +96,141 @@ public class AnimationView extends JPanel implements ShapeModelListener {
 		super.paintComponent(g);
 		
 		
-		// Create a GraphicsPainter to paint the Swing component.
-		Painter painter = new GraphicsPainter(g);
+		if(!_batchedRendering) {
+			// Create a GraphicsPainter to paint the Swing component.
+			GraphicsPainter painter = new GraphicsPainter(g);
+			paintModel(painter);
+			_culledShapes = painter.culledShapeCount();
+			return;
+		}
 		
-		/*
-		 * Paint the shapes, starting with the root and recursively work
-		 * through the composition structure.
-		 */
-		if(_root != null) {
-			_root.paint(painter);
+		// Paint the area being repainted into the off-screen image, then 
+		// copy it to the screen.
+		if(_frame == null || _frame.getWidth() != getWidth() || _frame.getHeight() != getHeight()) {
+			_frame = new BufferedImage(Math.max(1, getWidth()), Math.max(1, getHeight()), BufferedImage.TYPE_INT_RGB);
+		}
+		BatchingPainter painter = new BatchingPainter(_frame, g.getClipBounds());
+		Graphics2D frameGraphics = painter.getGraphics();
+		frameGraphics.setFont(g.getFont());
+		frameGraphics.setColor(getBackground());
+		frameGraphics.fillRect(0, 0, _frame.getWidth(), _frame.getHeight());
+		paintModel(painter);
+		painter.dispose();
+		g.drawImage(_frame, 0, 0, null);
+		_culledShapes = painter.culledShapeCount();
+	}
+	
+	/**
+	 * Enables or disables batched rendering, in which shapes are painted into
+	 * an off-screen image by a BatchingPainter. This method must be called 
+	 * on the Event Dispatch thread.
+	 */
+	public void setBatchedRendering(boolean batched) {
+		_batchedRendering = batched;
+		if(!batched) {
+			_frame = null;
+		}
+		repaint();
+	}
+	
+	/*
+	 * Paints the shapes, starting with the root and recursively working
+	 * through the composition structure.
+	 */
+	private void paintModel(Painter painter) {
+		ShapeModel model = _model;
+		if(model != null) {
+			// Paint the latest snapshot if the model publishes them; 
+			// otherwise lock the model so that a completed tick is painted.
+			ShapeSnapshot snapshot = model.acquireSnapshot();
+			if(snapshot != null) {
+				try {
+					snapshot.paint(painter);
+				} finally {
+					snapshot.release();
+				}
+			} else {
+				synchronized(model) {
+					_root.paint(painter);
+				}
+			}
 		}
 	}
 	
+	/**
+	 * Returns the number of shapes skipped when this AnimationView was last
+	 * painted, because they lay outside the area being painted (e.g. they 
+	 * were scrolled out of view).
+	 */
+	public int culledShapeCount() {
+		return _culledShapes;
+	}
+	
 	/**
 	 * Updates this AnimationView so that it is consistent with the ShapeModel
-	 * that made the update() call.
+	 * that made the update() call. This method may be called on any thread.
 	 */
 	public void update(ShapeModelEvent event) {
 		_root = event.source().root();
-		repaint();
+		_model = event.source();
+		if(_frameTimer == null) {
+			repaintChanges();
+		}
+	}
+	
+	/**
+	 * Sets the fraction of this AnimationView's area above which a changed
+	 * region is repainted by repainting the whole view. A ratio of zero 
+	 * always repaints the whole view; a ratio of one or more never does.
+	 * @throws IllegalArgumentException if ratio is negative.
+	 */
+	public void setFullRepaintRatio(double ratio) {
+		if(ratio < 0) {
+			throw new IllegalArgumentException();
+		}
+		_fullRepaintRatio = ratio;
 	}
 	
+	/**
+	 * Sets the number of frames per second at which this AnimationView 
+	 * repaints. A frame rate of zero (or less) restores the default 
+	 * behaviour of repainting whenever the model changes. This method must
+	 * be called on the Event Dispatch thread.
+	 */
+	public void setFrameRate(int framesPerSecond) {
+		if(_frameTimer != null) {
+			_frameTimer.stop();
+			_frameTimer = null;
+		}
+		if(framesPerSecond > 0) {
+			_frameTimer = new Timer(1000 / framesPerSecond, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					repaintChanges();
+				}
+			});
+			_frameTimer.start();
+		}
+	}
+	
+	/*
+	 * Requests a repaint of the region of the model that has changed. If the
+	 * model doesn't track changes, the whole view is repainted.
+	 */
+	private void repaintChanges() {
+		ShapeModel model = _model;
+		if(model == null || !model.isDirtyRegionTracking()) {
+			repaint();
+			return;
+		}
+		
+		Rectangle region = new Rectangle();
+		if(model.takeDirtyRegion(region)) {
+			double area = (double)region.width * region.height;
+			if(area > _fullRepaintRatio * getWidth() * getHeight()) {
+				repaint();
+			} else {
+				repaint(region);
+			}
+		}
+	}
 }
@@ -0,0 +1,76 @@
+package spaceshapes.views;
+
+import spaceshapes.CarrierShape;
+
+/**
+ * Node that Task1 places in a tree in place of the children of a 
+ * CarrierShape with too many children to list at once. Each ChildPage stands
+ * for a window of consecutive children, whose index positions are 
+ * first() .. last(), and is shown as e.g. "children 0-999". The children 
+ * themselves are only read when the ChildPage is expanded.
+ * 
+ * ChildPages are created on demand, so two ChildPages are equal if they
+ * start at the same position within the same CarrierShape.
+ *
+ * @author Dave Shin
+ */
+public class ChildPage {
+
+	private CarrierShape _carrier;
+	private int _first;
+	private int _last;
+
+	/**
+	 * Creates a ChildPage for the children of carrier at index positions 
+	 * first .. last.
+	 */
+	public ChildPage(CarrierShape carrier, int first, int last) {
+		_carrier = carrier;
+		_first = first;
+		_last = last;
+	}
+
+	/**
+	 * Returns the CarrierShape whose children this ChildPage stands for.
+	 */
+	public CarrierShape carrier() {
+		return _carrier;
+	}
+
+	/**
+	 * Returns the index position of the first child in this ChildPage.
+	 */
+	public int first() {
+		return _first;
+	}
+
+	/**
+	 * Returns the index position of the last child in this ChildPage, as at
+	 * the time it was created.
+	 */
+	public int last() {
+		return _last;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ChildPage)) {
+			return false;
+		}
+		ChildPage page = (ChildPage)other;
+		return page._carrier == _carrier && page._first == _first;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(_carrier) * 31 + _first;
+	}
+
+	/**
+	 * Returns a summary of the children in this ChildPage.
+	 */
+	@Override
+	public String toString() {
+		return "children " + _first + "\u2013" + _last;
+	}
+}
@@ -0,0 +1,125 @@
+package spaceshapes.views;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import spaceshapes.ShapeModelEvent;
+import spaceshapes.ShapeModelListener;
+
+/**
+ * ShapeModelListener that forwards ShapeModelEvents to another listener on
+ * the Event Dispatch thread. Swing components and models must only be used
+ * from the Event Dispatch thread, so a listener that fires Swing events (e.g.
+ * TableModelAdapter or Task2) should be wrapped in an EventDispatchAdapter
+ * when its ShapeModel is clocked by a SimulationLoop.
+ *
+ * Events are delivered in the order they're raised. Events raised on other
+ * threads are queued with invokeLater(), as are events raised on the Event
+ * Dispatch thread while earlier events are still queued; other events 
+ * raised on the Event Dispatch thread are forwarded immediately. ShapeMoved
+ * events are coalesced so that at most one is queued at a time, because a
+ * ShapeMoved event always identifies the root and carries no other state.
+ *
+ * Only events of the types the delegate listener asks for are forwarded. By
+ * default these exclude ShapesCollided events, of which a ShapeModel with 
+ * collisions enabled fires one per colliding pair per tick: neither Task2 
+ * nor TableModelAdapter uses them, and queueing each on the Event Dispatch
+ * thread could flood it.
+ *
+ * To bound the number of events queued for a listener, and monitor its lag,
+ * register it with ShapeModel.addShapeModelListener(listener, 
+ * EventDispatchAdapter.EVENT_DISPATCH_THREAD, capacity) instead.
+ *
+ * @author Dave Shin
+ *
+ */
+public class EventDispatchAdapter implements ShapeModelListener {
+
+	/**
+	 * Executor that runs tasks on the Event Dispatch thread, using 
+	 * invokeLater().
+	 */
+	public static final Executor EVENT_DISPATCH_THREAD = new Executor() {
+		public void execute(Runnable task) {
+			SwingUtilities.invokeLater(task);
+		}
+	};
+
+	private ShapeModelListener _delegate;
+	private Set<ShapeModelEvent.EventType> _eventTypes;
+
+	// True while a ShapeMoved event is queued for delivery.
+	private AtomicBoolean _movePending = new AtomicBoolean();
+
+	// Number of events queued for, or being, delivered with invokeLater().
+	private AtomicInteger _pending = new AtomicInteger();
+
+	/**
+	 * Creates an EventDispatchAdapter that forwards events of every type but
+	 * ShapesCollided to delegate.
+	 */
+	public EventDispatchAdapter(ShapeModelListener delegate) {
+		this(delegate, EnumSet.complementOf(EnumSet.of(ShapeModelEvent.EventType.ShapesCollided)));
+	}
+
+	/**
+	 * Creates an EventDispatchAdapter that forwards events of the specified 
+	 * types to delegate, and ignores other events.
+	 * @throws IllegalArgumentException if delegate or eventTypes is null.
+	 */
+	public EventDispatchAdapter(ShapeModelListener delegate, Set<ShapeModelEvent.EventType> eventTypes) {
+		if (delegate == null || eventTypes == null) {
+			throw new IllegalArgumentException();
+		}
+		_delegate = delegate;
+		_eventTypes = EnumSet.noneOf(ShapeModelEvent.EventType.class);
+		_eventTypes.addAll(eventTypes);
+	}
+
+	/**
+	 * Forwards event to the delegate listener on the Event Dispatch thread,
+	 * if the delegate asked for events of its type.
+	 */
+	@Override
+	public void update(final ShapeModelEvent event) {
+		if (!_eventTypes.contains(event.eventType())) {
+			return;
+		}
+		if (SwingUtilities.isEventDispatchThread() && _pending.get() == 0) {
+			_delegate.update(event);
+		} else if (event.eventType() == ShapeModelEvent.EventType.ShapeMoved) {
+			if (_movePending.compareAndSet(false, true)) {
+				queue(event, true);
+			}
+		} else {
+			queue(event, false);
+		}
+	}
+
+	/*
+	 * Queues event for delivery to the delegate listener with invokeLater().
+	 * The count of pending deliveries is decremented only once delivery is 
+	 * complete, so events raised on the Event Dispatch thread meanwhile, 
+	 * including by the delegate, are queued behind it.
+	 */
+	private void queue(final ShapeModelEvent event, final boolean move) {
+		_pending.incrementAndGet();
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (move) {
+					_movePending.set(false);
+				}
+				try {
+					_delegate.update(event);
+				} finally {
+					_pending.decrementAndGet();
+				}
+			}
+		});
+	}
+}
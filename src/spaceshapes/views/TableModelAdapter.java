@@ -1,11 +1,20 @@
 package spaceshapes.views;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 
 import spaceshapes.CarrierShape;
 import spaceshapes.Shape;
+import spaceshapes.ShapeModel;
 import spaceshapes.ShapeModelEvent;
 import spaceshapes.ShapeModelListener;
+import spaceshapes.ShapeSnapshot;
 
 /**
  * Adapter class that adapts Shape/CarrierShape to the TableModel target 
@@ -14,6 +23,21 @@ import spaceshapes.ShapeModelListener;
  * TableModel interface from scratch this class extends AbstractTableModel and
  * simply overrides selected methods as necessary.
  * 
+ * If the ShapeModel publishes ShapeSnapshots, a TableModelAdapter reads cell
+ * values from the snapshot current at the most recent update() call rather
+ * than from the Shapes themselves, so it never observes a tick in progress.
+ * 
+ * Cell values are cached. When shapes move, a TableModelAdapter compares
+ * the values of the rows it shows against the cache and notifies its 
+ * TableModelListeners only of the cells that changed, rather than of a 
+ * change to the whole table. Values are cached, and compared, in pages of
+ * rows that are read when the view first asks for them, and only the most
+ * recently used pages are kept; so the cost of a tick depends on the rows
+ * being viewed rather than on the number of children the adaptee has. This
+ * comparison can be limited to a refresh
+ * rate that is independent of the ShapeModel's tick rate; see 
+ * setRefreshRate().
+ * 
  * @author Ian Warren
  * 
  */
@@ -25,8 +49,50 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 	 */
 	private Shape _adaptee;
 	
+	/*
+	 * Snapshot from which values are read, and the adaptee's position within
+	 * it. _adapteeIndex is -1 if there is no snapshot or the adaptee isn't
+	 * part of it, in which case values are read from the adaptee directly.
+	 */
+	private ShapeSnapshot _snapshot;
+	private int _adapteeIndex = -1;
+	
 	 // Column names for table.
 	private static final String[] _columnNames = {"Type", "X-pos", "Y-pos", "X-delta", "Y-delta", "Width", "Height", "Text"};
+	
+	/*
+	 * Number of rows in each page of cached values, and maximum number of 
+	 * pages cached.
+	 */
+	private static final int PAGE_ROWS = 128;
+	private static final int MAX_PAGES = 16;
+	
+	// Cached cell values for a page of rows, row by row.
+	private static class Page {
+		int _first;
+		int _rows;
+		Object[] _cells;
+	}
+	
+	/*
+	 * Cached pages, keyed by page number and in order of use. The cache is 
+	 * cleared whenever the rows shown change.
+	 */
+	@SuppressWarnings("serial")
+	private Map<Integer, Page> _pages = new LinkedHashMap<Integer, Page>(MAX_PAGES * 2, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+			return size() > MAX_PAGES;
+		}
+	};
+	
+	/*
+	 * Timer that compares cached values against the model at the refresh
+	 * rate, or null to compare after every ShapeMoved event; and whether a 
+	 * ShapeMoved event has been received since the last comparison.
+	 */
+	private Timer _refreshTimer;
+	private boolean _movePending;
 
 	/**
 	 * Creates a TableModelAdapter and sets Shape/CarrierShape that is to be 
@@ -66,7 +132,11 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 	public int getRowCount() {
 		int rowCount = 1;
 		
-		if(_adaptee instanceof CarrierShape) {
+		if(_adapteeIndex >= 0) {
+			if(_adaptee instanceof CarrierShape) {
+				rowCount = _snapshot.childCount(_adapteeIndex);
+			}
+		} else if(_adaptee instanceof CarrierShape) {
 			CarrierShape nestingShape = (CarrierShape)_adaptee;
 			rowCount = nestingShape.shapeCount();
 		}
@@ -79,41 +149,203 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 	 */
 	@Override
 	public Object getValueAt(int row, int col) {
-		Shape targetShape = _adaptee;
-		Object result = null;
-		
-		if(_adaptee instanceof CarrierShape) {
-			CarrierShape nestingShape = (CarrierShape)_adaptee;
-			targetShape = nestingShape.shapeAt(row);
+		Page page = _pages.get(row / PAGE_ROWS);
+		if(page == null || row >= page._first + page._rows) {
+			page = loadPage(row / PAGE_ROWS);
 		}
-		
+		if(row < page._first + page._rows) {
+			return page._cells[(row - page._first) * _columnNames.length + col];
+		}
+		return readValueAt(row, col);
+	}
+	
+	/**
+	 * Sets the number of times per second that this TableModelAdapter 
+	 * compares the values it shows against the model after shapes have 
+	 * moved. A rate of zero (or less) restores the default behaviour of 
+	 * comparing after every ShapeMoved event. This method must be called on
+	 * the Event Dispatch thread.
+	 */
+	public void setRefreshRate(int refreshesPerSecond) {
+		if(_refreshTimer != null) {
+			_refreshTimer.stop();
+			_refreshTimer = null;
+		}
+		if(refreshesPerSecond > 0) {
+			_refreshTimer = new Timer(1000 / refreshesPerSecond, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					if(_movePending) {
+						refreshChangedCells();
+					}
+				}
+			});
+			_refreshTimer.start();
+		}
+	}
+	
+	/*
+	 * Reads the value at a particular cell from the model.
+	 */
+	private Object readValueAt(int row, int col) {
 		switch(col) {
 		case 0: // Type
-			result = targetShape.toString();
-			break;
+			return _adapteeIndex >= 0 ? _snapshot.shape(snapshotTarget(row)).toString() : targetShape(row).toString();
+		case 7: // Text.
+			return _adapteeIndex >= 0 ? _snapshot.text(snapshotTarget(row)) : targetShape(row).text();
+		default:
+			return readIntAt(row, col);
+		}
+	}
+	
+	/*
+	 * Reads the value at a particular cell holding an int from the model.
+	 */
+	private int readIntAt(int row, int col) {
+		if(_adapteeIndex >= 0) {
+			int target = snapshotTarget(row);
+			switch(col) {
+			case 1: // X-Pos
+				return _snapshot.x(target);
+			case 2: // Y-Pos.
+				return _snapshot.y(target);
+			case 3: // X-delta.
+				return _snapshot.deltaX(target);
+			case 4: // Y-delta.
+				return _snapshot.deltaY(target);
+			case 5: // Width.
+				return _snapshot.width(target);
+			default: // Height.
+				return _snapshot.height(target);
+			}
+		}
+		
+		Shape targetShape = targetShape(row);
+		switch(col) {
 		case 1: // X-Pos
-			result = targetShape.x();
-			break;
+			return targetShape.x();
 		case 2: // Y-Pos.
-			result = targetShape.y();
-			break;
+			return targetShape.y();
 		case 3: // X-delta.
-			result = targetShape.deltaX();
-			break;
+			return targetShape.deltaX();
 		case 4: // Y-delta.
-			result = targetShape.deltaY();
-			break;
+			return targetShape.deltaY();
 		case 5: // Width.
-			result = targetShape.width();
-			break;
-		case 6: // Height.
-			result = targetShape.height();
-			break;
-		case 7: // Text.
-			result = targetShape.text();
-			break;
+			return targetShape.width();
+		default: // Height.
+			return targetShape.height();
+		}
+	}
+	
+	/*
+	 * Returns the Shape shown in a particular row.
+	 */
+	private Shape targetShape(int row) {
+		if(_adaptee instanceof CarrierShape) {
+			return ((CarrierShape)_adaptee).shapeAt(row);
+		}
+		return _adaptee;
+	}
+	
+	/*
+	 * Returns the index within _snapshot of the shape shown in a particular
+	 * row.
+	 */
+	private int snapshotTarget(int row) {
+		if(_adaptee instanceof CarrierShape) {
+			return _snapshot.child(_adapteeIndex, row);
+		}
+		return _adapteeIndex;
+	}
+	
+	/*
+	 * Reads a page of rows into the cache.
+	 */
+	private Page loadPage(int number) {
+		int columns = _columnNames.length;
+		Page page = new Page();
+		page._first = number * PAGE_ROWS;
+		page._rows = Math.max(0, Math.min(PAGE_ROWS, getRowCount() - page._first));
+		page._cells = new Object[page._rows * columns];
+		for(int row = 0; row < page._rows; row++) {
+			for(int col = 0; col < columns; col++) {
+				page._cells[row * columns + col] = readValueAt(page._first + row, col);
+			}
+		}
+		_pages.put(number, page);
+		return page;
+	}
+	
+	/*
+	 * Discards the cache, after the rows shown have changed.
+	 */
+	private void invalidateCache() {
+		_pages.clear();
+		_movePending = false;
+	}
+	
+	/*
+	 * Compares the cached values against the model, updating the cache and
+	 * notifying TableModelListeners of the cells that have changed. A row in
+	 * which only one cell has changed is reported with a cell updated event;
+	 * consecutive rows with several changes are reported together with a 
+	 * rows updated event. Rows that aren't cached haven't been shown since 
+	 * the rows last changed, and are skipped.
+	 */
+	private void refreshChangedCells() {
+		_movePending = false;
+		int rowCount = getRowCount();
+		for(Page page : _pages.values().toArray(new Page[_pages.size()])) {
+			refreshChangedCells(page, Math.min(page._rows, rowCount - page._first));
+		}
+	}
+	
+	/*
+	 * Compares the first rows of page against the model.
+	 */
+	private void refreshChangedCells(Page page, int rows) {
+		int columns = _columnNames.length;
+		Object[] cells = page._cells;
+		int firstRow = -1;
+		for(int r = 0; r < rows; r++) {
+			int row = page._first + r;
+			int changes = 0;
+			int changedCol = -1;
+			for(int col = 0; col < columns; col++) {
+				int cell = r * columns + col;
+				if(col == 0 || col == 7) {
+					Object value = readValueAt(row, col);
+					if(value == null ? cells[cell] == null : value.equals(cells[cell])) {
+						continue;
+					}
+					cells[cell] = value;
+				} else {
+					int value = readIntAt(row, col);
+					if(value == (Integer)cells[cell]) {
+						continue;
+					}
+					cells[cell] = value;
+				}
+				changes++;
+				changedCol = col;
+			}
+			
+			if(changes > 1) {
+				if(firstRow < 0) {
+					firstRow = row;
+				}
+				continue;
+			}
+			if(firstRow >= 0) {
+				fireTableRowsUpdated(firstRow, row - 1);
+				firstRow = -1;
+			}
+			if(changes == 1) {
+				fireTableCellUpdated(row, changedCol);
+			}
+		}
+		if(firstRow >= 0) {
+			fireTableRowsUpdated(firstRow, page._first + rows - 1);
 		}
-		return result;
 	}
 	
 	/**
@@ -122,6 +354,8 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 	 */
 	public void setAdaptee(Shape shape) {
 		_adaptee = shape;
+		_adapteeIndex = _snapshot == null ? -1 : _snapshot.indexOf(shape);
+		invalidateCache();
 		
 		/*
 		 * Cause any TableModelListeners (e.g. a JTable component) to be  
@@ -142,12 +376,23 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 		ShapeModelEvent.EventType eventType = event.eventType();
 		Shape shape = event.operand();
 		
+		refreshSnapshot(event.source());
+		
+		if(eventType == ShapeModelEvent.EventType.ShapeMoved) {
+			_movePending = true;
+			if(_refreshTimer == null) {
+				refreshChangedCells();
+			}
+			return;
+		}
+		
 		if(eventType == ShapeModelEvent.EventType.ShapeAdded) {
 			CarrierShape parent = shape.parent();
 			if(parent == _adaptee) {
 				// The new shapes's parent is represented by this TableModel,
 				// so the view will need to be updated to show the new shape.
-				fireTableRowsInserted(parent.shapeCount() - 1, parent.shapeCount() - 1);
+				invalidateCache();
+				fireTableRowsInserted(getRowCount() - 1, getRowCount() - 1);
 			}
 		} else if(eventType == ShapeModelEvent.EventType.ShapeRemoved) {
 			CarrierShape parent = event.parent();
@@ -155,12 +400,58 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 				// The removed shape's former parent is represented by this 
 				// TableModel. Notify the view so that it will no longer show
 				// removed shape.
+				invalidateCache();
 				fireTableDataChanged();
 			} 
-		} else {
-			// Processing a ShapeMoved event.
+		} else if(eventType == ShapeModelEvent.EventType.Batch) {
+			updateBatch(event);
+		} else if(eventType == ShapeModelEvent.EventType.Resync) {
+			// Events were missed, so the adaptee's children may have changed
+			// in any way.
+			invalidateCache();
 			fireTableDataChanged();
 		}
 	}
 	
+	/*
+	 * Notifies TableModelListeners of the changes in a Batch event that 
+	 * affect the rows of this TableModel. If shapes were only added to the 
+	 * adaptee, they occupy a contiguous range of rows at the end, and a 
+	 * single rows inserted event is fired for them. 
+	 */
+	private void updateBatch(ShapeModelEvent event) {
+		int firstRow = -1;
+		int lastRow = -1;
+		for(ShapeModelEvent group : event.events()) {
+			if(group.parent() != _adaptee) {
+				continue;
+			}
+			if(group.eventType() != ShapeModelEvent.EventType.ShapeAdded) {
+				invalidateCache();
+				fireTableDataChanged();
+				return;
+			}
+			if(firstRow < 0) {
+				firstRow = group.index();
+			}
+			lastRow = group.index() + group.operandCount() - 1;
+		}
+		if(firstRow >= 0) {
+			invalidateCache();
+			fireTableRowsInserted(firstRow, lastRow);
+		}
+	}
+	
+	/*
+	 * Replaces the snapshot from which values are read with the latest 
+	 * snapshot published by model, if any.
+	 */
+	private void refreshSnapshot(ShapeModel model) {
+		ShapeSnapshot snapshot = model.acquireSnapshot();
+		if(_snapshot != null) {
+			_snapshot.release();
+		}
+		_snapshot = snapshot;
+		_adapteeIndex = _snapshot == null ? -1 : _snapshot.indexOf(_adaptee);
+	}
 }
@@ -1,7 +1,9 @@
 package spaceshapes.views;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
@@ -10,11 +12,33 @@ import javax.swing.tree.TreePath;
 import spaceshapes.ShapeModel;
 import spaceshapes.Shape;
 import spaceshapes.CarrierShape;
+import spaceshapes.ShapeSnapshot;
 
+/**
+ * Adapter class that adapts a ShapeModel to the TreeModel target interface,
+ * allowing the ShapeModel's composition to be displayed by a JTree. If 
+ * refreshSnapshot() has been called and the ShapeModel publishes 
+ * ShapeSnapshots, the tree structure is read from the snapshot rather than
+ * from the CarrierShapes themselves.
+ */
 public class Task1 implements TreeModel {
 
 	private ShapeModel _shapeModel;
 	protected List<TreeModelListener> _listeners = new ArrayList<TreeModelListener>();
+	
+	// Snapshot from which the tree structure is read, or null.
+	private ShapeSnapshot _snapshot;
+
+	/**
+	 * Default number of children above which a CarrierShape's children are
+	 * grouped into ChildPages.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	private int _pageSize = DEFAULT_PAGE_SIZE;
+
+	// TreePaths returned by treePath(), which are reused while still valid.
+	private Map<Shape, TreePath> _treePaths = new IdentityHashMap<Shape, TreePath>();
 
 	public Task1(ShapeModel shapeModel) {
 		_shapeModel = shapeModel;
@@ -27,10 +51,81 @@ public class Task1 implements TreeModel {
 		_listeners.add(listener);
 	}
 
+	/**
+	 * Sets the number of children above which a CarrierShape's children are
+	 * grouped into ChildPages of pageSize children each.
+	 * @throws IllegalArgumentException if pageSize is less than one.
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		_pageSize = pageSize;
+	}
+
 	/**
 	 * Returns the child of parent at index index in the parent's child array.
+	 * The children of a CarrierShape with more than the page size of 
+	 * children are ChildPages.
 	 */
 	public Object getChild(Object parent, int index) {
+		if (parent instanceof ChildPage) {
+			ChildPage page = (ChildPage)parent;
+			return index < pageSize(page) ? shapeChild(page.carrier(), page.first() + index) : null;
+		}
+		int count = shapeChildCount(parent);
+		if (count > _pageSize) {
+			if (index < 0 || index >= pageCount(count)) {
+				return null;
+			}
+			int first = index * _pageSize;
+			return new ChildPage((CarrierShape)parent, first, Math.min(count, first + _pageSize) - 1);
+		}
+		return shapeChild(parent, index);
+	}
+
+	/**
+	 * Returns the number of children of parent.
+	 */
+	public int getChildCount(Object parent) {
+		if (parent instanceof ChildPage) {
+			return pageSize((ChildPage)parent);
+		}
+		int count = shapeChildCount(parent);
+		return count > _pageSize ? pageCount(count) : count;
+	}
+
+	/**
+	 * Returns the index of child in parent.
+	 */
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent instanceof ChildPage) {
+			ChildPage page = (ChildPage)parent;
+			int index = shapeIndexOf(page.carrier(), child) - page.first();
+			return index >= 0 && index < pageSize(page) ? index : -1;
+		}
+		if (shapeChildCount(parent) > _pageSize) {
+			if (child instanceof ChildPage && ((ChildPage)child).carrier() == parent) {
+				return ((ChildPage)child).first() / _pageSize;
+			}
+			return -1;
+		}
+		return shapeIndexOf(parent, child);
+	}
+
+	/*
+	 * Returns the child of parent at index index among its Shape children.
+	 */
+	private Shape shapeChild(Object parent, int index) {
+		int parentIndex = snapshotIndexOf(parent);
+		if (parentIndex >= 0) {
+			try {
+				return _snapshot.shape(_snapshot.child(parentIndex, index));
+			} 
+			catch (IndexOutOfBoundsException e) {
+				return null;
+			}
+		}
 		if (parent instanceof CarrierShape) {
 			try {
 				return ((CarrierShape)parent).shapeAt(index);
@@ -43,25 +138,76 @@ public class Task1 implements TreeModel {
 	}
 
 	/**
-	 * Returns the number of children of parent.
+	 * Returns the number of Shape children of parent, regardless of whether
+	 * they are grouped into ChildPages.
 	 */
-	public int getChildCount(Object parent) {
+	protected int shapeChildCount(Object parent) {
+		int parentIndex = snapshotIndexOf(parent);
+		if (parentIndex >= 0) {
+			return _snapshot.childCount(parentIndex);
+		}
 		if (parent instanceof CarrierShape) {
 			return ((CarrierShape)parent).shapeCount();
 		}
 		return 0; // The parent is not of a type CarrierShape.
 	}
 
-	/**
-	 * Returns the index of child in parent.
+	/*
+	 * Returns the index of child among the Shape children of parent.
 	 */
-	public int getIndexOfChild(Object parent, Object child) {
+	private int shapeIndexOf(Object parent, Object child) {
+		int parentIndex = snapshotIndexOf(parent);
+		if (parentIndex >= 0) {
+			int childIndex = snapshotIndexOf(child);
+			if (childIndex >= 0 && _snapshot.parent(childIndex) == parentIndex) {
+				return _snapshot.childIndex(childIndex);
+			}
+			return -1;
+		}
 		if ( (parent instanceof CarrierShape) && (child instanceof Shape) ) {
 			return ( ((CarrierShape)parent).indexOf((Shape)child) );
 		}
 		return -1;
 	}
 
+	/*
+	 * Returns the number of ChildPages needed for count children.
+	 */
+	private int pageCount(int count) {
+		return (count + _pageSize - 1) / _pageSize;
+	}
+
+	/*
+	 * Returns the number of children currently in page.
+	 */
+	private int pageSize(ChildPage page) {
+		int count = shapeChildCount(page.carrier());
+		return Math.max(0, Math.min(count, page.first() + _pageSize) - page.first());
+	}
+
+	/**
+	 * Returns true if the children of carrier are grouped into ChildPages.
+	 */
+	protected boolean isPaged(CarrierShape carrier) {
+		return shapeChildCount(carrier) > _pageSize;
+	}
+
+	/**
+	 * Returns the number of children in each ChildPage.
+	 */
+	protected int pageSize() {
+		return _pageSize;
+	}
+
+	/**
+	 * Returns the ChildPage that holds the child of a paged CarrierShape at
+	 * the specified index position.
+	 */
+	protected ChildPage pageOf(CarrierShape carrier, int index) {
+		int first = (index / _pageSize) * _pageSize;
+		return new ChildPage(carrier, first, Math.min(shapeChildCount(carrier), first + _pageSize) - 1);
+	}
+
 	/**
 	 * Returns the root of the tree.
 	 */
@@ -77,7 +223,7 @@ public class Task1 implements TreeModel {
 	* Returns true if node is a leaf.
 	*/
 	public boolean isLeaf(Object node) {
-		if (node instanceof CarrierShape) {
+		if (node instanceof CarrierShape || node instanceof ChildPage) {
 			return false;
 		} else if (node instanceof Shape) {
 			return true;
@@ -97,4 +243,99 @@ public class Task1 implements TreeModel {
 	 */
 	public void valueForPathChanged(TreePath path, Object newValue) {
 	}
+	
+	/**
+	 * Returns the TreePath from the root to the specified Shape, including 
+	 * the ChildPages that hold it and its ancestors. TreePaths are cached and
+	 * share their prefixes, so building the path to a Shape whose path (or 
+	 * parent's path) has been built before doesn't allocate anything beyond
+	 * the missing TreePath nodes.
+	 */
+	public TreePath treePath(Shape shape) {
+		TreePath path = _treePaths.get(shape);
+		if (path == null || !isCurrent(path, shape)) {
+			CarrierShape parent = shape.parent();
+			if (parent == null) {
+				path = new TreePath(shape);
+			} else {
+				path = treePath(parent);
+				if (isPaged(parent)) {
+					path = path.pathByAddingChild(pageOf(parent, shapeIndexOf(parent, shape)));
+				}
+				path = path.pathByAddingChild(shape);
+			}
+			_treePaths.put(shape, path);
+		}
+		return path;
+	}
+
+	/**
+	 * Discards cached TreePaths following the removal of a Shape. Cached 
+	 * paths are checked against the composition before being reused, so 
+	 * this only releases memory.
+	 */
+	protected void forgetTreePaths(Shape removed) {
+		if (removed instanceof CarrierShape && ((CarrierShape)removed).shapeCount() > 0) {
+			_treePaths.clear();
+		} else {
+			_treePaths.remove(removed);
+		}
+	}
+
+	/*
+	 * Returns true if path still leads from the root to shape. Checks each 
+	 * node against shape's ancestors, and each ChildPage against the 
+	 * position of the child below it, without allocating.
+	 */
+	private boolean isCurrent(TreePath path, Shape shape) {
+		int depth = shape.depth();
+		Object below = null;
+		for (; path != null; path = path.getParentPath()) {
+			Object node = path.getLastPathComponent();
+			if (node instanceof ChildPage) {
+				ChildPage page = (ChildPage)node;
+				if (!(below instanceof Shape) || ((Shape)below).parent() != page.carrier()) {
+					return false;
+				}
+				int index = shapeIndexOf(page.carrier(), below);
+				if (index < page.first() || index >= page.first() + _pageSize) {
+					return false;
+				}
+			} else {
+				if (depth < 0 || node != shape.ancestor(depth)) {
+					return false;
+				}
+				if (below != null && isPaged((CarrierShape)node) != (below instanceof ChildPage)) {
+					return false;
+				}
+				depth--;
+			}
+			below = node;
+		}
+		return depth == -1;
+	}
+
+	/**
+	 * Replaces the snapshot from which the tree structure is read with the 
+	 * latest snapshot published by the ShapeModel, if any. Subclasses call 
+	 * this when notified of a change to the ShapeModel.
+	 */
+	protected void refreshSnapshot() {
+		ShapeSnapshot snapshot = _shapeModel.acquireSnapshot();
+		if (_snapshot != null) {
+			_snapshot.release();
+		}
+		_snapshot = snapshot;
+	}
+	
+	/*
+	 * Returns the position of node within the current snapshot, or -1 if 
+	 * there is no snapshot or node isn't part of it.
+	 */
+	private int snapshotIndexOf(Object node) {
+		if (_snapshot != null && node instanceof Shape) {
+			return _snapshot.indexOf((Shape)node);
+		}
+		return -1;
+	}
 }
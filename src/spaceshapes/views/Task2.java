@@ -4,6 +4,8 @@ import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreePath;
 
+import spaceshapes.CarrierShape;
+import spaceshapes.Shape;
 import spaceshapes.ShapeModel;
 import spaceshapes.ShapeModelEvent;
 import spaceshapes.ShapeModelListener;
@@ -20,29 +22,140 @@ public class Task2 extends Task1 implements ShapeModelListener {
 	 * has changed.
 	 */
 	public void update(ShapeModelEvent event) {
-		int[] childIndices = new int[1];
-		Object[] children = new Object[1];
+		refreshSnapshot();
+
+		if (event.eventType() == ShapeModelEvent.EventType.Batch) {
+			// One TreeModelEvent for each group of shapes added to, or 
+			// removed from, a parent.
+			for (ShapeModelEvent group : event.events()) {
+				fireTreeEvent(group);
+			}
+		} else if (event.eventType() == ShapeModelEvent.EventType.Resync) {
+			// Events were missed, so the whole tree may have changed.
+			Shape root = event.operand();
+			forgetTreePaths(root);
+			for (TreeModelListener listener : _listeners) {
+				listener.treeStructureChanged(new TreeModelEvent(event.source(), treePath(root)));
+			}
+		} else {
+			fireTreeEvent(event);
+		}
+	}
+
+	/*
+	 * Notifies TreeModelListeners of the addition or removal of the shapes
+	 * described by event. Changes to CarrierShapes whose children are 
+	 * grouped into ChildPages are handled by firePagedTreeEvent(). Other
+	 * events, such as moves and collisions, don't change the tree.
+	 */
+	private void fireTreeEvent(ShapeModelEvent event) {
+		if (event.eventType() != ShapeModelEvent.EventType.ShapeAdded
+				&& event.eventType() != ShapeModelEvent.EventType.ShapeRemoved) {
+			return;
+		}
+		CarrierShape parent = event.parent();
+		int pageSize = pageSize();
+		int[] indices = event.indices();
+		boolean paged;
+		if (event.eventType() == ShapeModelEvent.EventType.ShapeAdded) {
+			paged = indices[indices.length - 1] >= pageSize;
+		} else {
+			paged = shapeChildCount(parent) + indices.length > pageSize;
+		}
+		if (paged) {
+			firePagedTreeEvent(event);
+			return;
+		}
 
 		switch (event.eventType()) {
 		case ShapeAdded:
-			childIndices[0] = event.index();
-			children[0] = event.operand();
-
 			for (TreeModelListener listener : _listeners) {
 				listener.treeNodesInserted( new TreeModelEvent( event.source(),
-						new TreePath(event.parent().path().toArray()), childIndices, children) );
+						treePath(event.parent()), event.indices(), event.operands()) );
 			}
 			break;
 
 		case ShapeRemoved:
-			childIndices[0] = event.index();
-			children[0] = event.operand();
+			for (Shape shape : event.operands()) {
+				forgetTreePaths(shape);
+			}
 
 			for (TreeModelListener listener : _listeners) {
 				listener.treeNodesRemoved( new TreeModelEvent( event.source(), 
-						new TreePath(event.parent().path().toArray()), childIndices, children) );
+						treePath(event.parent()), event.indices(), event.operands()) );
 			}
 			break;
+
+		default:
+			break;
+		}
+	}
+
+	/*
+	 * Notifies TreeModelListeners of the addition or removal of the shapes 
+	 * described by event, where the parent's children are, or were, grouped
+	 * into ChildPages. Shapes appended to a parent that was already paged are
+	 * reported as insertions into the affected ChildPages, and new ChildPages
+	 * as insertions into the parent, so that only those pages are reloaded. 
+	 * In other cases, as removals shift children between pages, the parent's
+	 * structure is reported as having changed.
+	 */
+	private void firePagedTreeEvent(ShapeModelEvent event) {
+		CarrierShape parent = event.parent();
+		int pageSize = pageSize();
+		int[] indices = event.indices();
+		Shape[] operands = event.operands();
+
+		if (event.eventType() != ShapeModelEvent.EventType.ShapeAdded || indices[0] <= pageSize) {
+			if (event.eventType() == ShapeModelEvent.EventType.ShapeRemoved) {
+				for (Shape shape : operands) {
+					forgetTreePaths(shape);
+				}
+			}
+			for (TreeModelListener listener : _listeners) {
+				listener.treeStructureChanged(new TreeModelEvent(event.source(), treePath(parent)));
+			}
+			return;
+		}
+
+		// Shapes were appended, at consecutive positions, to a paged parent
+		// that previously held indices[0] children.
+		int previousCount = indices[0];
+		int start = 0;
+		while (start < indices.length) {
+			int page = indices[start] / pageSize;
+			int end = start;
+			while (end < indices.length && indices[end] / pageSize == page) {
+				end++;
+			}
+			ChildPage childPage = pageOf(parent, indices[start]);
+			if (childPage.first() >= previousCount) {
+				fireInserted(event, treePath(parent), new int[] {page}, new Object[] {childPage});
+			} else {
+				int[] pageIndices = new int[end - start];
+				Object[] children = new Object[end - start];
+				for (int i = start; i < end; i++) {
+					pageIndices[i - start] = indices[i] - childPage.first();
+					children[i - start] = operands[i];
+				}
+				fireInserted(event, treePath(parent).pathByAddingChild(childPage), pageIndices, children);
+
+				// The page's summary has changed too.
+				for (TreeModelListener listener : _listeners) {
+					listener.treeNodesChanged(new TreeModelEvent(event.source(), treePath(parent), 
+							new int[] {page}, new Object[] {childPage}));
+				}
+			}
+			start = end;
+		}
+	}
+
+	/*
+	 * Notifies TreeModelListeners of the insertion of children below path.
+	 */
+	private void fireInserted(ShapeModelEvent event, TreePath path, int[] indices, Object[] children) {
+		for (TreeModelListener listener : _listeners) {
+			listener.treeNodesInserted(new TreeModelEvent(event.source(), path, indices, children));
 		}
 	}
 }
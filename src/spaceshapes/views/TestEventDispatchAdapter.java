@@ -0,0 +1,134 @@
+package spaceshapes.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import spaceshapes.RectangleShape;
+import spaceshapes.ShapeModel;
+import spaceshapes.ShapeModelEvent;
+import spaceshapes.ShapeModelListener;
+
+/**
+ * Class to test that EventDispatchAdapter forwards events on the Event
+ * Dispatch thread, in order, and only events of the types its delegate asks
+ * for.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestEventDispatchAdapter {
+
+	private ShapeModel _model;
+	private List<ShapeModelEvent> _received;
+	private ShapeModelListener _recorder;
+
+	/**
+	 * Creates a ShapeModel of overlapping shapes with collisions enabled,
+	 * and a listener that records the events it receives on the Event
+	 * Dispatch thread.
+	 */
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		for (int i = 0; i < 4; i++) {
+			_model.add(new RectangleShape(100, 100, 1, 1, 10, 10), _model.root());
+		}
+		_model.setCollisionsEnabled(true);
+		_received = new ArrayList<ShapeModelEvent>();
+		_recorder = new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				assertTrue(SwingUtilities.isEventDispatchThread());
+				_received.add(event);
+			}
+		};
+	}
+
+	/**
+	 * Checks that ShapesCollided events aren't forwarded by default.
+	 */
+	@Test
+	public void testCollisionsAreNotForwarded() throws InterruptedException, InvocationTargetException {
+		_model.addShapeModelListener(new EventDispatchAdapter(_recorder));
+		_model.clock();
+		_model.add(new RectangleShape(0, 0, 1, 1, 10, 10), _model.root());
+		waitForEventDispatchThread();
+
+		assertEquals(2, _received.size());
+		assertSame(ShapeModelEvent.EventType.ShapeMoved, _received.get(0).eventType());
+		assertSame(ShapeModelEvent.EventType.ShapeAdded, _received.get(1).eventType());
+	}
+
+	/**
+	 * Checks that only events of the types asked for are forwarded.
+	 */
+	@Test
+	public void testEventTypes() throws InterruptedException, InvocationTargetException {
+		_model.addShapeModelListener(new EventDispatchAdapter(_recorder,
+				EnumSet.of(ShapeModelEvent.EventType.ShapesCollided)));
+		_model.clock();
+		_model.add(new RectangleShape(0, 0, 1, 1, 10, 10), _model.root());
+		waitForEventDispatchThread();
+
+		assertTrue(_received.size() > 0);
+		for (ShapeModelEvent event : _received) {
+			assertSame(ShapeModelEvent.EventType.ShapesCollided, event.eventType());
+		}
+	}
+
+	/**
+	 * Checks that an event raised on the Event Dispatch thread is delivered
+	 * after an event raised earlier on another thread, which is still 
+	 * queued.
+	 */
+	@Test
+	public void testEventsAreDeliveredInOrder() throws InterruptedException, InvocationTargetException {
+		_model.addShapeModelListener(new EventDispatchAdapter(_recorder));
+		final RectangleShape shape = new RectangleShape(0, 0, 1, 1, 10, 10);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				// Add the shape on another thread, while the Event Dispatch 
+				// thread is busy, so that the ShapeAdded event is queued.
+				Thread adder = new Thread(new Runnable() {
+					public void run() {
+						_model.add(shape, _model.root());
+					}
+				});
+				adder.start();
+				try {
+					adder.join();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				_model.remove(shape);
+			}
+		});
+		waitForEventDispatchThread();
+
+		assertEquals(2, _received.size());
+		assertSame(ShapeModelEvent.EventType.ShapeAdded, _received.get(0).eventType());
+		assertSame(ShapeModelEvent.EventType.ShapeRemoved, _received.get(1).eventType());
+	}
+
+	/*
+	 * Waits until the events queued on the Event Dispatch thread have been
+	 * delivered.
+	 */
+	private void waitForEventDispatchThread() throws InterruptedException, InvocationTargetException {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+}
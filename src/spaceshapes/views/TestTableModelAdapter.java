@@ -0,0 +1,92 @@
+package spaceshapes.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import spaceshapes.RectangleShape;
+import spaceshapes.Shape;
+import spaceshapes.ShapeModel;
+
+/**
+ * Class to test that a TableModelAdapter reports only the cells that change
+ * as shapes move.
+ *
+ * @author Dave Shin
+ *
+ */
+public class TestTableModelAdapter {
+
+	private ShapeModel _model;
+	private TableModelAdapter _adapter;
+	private List<TableModelEvent> _events;
+
+	/**
+	 * Creates a ShapeModel whose root holds one moving and two stationary 
+	 * shapes, and a TableModelAdapter showing the root's children.
+	 */
+	@Before
+	public void setUpAdapter() {
+		_model = new ShapeModel(new Dimension(500, 500));
+		_model.add(new RectangleShape(10, 10, 0, 0, 20, 20), _model.root());
+		_model.add(new RectangleShape(100, 100, 5, 0, 20, 20), _model.root());
+		_model.add(new RectangleShape(200, 200, 0, 0, 20, 20), _model.root());
+
+		_adapter = new TableModelAdapter(_model.root());
+		_model.addShapeModelListener(_adapter);
+		_events = new ArrayList<TableModelEvent>();
+		_adapter.addTableModelListener(new TableModelListener() {
+			public void tableChanged(TableModelEvent e) {
+				_events.add(e);
+			}
+		});
+	}
+
+	/**
+	 * Checks that a tick reports just the changed cell, and that the cached
+	 * value read afterwards is current.
+	 */
+	@Test
+	public void testMoveReportsChangedCellOnly() {
+		assertEquals(100, _adapter.getValueAt(1, 1)); // Fill the cache.
+		_model.clock();
+
+		assertEquals(1, _events.size());
+		TableModelEvent event = _events.get(0);
+		assertEquals(1, event.getFirstRow());
+		assertEquals(1, event.getLastRow());
+		assertEquals(1, event.getColumn());
+		assertEquals(105, _adapter.getValueAt(1, 1));
+		assertEquals(100, _adapter.getValueAt(1, 2));
+	}
+
+	/**
+	 * Checks that a tick in which nothing changes reports nothing, and that
+	 * an addition still reports inserted rows.
+	 */
+	@Test
+	public void testStructuralChanges() {
+		_adapter.getValueAt(0, 0);
+		Shape shape = new RectangleShape(300, 300, 0, 0, 20, 20);
+		_model.add(shape, _model.root());
+		assertEquals(1, _events.size());
+		assertEquals(TableModelEvent.INSERT, _events.get(0).getType());
+		assertEquals(4, _adapter.getRowCount());
+		assertEquals(300, _adapter.getValueAt(3, 1));
+
+		_model.remove(_model.root().shapeAt(1));
+		_events.clear();
+		_adapter.getValueAt(0, 0);
+		_model.clock();
+		assertTrue(_events.isEmpty());
+	}
+}
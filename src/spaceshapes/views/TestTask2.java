@@ -4,6 +4,7 @@ import java.awt.Dimension;
 
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreePath;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -12,9 +13,12 @@ import spaceshapes.CarrierShape;
 import spaceshapes.RectangleShape;
 import spaceshapes.Shape;
 import spaceshapes.ShapeModel;
+import spaceshapes.ShapeModelEvent;
+import spaceshapes.ShapeModelListener;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -184,4 +188,129 @@ public class TestTask2 {
 		_model.add( _newShape, _emptyNest );
 		assertTrue( _listenerMethodCalled );
 	}
+
+	/**
+	 * Checks that treePath() reuses the TreePath it built for a Shape while 
+	 * the Shape stays put, and builds a new one once the Shape is moved.
+	 */
+	@Test
+	public void test_treePathCaching() {
+		CarrierShape inner = new CarrierShape(0, 0, 1, 1, 50, 50);
+		_model.add(inner, _emptyNest);
+		TreePath path = _adapter.treePath(inner);
+		assertEquals(3, path.getPathCount());
+		assertSame(path, _adapter.treePath(inner));
+		assertSame(path.getParentPath(), _adapter.treePath(_emptyNest));
+
+		// Move inner directly under the root.
+		_model.remove(inner);
+		_model.add(inner, _root);
+		TreePath moved = _adapter.treePath(inner);
+		assertNotSame(path, moved);
+		assertEquals(2, moved.getPathCount());
+		assertSame(_root, moved.getPathComponent(0));
+		assertSame(inner, moved.getLastPathComponent());
+	}
+
+	/**
+	 * Checks that the children of a CarrierShape with more than the page size
+	 * of children are grouped into ChildPages, and that appending a Shape to 
+	 * it is reported as an insertion into the last ChildPage.
+	 */
+	@Test
+	public void test_childPages() {
+		_adapter.setPageSize(10);
+		Shape[] shapes = new Shape[25];
+		for (int i = 0; i < shapes.length; i++) {
+			shapes[i] = new RectangleShape(0, 0, 1, 1, 5, 5);
+			_model.add(shapes[i], _emptyNest);
+		}
+		
+		assertEquals(3, _adapter.getChildCount(_emptyNest));
+		ChildPage last = (ChildPage)_adapter.getChild(_emptyNest, 2);
+		assertEquals(20, last.first());
+		assertEquals(5, _adapter.getChildCount(last));
+		assertSame(shapes[21], _adapter.getChild(last, 1));
+		assertEquals(1, _adapter.getIndexOfChild(last, shapes[21]));
+		assertEquals(2, _adapter.getIndexOfChild(_emptyNest, last));
+		assertEquals(-1, _adapter.getIndexOfChild(_emptyNest, shapes[21]));
+		
+		TreePath path = _adapter.treePath(shapes[21]);
+		assertEquals(4, path.getPathCount());
+		assertEquals(last, path.getPathComponent(2));
+		
+		final boolean[] changed = new boolean[1];
+		_adapter.addTreeModelListener( new TreeModelListener() {
+
+			public void treeNodesChanged( TreeModelEvent e ) {
+				changed[0] = true;
+				assertEquals( 2, e.getChildIndices()[0] );
+			}
+
+			public void treeNodesInserted( TreeModelEvent e ) {
+				_listenerMethodCalled = true;
+				Object[] path = e.getPath();
+				assertEquals( 3, path.length );
+				assertSame( _emptyNest, path[ 1 ] );
+				assertEquals( 20, ((ChildPage)path[ 2 ]).first() );
+				assertEquals( 5, e.getChildIndices()[ 0 ] );
+				assertSame( _newShape, e.getChildren()[ 0 ] );
+			}
+
+			public void treeNodesRemoved( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeStructureChanged( TreeModelEvent e ) {
+				fail();
+			}
+		} );
+		_model.add(_newShape, _emptyNest);
+		assertTrue(_listenerMethodCalled);
+		assertTrue(changed[0]);
+	}
+
+	/**
+	 * Checks that collisions between the children of a CarrierShape whose 
+	 * children are grouped into ChildPages don't result in TreeModelEvents.
+	 */
+	@Test
+	public void test_collisionsInPagedCarrier() {
+		_adapter.setPageSize(10);
+		for (int i = 0; i < 14; i++) {
+			_model.add(new RectangleShape(i, i, 1, 1, 5, 5), _emptyNest);
+		}
+		_model.setCollisionsEnabled(true);
+		
+		_adapter.addTreeModelListener( new TreeModelListener() {
+
+			public void treeNodesChanged( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeNodesInserted( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeNodesRemoved( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeStructureChanged( TreeModelEvent e ) {
+				fail();
+			}
+		} );
+		final int[] collisions = new int[1];
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapesCollided) {
+					collisions[0]++;
+				}
+			}
+		});
+		for (int i = 0; i < 5; i++) {
+			_model.clock();
+		}
+		assertTrue(collisions[0] > 0);
+	}
 }